@@ -13,3 +13,32 @@
 
 -- You can then insert multiple records into the table here
 -- Additionally, you can install extensions (like pg_trgm for trigrams), as well as build indexes for fast full text searching
+
+-- The bot caches the course details it looked up (e.g, when a /search button is pressed) until the row changes, so changes
+-- to the courses table must notify the 'courses_changed' channel. Without this trigger, the cache never notices catalog reloads:
+
+-- CREATE OR REPLACE FUNCTION notify_courses_changed() RETURNS trigger AS $$
+-- BEGIN
+--   IF TG_OP = 'TRUNCATE' THEN
+--     -- Every row may have changed
+--     PERFORM pg_notify('courses_changed', '{}');
+--     RETURN NULL;
+--   END IF;
+--   IF TG_OP IN ('UPDATE', 'DELETE') THEN
+--     PERFORM pg_notify('courses_changed', json_build_object('subject_abbrev', OLD.subject_abbrev, 'number', OLD.number)::text);
+--   END IF;
+--   -- New rows too, as the bot also remembers courses that didn't exist
+--   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+--     PERFORM pg_notify('courses_changed', json_build_object('subject_abbrev', NEW.subject_abbrev, 'number', NEW.number)::text);
+--   END IF;
+--   RETURN NULL;
+-- END;
+-- $$ LANGUAGE plpgsql;
+
+-- CREATE TRIGGER courses_changed AFTER INSERT OR UPDATE OR DELETE ON courses
+--   FOR EACH ROW EXECUTE FUNCTION notify_courses_changed();
+-- CREATE TRIGGER courses_truncated AFTER TRUNCATE ON courses
+--   FOR EACH STATEMENT EXECUTE FUNCTION notify_courses_changed();
+
+-- Notifications are only sent once the transaction commits (and identical ones are sent once), so reloading the catalog in a
+-- single transaction is cheap for the bot: it drops the changed courses, and reloads its search index once
@@ -0,0 +1,283 @@
+package buckythebadgerbot.benchmarks;
+
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for every upstream API, replaying the fixtures
+ * Every service is pointed at it through its base URL, so the benchmarks and the load harness cover the whole request, read and parse
+ * - /nutrislice/... answers with the fixture week, moved to the requested week (so every date has a menu), whatever the dining market and menu type
+ * - /recwell/... answers with the fixture counts
+ * - /rmp answers with the search, details or ratings response, depending on the GraphQL query in the body
+ *   (the fixture ratings are paged by the count and cursor of the query, like RMP does)
+ * - /win/... answers with the fixture organizations on the first page (skip=0) and no organizations after, whatever the query
+ * Responses are gzipped when the request accepts it, like the real upstreams do
+ * Every upstream can be slowed down and made to fail (see {@link #configure(String, Duration, double)})
+ */
+public class FixtureServer implements AutoCloseable {
+
+    //Upstreams, by the path they are served on
+    public static final String NUTRISLICE = "/nutrislice/";
+    public static final String RECWELL = "/recwell/";
+    public static final String RMP = "/rmp";
+    public static final String WIN = "/win/";
+
+    //The first day (Sunday) of the fixture week
+    private static final LocalDate FIXTURE_WEEK = LocalDate.of(2023, 2, 5);
+    private static final DateTimeFormatter WEEK_PATH_FORMAT = DateTimeFormatter.ofPattern("uuuu/MM/dd");
+
+    private static final byte[] NO_ORGS = "{\"@odata.count\":0,\"value\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    //Every request gets its own thread, so injected latency doesn't hold up the other requests
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fixture-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final byte[] diningWeek = Fixtures.load(Fixtures.DINING_WEEK);
+    private final byte[] gymCounts = Fixtures.load(Fixtures.GYM_COUNTS);
+    private final byte[] rmpSearch = Fixtures.load(Fixtures.RMP_SEARCH);
+    private final byte[] rmpDetails = Fixtures.load(Fixtures.RMP_DETAILS);
+    private final byte[] rmpRatings = Fixtures.load(Fixtures.RMP_RATINGS);
+    private final byte[] rsoOrgs = Fixtures.load(Fixtures.RSO_ORGS);
+
+    //Map to store the fixture week moved to every requested week
+    //Follows the format {week start=response body}
+    private final Map<LocalDate, byte[]> diningWeeks = new ConcurrentHashMap<>();
+
+    //Map to store the pages of the fixture ratings
+    //Follows the format {"offset:count"=response body}
+    private final Map<String, byte[]> ratingPages = new ConcurrentHashMap<>();
+
+    //Map to store the gzipped version of every response body, by the identity of the body (every body is cached, so it is compressed once)
+    private final Map<byte[], byte[]> gzipped = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    //Map to store the latency and error injection of every upstream
+    //Follows the format {path=faults}
+    private final Map<String, Faults> faults = new ConcurrentHashMap<>();
+
+    /**
+     * Start the stand-in on a free port of the loopback interface
+     */
+    public FixtureServer() throws IOException {
+        //Otherwise small responses wait ~40 ms on Nagle's algorithm and delayed ACKs (headers and body are written separately), which no real upstream does
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(NUTRISLICE, withFaults(NUTRISLICE, exchange -> respond(exchange, diningWeek(exchange))));
+        server.createContext(RECWELL, withFaults(RECWELL, exchange -> respond(exchange, gymCounts)));
+        server.createContext(RMP, withFaults(RMP, exchange -> {
+            String query = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (query.contains("TeacherSearchResultsPageQuery")) {
+                respond(exchange, rmpSearch);
+            } else if (query.contains("TeacherRatingsPageQuery")) {
+                respond(exchange, rmpDetails);
+            } else {
+                respond(exchange, rmpRatings(query));
+            }
+        }));
+        server.createContext(WIN, withFaults(WIN, exchange -> {
+            String query = Objects.toString(exchange.getRequestURI().getRawQuery(), "");
+            respond(exchange, query.matches(".*(^|&)skip=0*[1-9].*") ? NO_ORGS : rsoOrgs);
+        }));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @param path the path of an upstream on the stand-in (e.g, FixtureServer.RMP)
+     * @return the URL of the upstream
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Slow down an upstream and make some of its requests fail
+     * @param path the path of the upstream (e.g, FixtureServer.RMP)
+     * @param latency how long every response is delayed
+     * @param errorRate the ratio of requests answered with a 503, from 0 to 1
+     */
+    public void configure(String path, Duration latency, double errorRate) {
+        faults.put(path, new Faults(latency.toMillis(), errorRate));
+    }
+
+    /**
+     * @param path the path of an upstream (e.g, FixtureServer.RMP)
+     * @return the number of requests the upstream received
+     */
+    public long getRequestCount(String path) {
+        Faults upstream = faults.get(path);
+        return upstream == null ? 0 : upstream.requests.sum();
+    }
+
+    /**
+     * @param path the path of an upstream (e.g, FixtureServer.RMP)
+     * @return the number of requests the upstream failed on purpose
+     */
+    public long getErrorCount(String path) {
+        Faults upstream = faults.get(path);
+        return upstream == null ? 0 : upstream.errors.sum();
+    }
+
+    /**
+     * Wrap the handler of an upstream with its latency and error injection
+     * @param path the path of the upstream
+     * @param handler the handler answering with the fixture
+     * @return the wrapped handler
+     */
+    private HttpHandler withFaults(String path, HttpHandler handler) {
+        faults.putIfAbsent(path, new Faults(0, 0));
+        return exchange -> {
+            Faults upstream = faults.get(path);
+            upstream.requests.increment();
+            try {
+                if (upstream.latencyMillis > 0) {
+                    Thread.sleep(upstream.latencyMillis);
+                }
+                if (upstream.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < upstream.errorRate) {
+                    upstream.errors.increment();
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+            }
+        };
+    }
+
+    /**
+     * Move the fixture week to the requested one (e.g, .../2023/02/05/ for the week of Feb 5th)
+     * @param exchange the request
+     * @return the fixture week, with its dates replaced by the dates of the requested week
+     */
+    private byte[] diningWeek(HttpExchange exchange) {
+        String[] segments = exchange.getRequestURI().getPath().split("/");
+        if (segments.length < 3) {
+            return diningWeek;
+        }
+        LocalDate weekStart;
+        try {
+            weekStart = LocalDate.parse(segments[segments.length - 3] + "/" + segments[segments.length - 2] + "/"
+                    + segments[segments.length - 1], WEEK_PATH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return diningWeek;
+        }
+        return diningWeeks.computeIfAbsent(weekStart, week -> {
+            String body = new String(diningWeek, StandardCharsets.UTF_8);
+            for (int day = 0; day < 7; day++) {
+                body = body.replace("\"" + FIXTURE_WEEK.plusDays(day) + "\"", "\"" + week.plusDays(day) + "\"");
+            }
+            return body.getBytes(StandardCharsets.UTF_8);
+        });
+    }
+
+    /**
+     * Page the fixture ratings like RMP does (the cursors of the stand-in are the offsets of the ratings)
+     * @param query the body of the RatingsListQuery request
+     * @return the ratings from the cursor, with the page info and course codes of the fixture teacher
+     */
+    private byte[] rmpRatings(String query) throws IOException {
+        JsonNode variables = JsonUtils.MAPPER.readTree(query).path("variables");
+        int offset = variables.path("cursor").isTextual() ? Integer.parseInt(variables.get("cursor").asText()) : 0;
+        int count = variables.path("count").asInt(100);
+        return ratingPages.computeIfAbsent(offset + ":" + count, key -> {
+            try {
+                ObjectNode node = (ObjectNode) JsonUtils.readTree(rmpRatings).path("data").path("node");
+                ArrayNode edges = (ArrayNode) node.path("ratings").path("edges");
+                int total = edges.size();
+                ArrayNode page = JsonUtils.MAPPER.createArrayNode();
+                for (int i = offset; i < Math.min(offset + count, total); i++) {
+                    page.add(edges.get(i));
+                }
+                ObjectNode ratings = JsonUtils.MAPPER.createObjectNode();
+                ratings.set("edges", page);
+                ratings.putObject("pageInfo")
+                        .put("hasNextPage", offset + count < total)
+                        .put("endCursor", String.valueOf(Math.min(offset + count, total)));
+                node.set("ratings", ratings);
+                node.putArray("courseCodes").addObject().put("courseName", "CS577").put("courseCount", total);
+                ObjectNode body = JsonUtils.MAPPER.createObjectNode();
+                body.putObject("data").set("node", node);
+                return JsonUtils.MAPPER.writeValueAsBytes(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        //Compress like the real upstreams do, when the client accepts it
+        String acceptEncoding = Objects.toString(exchange.getRequestHeaders().getFirst("Accept-Encoding"), "");
+        if (acceptEncoding.contains("gzip")) {
+            body = gzipped.computeIfAbsent(body, FixtureServer::gzip);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The latency and error injection of an upstream, and how many requests it got
+     */
+    private static class Faults {
+        private final long latencyMillis;
+        private final double errorRate;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private Faults(long latencyMillis, double errorRate) {
+            this.latencyMillis = latencyMillis;
+            this.errorRate = errorRate;
+        }
+    }
+}
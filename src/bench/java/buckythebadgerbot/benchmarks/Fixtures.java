@@ -0,0 +1,37 @@
+package buckythebadgerbot.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Synthetic responses of every upstream API, shaped like the real ones (every field the API sends, not only the ones the bot reads)
+ * NOTE: These aren't captures, the names, IDs and links are placeholders (see the Benchmarks section of the README)
+ */
+public final class Fixtures {
+    public static final String DINING_WEEK = "nutrislice-week.json";
+    public static final String GYM_COUNTS = "recwell-counts.json";
+    public static final String RMP_SEARCH = "rmp-search.json";
+    public static final String RMP_DETAILS = "rmp-details.json";
+    public static final String RMP_RATINGS = "rmp-ratings.json";
+    public static final String RSO_ORGS = "win-organizations.json";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Load a fixture from the classpath
+     * @param name the file name of the fixture
+     * @return the raw bytes of the response body
+     */
+    public static byte[] load(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Missing fixture " + name + "!");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
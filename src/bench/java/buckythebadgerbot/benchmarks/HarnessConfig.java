@@ -0,0 +1,68 @@
+package buckythebadgerbot.benchmarks;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.github.cdimascio.dotenv.DotenvEntry;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The environment variables of the bot (.env), with some of them replaced (e.g, the base URLs of the upstream APIs)
+ */
+public class HarnessConfig implements Dotenv {
+
+    private final Dotenv base;
+    private final Map<String, String> overrides = new HashMap<>();
+
+    /**
+     * @param base the environment variables to fall back on
+     */
+    public HarnessConfig(Dotenv base) {
+        this.base = base;
+    }
+
+    /**
+     * Replace a variable
+     * @param key the name of the variable
+     * @param value the new value
+     * @return this config, for chaining
+     */
+    public HarnessConfig set(String key, String value) {
+        overrides.put(key, value);
+        return this;
+    }
+
+    @Override
+    public Set<DotenvEntry> entries() {
+        return merge(base.entries());
+    }
+
+    @Override
+    public Set<DotenvEntry> entries(Filter filter) {
+        return merge(base.entries(filter));
+    }
+
+    @Override
+    public String get(String key) {
+        return overrides.containsKey(key) ? overrides.get(key) : base.get(key);
+    }
+
+    @Override
+    public String get(String key, String defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private Set<DotenvEntry> merge(Set<DotenvEntry> entries) {
+        Set<DotenvEntry> merged = new LinkedHashSet<>();
+        for (DotenvEntry entry : entries) {
+            if (!overrides.containsKey(entry.getKey())) {
+                merged.add(entry);
+            }
+        }
+        overrides.forEach((key, value) -> merged.add(new DotenvEntry(key, value)));
+        return merged;
+    }
+}
@@ -0,0 +1,290 @@
+package buckythebadgerbot.benchmarks;
+
+import buckythebadgerbot.BuckyTheBadgerBot;
+import buckythebadgerbot.utils.concurrent.ExecutorStats;
+import buckythebadgerbot.utils.metrics.LatencyHistogram;
+import buckythebadgerbot.utils.metrics.Metrics;
+import io.github.cdimascio.dotenv.Dotenv;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+import net.dv8tion.jda.api.interactions.components.selections.SelectOption;
+import net.dv8tion.jda.api.interactions.components.selections.StringSelectMenu;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Offline load test of the whole bot: the real listeners, executors, caches and HTTP clients, against local stubs of Discord and the upstream APIs
+ * - The upstream APIs are replaced by a FixtureServer (with configurable latency and errors), through the *_BASE_URL variables
+ * - Synthetic slash commands, button presses and select menu selections are dispatched on the event pool at a target rate, like JDA does
+ * - The latency of an event is the time from its dispatch to the first reply, edit or acknowledgement of the bot
+ * Every few seconds (and at the end), reports the throughput, the p50/p99 latency of every scenario, the thread count and the load on every executor
+ *
+ * Options (all optional): --rate=50 (events per second), --duration=60 (seconds), --report=10 (seconds),
+ * --upstream-latency=100 (ms), --error-rate=0 (0 to 1), --discord-latency=50 (ms), --users=1000,
+ * --mix=professor:20,gym:15,diningmenu:20,rso:10,pagination:25,studentRatings:5,studentRatingsSelect:5
+ * The rest of the configuration (e.g, EXECUTION_MODEL, BULKHEAD_THREADS) is read from .env as usual
+ */
+public class LoadHarness {
+    private static final Logger logger = LoggerFactory.getLogger(LoadHarness.class);
+
+    private static final String DEFAULT_MIX = "professor:20,gym:15,diningmenu:20,rso:10,pagination:25,studentRatings:5,studentRatingsSelect:5";
+
+    private static final List<String> DINING_MARKETS = List.of("rhetas-market-0Rheta's Market", "gordon-avenue-market-0Gordon Avenue Market",
+            "lowell-market-0Lowell Market", "lizs-market-0Liz's Market", "carsons-market-0Carson's Market", "four-lakes-market-0Four Lakes Market");
+    private static final List<String> MENU_TYPES = List.of("breakfast-0Breakfast", "lunch-0Lunch", "dinner-0Dinner");
+    private static final List<String> RSO_QUERIES = List.of("badger", "club", "chess", "robotics", "dance", "finance", "coding", "outdoors");
+
+    private final BuckyTheBadgerBot bot;
+    private final SyntheticEvents events;
+    private final int users;
+
+    //The scenarios and their cumulative weights, to pick one at random
+    private final List<String> scenarios = new ArrayList<>();
+    private final List<Integer> cumulativeWeights = new ArrayList<>();
+
+    //Latency of every scenario, from dispatch to the first response
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, LongAdder> sentCounts = new HashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder responded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private LoadHarness(BuckyTheBadgerBot bot, SyntheticEvents events, String mix, int users) {
+        this.bot = bot;
+        this.events = events;
+        this.users = users;
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] scenario = entry.split(":");
+            total += Integer.parseInt(scenario[1].strip());
+            scenarios.add(scenario[0].strip());
+            cumulativeWeights.add(total);
+            latencies.put(scenario[0].strip(), new LatencyHistogram());
+            sentCounts.put(scenario[0].strip(), new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+        Duration reportInterval = Duration.ofSeconds(Long.parseLong(options.getOrDefault("report", "10")));
+        Duration upstreamLatency = Duration.ofMillis(Long.parseLong(options.getOrDefault("upstream-latency", "100")));
+        double errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+        Duration discordLatency = Duration.ofMillis(Long.parseLong(options.getOrDefault("discord-latency", "50")));
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+
+        FixtureServer upstreams = new FixtureServer();
+        for (String upstream : List.of(FixtureServer.NUTRISLICE, FixtureServer.RECWELL, FixtureServer.RMP, FixtureServer.WIN)) {
+            upstreams.configure(upstream, upstreamLatency, errorRate);
+        }
+        HarnessConfig config = new HarnessConfig(Dotenv.configure().ignoreIfMissing().load())
+                .set("NUTRISLICE_BASE_URL", upstreams.url(FixtureServer.NUTRISLICE))
+                .set("RECWELL_BASE_URL", upstreams.url(FixtureServer.RECWELL) + "counts?AccountAPIKey=")
+                .set("RMP_BASE_URL", upstreams.url(FixtureServer.RMP))
+                .set("WIN_BASE_URL", upstreams.url(FixtureServer.WIN) + "organizations?");
+        BuckyTheBadgerBot bot = new BuckyTheBadgerBot(config, false);
+
+        //The success callbacks of the replies run on the callback pool after a Discord round trip, like JDA does
+        SyntheticEvents events = new SyntheticEvents(callback -> BuckyTheBadgerBot.scheduledExecutor.schedule(() -> {
+            try {
+                bot.executionModel.getCallbackPool().execute(callback);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Rejected a reply callback! {}", e.getMessage());
+            }
+        }, discordLatency.toMillis(), TimeUnit.MILLISECONDS));
+        LoadHarness harness = new LoadHarness(bot, events, options.getOrDefault("mix", DEFAULT_MIX), users);
+
+        logger.info("Sending {} events/s for {} s (upstream latency {} ms, error rate {}, Discord latency {} ms)",
+                rate, duration.toSeconds(), upstreamLatency.toMillis(), errorRate, discordLatency.toMillis());
+        ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-harness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long startTime = System.nanoTime();
+        driver.scheduleAtFixedRate(harness::sendEvent, 0, (long) (TimeUnit.SECONDS.toNanos(1) / rate), TimeUnit.NANOSECONDS);
+        driver.scheduleAtFixedRate(() -> harness.report(startTime), reportInterval.toMillis(), reportInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        Thread.sleep(duration.toMillis());
+        driver.shutdownNow();
+        //Let the events in flight finish before the final report
+        Thread.sleep(Math.max(2000, upstreamLatency.toMillis() * 4 + discordLatency.toMillis() * 2));
+        harness.report(startTime);
+        for (String upstream : List.of(FixtureServer.NUTRISLICE, FixtureServer.RECWELL, FixtureServer.RMP, FixtureServer.WIN)) {
+            logger.info("Upstream {}: {} requests, {} injected errors", upstream, upstreams.getRequestCount(upstream), upstreams.getErrorCount(upstream));
+        }
+        //How many identical upstream calls were collapsed into one
+        Metrics.registry.scrape().lines().filter(line -> line.startsWith("bucky_singleflight_")).forEach(line -> logger.info("  {}", line));
+        upstreams.close();
+        System.exit(0);
+    }
+
+    /**
+     * Dispatch the event of a random scenario on the event pool
+     * Falls back to a slash command if the scenario needs a component that hasn't been sent yet
+     */
+    private void sendEvent() {
+        try {
+            String scenario = pickScenario();
+            Runnable event = buildEvent(scenario);
+            if (event == null) {
+                scenario = "professor";
+                event = buildEvent(scenario);
+            }
+            sent.increment();
+            sentCounts.computeIfAbsent(scenario, key -> new LongAdder()).increment();
+            try {
+                bot.executionModel.getEventPool().execute(event);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+            }
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.error("Could not send an event! {}", e.toString());
+        }
+    }
+
+    private String pickScenario() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights.get(cumulativeWeights.size() - 1));
+        for (int i = 0; i < scenarios.size(); i++) {
+            if (roll < cumulativeWeights.get(i)) {
+                return scenarios.get(i);
+            }
+        }
+        return scenarios.get(scenarios.size() - 1);
+    }
+
+    /**
+     * Build the event of a scenario, and how the listener receives it
+     * @param scenario the name of the scenario (e.g, "professor", "pagination")
+     * @return the dispatch of the event, or null if there is nothing to press yet
+     */
+    private Runnable buildEvent(String scenario) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long userId = 100000000000000000L + random.nextInt(users);
+        SyntheticEvents.Response response = response(scenario);
+        switch (scenario) {
+            case "professor": {
+                Map<String, String> options = Map.of("professor", "Professor " + random.nextInt(200));
+                var event = events.slashCommand("professor", options, userId, response);
+                return () -> bot.commandManager.onSlashCommandInteraction(event);
+            }
+            case "gym": {
+                var event = events.slashCommand("gym", Map.of(), userId, response);
+                return () -> bot.commandManager.onSlashCommandInteraction(event);
+            }
+            case "diningmenu": {
+                Map<String, String> options = Map.of("dining-market", DINING_MARKETS.get(random.nextInt(DINING_MARKETS.size())),
+                        "menu", MENU_TYPES.get(random.nextInt(MENU_TYPES.size())));
+                var event = events.slashCommand("diningmenu", options, userId, response);
+                return () -> bot.commandManager.onSlashCommandInteraction(event);
+            }
+            case "rso": {
+                Map<String, String> options = Map.of("query", RSO_QUERIES.get(random.nextInt(RSO_QUERIES.size())));
+                var event = events.slashCommand("rso", options, userId, response);
+                return () -> bot.commandManager.onSlashCommandInteraction(event);
+            }
+            case "pagination": {
+                Button button = events.paginationButton();
+                if (button == null) {
+                    return null;
+                }
+                var event = events.button(button, requester(button.getId()), response);
+                return () -> bot.buttonListener.onButtonInteraction(event);
+            }
+            case "studentRatings": {
+                Button button = events.studentRatingsButton();
+                if (button == null) {
+                    return null;
+                }
+                var event = events.button(button, requester(button.getId()), response);
+                return () -> bot.buttonListener.onButtonInteraction(event);
+            }
+            case "studentRatingsSelect": {
+                StringSelectMenu menu = events.studentRatingsMenu();
+                if (menu == null || menu.getOptions().isEmpty()) {
+                    return null;
+                }
+                SelectOption option = menu.getOptions().get(random.nextInt(menu.getOptions().size()));
+                var event = events.stringSelect(menu, List.of(option.getValue()), requester(menu.getId()), response);
+                return () -> bot.stringSelectListener.onStringSelectInteraction(event);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario + "!");
+        }
+    }
+
+    /**
+     * @param componentId the ID of a component (e.g, "userID:UUID:pagination:next")
+     * @return the ID of the user who requested the component, who is the only one allowed to use it
+     */
+    private static long requester(String componentId) {
+        return Long.parseLong(componentId.substring(0, componentId.indexOf(':')));
+    }
+
+    private SyntheticEvents.Response response(String scenario) {
+        LatencyHistogram histogram = latencies.get(scenario);
+        LatencyHistogram fallback = latencies.get("professor");
+        return new SyntheticEvents.Response(nanos -> {
+            responded.increment();
+            //The scenario may fall back to /professor, which is recorded under the scenario that was picked
+            (histogram != null ? histogram : fallback).record(nanos);
+        });
+    }
+
+    /**
+     * Log the throughput, latencies, thread count and executor load so far
+     * @param startTime when the load started (in System.nanoTime())
+     */
+    private void report(long startTime) {
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        logger.info(String.format(Locale.ROOT, "After %.0f s: sent %d (%.1f/s), responded %d (%.1f/s), rejected %d, failed %d, in flight %d",
+                elapsed, sent.sum(), sent.sum() / elapsed, responded.sum(), responded.sum() / elapsed, rejected.sum(), failed.sum(),
+                sent.sum() - responded.sum() - rejected.sum()));
+        latencies.forEach((scenario, histogram) -> {
+            if (histogram.getCount() > 0) {
+                logger.info(String.format(Locale.ROOT, "  %-22s sent %7d  responded %7d  p50 %8.1f ms  p99 %8.1f ms  mean %8.1f ms",
+                        scenario, sentCounts.get(scenario).sum(), histogram.getCount(), histogram.getQuantile(0.5) * 1000,
+                        histogram.getQuantile(0.99) * 1000, histogram.getSum() * 1000 / histogram.getCount()));
+            }
+        });
+        logger.info("  threads: {} live, {} peak, {} daemon", threads.getThreadCount(), threads.getPeakThreadCount(), threads.getDaemonThreadCount());
+        for (ExecutorStats stats : bot.executionModel.getStats()) {
+            logger.info("  {}", stats);
+        }
+        logger.info("  {}", BuckyTheBadgerBot.interactionStates.getStats());
+    }
+
+    /**
+     * @param args the options, as --name=value
+     * @return the options by name
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value, not " + arg + "!");
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,117 @@
+package buckythebadgerbot.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-ins for the JDA interfaces (interactions, callback actions, ...), so handlers can run without a gateway connection
+ * A stub answers every call with nothing, unless its handler answers it:
+ * - Default methods run as declared (e.g, editComponents() calls deferEdit().setComponents())
+ * - Fluent methods (e.g, setEmbeds()) return the stub itself, and methods returning another JDA interface return a stub of it (sharing the handler)
+ * - Collections are empty, and everything else is null, false or 0, so queue() does nothing
+ */
+public final class Stubs {
+
+    //Returned by a handler to leave a call to the stub
+    public static final Object UNANSWERED = new Object();
+
+    private Stubs() {
+    }
+
+    /**
+     * Handler for the calls on a stub (e.g, to capture the components set on a reply, or to answer getUser())
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * @param stub the stub that was called
+         * @param method the method that was called
+         * @param args the arguments of the call (null if there are none)
+         * @return the result of the call, or UNANSWERED to leave it to the stub
+         */
+        Object handle(Object stub, Method method, Object[] args) throws Throwable;
+    }
+
+    /**
+     * @param type the interface to stub
+     * @return a stub of the interface
+     */
+    public static <T> T stub(Class<T> type) {
+        return stub(type, (stub, method, args) -> UNANSWERED);
+    }
+
+    /**
+     * @param type the interface to stub
+     * @param handler called first for every call on the stub (including the default methods), and on every stub returned by it
+     * @return a stub of the interface
+     */
+    public static <T> T stub(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return "Stub(" + type.getSimpleName() + ")";
+                    }
+                    break;
+            }
+            Object answer = handler.handle(proxy, method, args);
+            if (answer != UNANSWERED) {
+                return answer;
+            }
+            if (method.isDefault()) {
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            }
+            return defaultValue(proxy, method.getReturnType(), handler);
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    private static Object defaultValue(Object proxy, Class<?> returnType, Handler handler) {
+        if (returnType.isInstance(proxy)) {
+            return proxy;
+        }
+        if (returnType == List.class || returnType == Collection.class) {
+            return List.of();
+        }
+        if (returnType == Set.class) {
+            return Set.of();
+        }
+        if (returnType == Map.class) {
+            return Map.of();
+        }
+        if (returnType.isInterface() && !returnType.getName().startsWith("java.")) {
+            return stub(returnType, handler);
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == int.class || returnType == short.class || returnType == byte.class) {
+            return 0;
+        }
+        if (returnType == double.class) {
+            return 0.0;
+        }
+        if (returnType == float.class) {
+            return 0.0f;
+        }
+        return null;
+    }
+}
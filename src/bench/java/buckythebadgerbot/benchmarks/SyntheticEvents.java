@@ -0,0 +1,282 @@
+package buckythebadgerbot.benchmarks;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
+import net.dv8tion.jda.api.interactions.Interaction;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.SlashCommandInteraction;
+import net.dv8tion.jda.api.interactions.components.ActionRow;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+import net.dv8tion.jda.api.interactions.components.buttons.ButtonInteraction;
+import net.dv8tion.jda.api.interactions.components.selections.StringSelectInteraction;
+import net.dv8tion.jda.api.interactions.components.selections.StringSelectMenu;
+import net.dv8tion.jda.api.requests.restaction.interactions.MessageEditCallbackAction;
+import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import net.dv8tion.jda.api.utils.data.DataObject;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Builds interaction events as if they came from Discord, for the listeners of an offline bot
+ * - The first reply, edit or acknowledgement of an event completes its Response
+ * - The success callback of a reply or edit runs on the callback dispatcher (e.g, after a simulated Discord round trip) with a stubbed InteractionHook
+ * - The components of every reply (pagination buttons, "See Student Ratings" buttons, select menus) are kept, so they can be pressed later
+ */
+public class SyntheticEvents {
+
+    //How many of the latest components of every kind are kept for later presses
+    private static final int POOL_SIZE = 1024;
+
+    private final JDA jda = Stubs.stub(JDA.class);
+    private final Consumer<Runnable> callbackDispatcher;
+    private final AtomicLong ids = new AtomicLong(1000000000000000000L);
+
+    private final ComponentPool<Button> paginationButtons = new ComponentPool<>();
+    private final ComponentPool<Button> studentRatingsButtons = new ComponentPool<>();
+    private final ComponentPool<StringSelectMenu> studentRatingsMenus = new ComponentPool<>();
+
+    /**
+     * @param callbackDispatcher runs the success callbacks of the replies and edits
+     */
+    public SyntheticEvents(Consumer<Runnable> callbackDispatcher) {
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Build a slash command
+     * @param name the name of the command (e.g, "professor")
+     * @param options the string options of the command
+     * @param userId the user running the command
+     * @param response completed with the first reply of the bot
+     * @return the event
+     */
+    public SlashCommandInteractionEvent slashCommand(String name, Map<String, String> options, long userId, Response response) {
+        List<OptionMapping> mappings = new ArrayList<>();
+        //No JDA for the options, since it is only used to resolve mentions (and must be the internal implementation)
+        options.forEach((option, value) -> mappings.add(new OptionMapping(DataObject.empty()
+                .put("name", option).put("type", OptionType.STRING.getKey()).put("value", value), new TLongObjectHashMap<>(), null, null)));
+        SlashCommandInteraction interaction = Stubs.stub(SlashCommandInteraction.class, handler(userId, response, Map.of(
+                "getName", name,
+                "getFullCommandName", name,
+                "getOptions", mappings)));
+        //The replies of the event are passed to the stub, since JDA casts them to its internal implementation
+        return new SlashCommandInteractionEvent(jda, 0, interaction) {
+            @Override
+            public ReplyCallbackAction reply(MessageCreateData message) {
+                return interaction.reply(message);
+            }
+        };
+    }
+
+    /**
+     * Build a button press
+     * @param button the button that was pressed
+     * @param userId the user pressing the button
+     * @param response completed with the first reply or edit of the bot
+     * @return the event
+     */
+    public ButtonInteractionEvent button(Button button, long userId, Response response) {
+        ButtonInteraction interaction = Stubs.stub(ButtonInteraction.class, handler(userId, response, Map.of(
+                "getComponentId", button.getId(),
+                "getComponent", button,
+                "getButton", button,
+                "getMessageIdLong", ids.incrementAndGet())));
+        return new ButtonInteractionEvent(jda, 0, interaction) {
+            @Override
+            public ReplyCallbackAction reply(MessageCreateData message) {
+                return interaction.reply(message);
+            }
+
+            @Override
+            public MessageEditCallbackAction editMessage(MessageEditData message) {
+                return interaction.editMessage(message);
+            }
+        };
+    }
+
+    /**
+     * Build a selection on a select menu
+     * @param menu the select menu
+     * @param values the values of the selected options
+     * @param userId the user selecting the options
+     * @param response completed with the first reply of the bot
+     * @return the event
+     */
+    public StringSelectInteractionEvent stringSelect(StringSelectMenu menu, List<String> values, long userId, Response response) {
+        StringSelectInteraction interaction = Stubs.stub(StringSelectInteraction.class, handler(userId, response, Map.of(
+                "getComponentId", menu.getId(),
+                "getComponent", menu,
+                "getSelectMenu", menu,
+                "getValues", values,
+                "getMessageIdLong", ids.incrementAndGet())));
+        return new StringSelectInteractionEvent(jda, 0, interaction) {
+            @Override
+            public ReplyCallbackAction reply(MessageCreateData message) {
+                return interaction.reply(message);
+            }
+
+            @Override
+            public MessageEditCallbackAction editMessage(MessageEditData message) {
+                return interaction.editMessage(message);
+            }
+        };
+    }
+
+    /**
+     * @return a recent (enabled) pagination "next" button, or null if none was sent yet
+     */
+    public Button paginationButton() {
+        return paginationButtons.random();
+    }
+
+    /**
+     * @return a recent "See Student Ratings" button, or null if none was sent yet
+     */
+    public Button studentRatingsButton() {
+        return studentRatingsButtons.random();
+    }
+
+    /**
+     * @return a recent student ratings select menu, or null if none was sent yet
+     */
+    public StringSelectMenu studentRatingsMenu() {
+        return studentRatingsMenus.random();
+    }
+
+    /**
+     * Answer the calls on an interaction and every stub it returns (its user, callback actions, hooks, ...)
+     * @param userId the ID of the user of the interaction
+     * @param response completed with the first reply, edit or acknowledgement
+     * @param answers the answers of the interaction itself, by method name
+     * @return the handler
+     */
+    private Stubs.Handler handler(long userId, Response response, Map<String, Object> answers) {
+        return new Stubs.Handler() {
+            @Override
+            public Object handle(Object stub, Method method, Object[] args) {
+                String name = method.getName();
+                if (stub instanceof User && name.equals("getIdLong")) {
+                    return userId;
+                }
+                if (stub instanceof Interaction && method.getParameterCount() == 0 && answers.containsKey(name)) {
+                    return answers.get(name);
+                }
+                if (args != null) {
+                    for (Object arg : args) {
+                        collect(arg);
+                    }
+                }
+                //Same for the stub itself
+                if (stub instanceof Interaction && (method.getReturnType() == ReplyCallbackAction.class
+                        || method.getReturnType() == MessageEditCallbackAction.class)) {
+                    return Stubs.stub(method.getReturnType(), this);
+                }
+                //Every RestAction ends up in queue(success, failure)
+                if (name.equals("queue") && method.getParameterCount() == 2) {
+                    response.complete();
+                    if (args[0] != null && (stub instanceof ReplyCallbackAction || stub instanceof MessageEditCallbackAction)) {
+                        @SuppressWarnings("unchecked")
+                        Consumer<Object> success = (Consumer<Object>) args[0];
+                        InteractionHook hook = Stubs.stub(InteractionHook.class, this);
+                        callbackDispatcher.accept(() -> success.accept(hook));
+                    }
+                    return null;
+                }
+                return Stubs.UNANSWERED;
+            }
+        };
+    }
+
+    /**
+     * Keep the buttons and select menus of a reply, so they can be pressed later
+     * @param component an argument of a call (e.g, a message, an action row, a list of buttons)
+     */
+    private void collect(Object component) {
+        if (component instanceof MessageCreateData message) {
+            message.getComponents().forEach(this::collect);
+        } else if (component instanceof ActionRow row) {
+            row.getComponents().forEach(this::collect);
+        } else if (component instanceof Collection<?> components) {
+            components.forEach(this::collect);
+        } else if (component instanceof Object[] components) {
+            for (Object item : components) {
+                collect(item);
+            }
+        } else if (component instanceof Button button && !button.isDisabled() && button.getId() != null) {
+            if (button.getId().endsWith(":pagination:next")) {
+                paginationButtons.add(button);
+            } else if (button.getId().contains(":studentRatings:")) {
+                studentRatingsButtons.add(button);
+            }
+        } else if (component instanceof StringSelectMenu menu && !menu.isDisabled() && menu.getId() != null
+                && menu.getId().contains(":studentRatings:")) {
+            studentRatingsMenus.add(menu);
+        }
+    }
+
+    /**
+     * The latest components of a kind, in a ring
+     */
+    private static class ComponentPool<T> {
+        private final AtomicReferenceArray<T> ring = new AtomicReferenceArray<>(POOL_SIZE);
+        private final AtomicLong added = new AtomicLong();
+
+        private void add(T component) {
+            ring.set((int) (added.getAndIncrement() % POOL_SIZE), component);
+        }
+
+        private T random() {
+            long count = Math.min(added.get(), POOL_SIZE);
+            return count == 0 ? null : ring.get(ThreadLocalRandom.current().nextInt((int) count));
+        }
+    }
+
+    /**
+     * The response of the bot to an event, completed by its first reply, edit or acknowledgement
+     */
+    public static class Response {
+        private final long startTime = System.nanoTime();
+        private final Consumer<Long> onComplete;
+        private volatile boolean completed;
+
+        /**
+         * @param onComplete called once with the time it took the bot to respond, in nanoseconds
+         */
+        public Response(Consumer<Long> onComplete) {
+            this.onComplete = onComplete;
+        }
+
+        private void complete() {
+            if (completed) {
+                return;
+            }
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+            }
+            onComplete.accept(System.nanoTime() - startTime);
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
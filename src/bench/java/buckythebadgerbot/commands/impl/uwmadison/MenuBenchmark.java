@@ -0,0 +1,106 @@
+package buckythebadgerbot.commands.impl.uwmadison;
+
+import buckythebadgerbot.benchmarks.FixtureServer;
+import buckythebadgerbot.data.StudentRatingsPage;
+import buckythebadgerbot.services.impl.DiningMenuService;
+import buckythebadgerbot.services.impl.RMPService;
+import buckythebadgerbot.utils.pagination.PageSource;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embed construction of the paginated menus, from already parsed results
+ * - /dining builds every embed up front, once per menu (a repeated request of the same menu is answered from the render cache)
+ * - /professor starts from the first few ratings and builds the embed of a rating when its page is shown, fetching the next ratings
+ *   as the user gets to them (from memory here), so paging through the whole menu renders every page
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MenuBenchmark {
+
+    private static final LocalDate TODAY = LocalDate.of(2023, 2, 6);
+
+    private Map<String, String> stations;
+    private final DiningMenuCommand.MenuRenderCache renderedMenus = new DiningMenuCommand.MenuRenderCache();
+    private StudentRatingsPage firstRatings;
+    //The pages of ratings after the first one, by the cursor they start at
+    private final Map<String, StudentRatingsPage> nextRatings = new HashMap<>();
+
+    @Setup
+    public void setup() throws IOException {
+        //Parse the fixtures the way the bot would, through the stand-in
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FixtureServer server = new FixtureServer()) {
+            stations = new DiningMenuService(server.url(FixtureServer.NUTRISLICE), executor)
+                    .getDiningMenuAsync("rhetas-market", "lunch", TODAY).join();
+            RMPService rmpService = new RMPService(server.url(FixtureServer.RMP), "bench", executor);
+            firstRatings = rmpService.getStudentRatingsAsync("VGVhY2hlci0yMDAwMDAz", "CS577", null).join();
+            StudentRatingsPage page = firstRatings;
+            while (page != null && page.hasNextPage()) {
+                String cursor = page.getEndCursor();
+                page = rmpService.getStudentRatingsAsync("VGVhY2hlci0yMDAwMDAz", "CS577", cursor).join();
+                nextRatings.put(cursor, page);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (stations == null || stations.isEmpty() || firstRatings == null || firstRatings.getRatings().isEmpty()) {
+            throw new IllegalStateException("The fixtures could not be parsed!");
+        }
+    }
+
+    @Benchmark
+    public ArrayList<MessageEmbed> diningMenu() {
+        return DiningMenuCommand.buildMenu(stations, "Rheta's Market", "Lunch", null, null, Instant.EPOCH);
+    }
+
+    @Benchmark
+    public List<MessageEmbed> diningMenuRendered() {
+        //What a repeated request of the same menu does
+        return renderedMenus.get("rhetas-market/lunch/" + TODAY, TODAY, TODAY, stations, null, this::diningMenu);
+    }
+
+    @Benchmark
+    public MessageEmbed profMenu() {
+        //What the first reply needs
+        return ProfCommand.buildMenu(firstRatings, this::fetchRatings, "Will Hobbes", 42).render(0);
+    }
+
+    @Benchmark
+    public void profMenuRendered(Blackhole blackhole) {
+        PageSource pages = ProfCommand.buildMenu(firstRatings, this::fetchRatings, "Will Hobbes", 42);
+        for (int i = 0; i < pages.size(); i++) {
+            blackhole.consume(pages.render(pages.load(i).join()));
+        }
+    }
+
+    private CompletableFuture<StudentRatingsPage> fetchRatings(String cursor) {
+        return CompletableFuture.completedFuture(nextRatings.get(cursor));
+    }
+}
@@ -0,0 +1,83 @@
+package buckythebadgerbot.services.impl;
+
+import buckythebadgerbot.benchmarks.FixtureServer;
+import buckythebadgerbot.data.GymSnapshot;
+import buckythebadgerbot.data.StudentRatingsPage;
+import buckythebadgerbot.utils.search.RSOSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every (uncached) upstream call of the bot against the local stand-in, from sending the request to the parsed result
+ * Compare with ParseBenchmark to tell the cost of the HTTP client apart from the cost of decoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FetchBenchmark {
+
+    private static final LocalDate WEEK_START = LocalDate.of(2023, 2, 5);
+
+    private FixtureServer server;
+    private ExecutorService executor;
+
+    private DiningMenuService diningMenuService;
+    private GymService gymService;
+    private RMPService rmpService;
+    private RSOService rsoService;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new FixtureServer();
+        executor = Executors.newFixedThreadPool(2);
+        diningMenuService = new DiningMenuService(server.url(FixtureServer.NUTRISLICE), executor);
+        gymService = new GymService(server.url(FixtureServer.RECWELL + "counts?AccountAPIKey="), "bench", executor);
+        rmpService = new RMPService(server.url(FixtureServer.RMP), "bench", executor);
+        rsoService = new RSOService(server.url(FixtureServer.WIN + "organizations?"), executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        server.close();
+    }
+
+    //Typed as Object, since DiningWeek is only visible in its package (not in the generated jmh_generated package)
+    @Benchmark
+    public Object diningWeek() {
+        return diningMenuService.fetchWeek("rhetas-market", "lunch", WEEK_START).join();
+    }
+
+    @Benchmark
+    public GymSnapshot gymUsages() {
+        return gymService.refresh().join();
+    }
+
+    @Benchmark
+    public StudentRatingsPage rmpStudentRatings() {
+        return rmpService.getStudentRatingsAsync("VGVhY2hlci0yMDAwMDAz", "CS577", null).join();
+    }
+
+    @Benchmark
+    public RSOSearchIndex rsoCatalog() {
+        return rsoService.refresh().join();
+    }
+}
@@ -0,0 +1,110 @@
+package buckythebadgerbot.services.impl;
+
+import buckythebadgerbot.benchmarks.Fixtures;
+import buckythebadgerbot.data.GymSnapshot;
+import buckythebadgerbot.data.Professor;
+import buckythebadgerbot.data.RegStudentOrg;
+import buckythebadgerbot.data.StudentRatingsPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the (synthetic) response of every upstream API, without the network
+ * Covers the JSON parsing and the aggregation done on top of it (e.g, grouping the food items of a day by station)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final URI FIXTURE_URI = URI.create("fixture:" + Fixtures.DINING_WEEK);
+
+    private DiningMenuService diningMenuService;
+    private GymService gymService;
+    private RMPService rmpService;
+    private RSOService rsoService;
+
+    private byte[] diningWeek;
+    private byte[] gymCounts;
+    private byte[] rmpSearch;
+    private byte[] rmpDetails;
+    private byte[] rmpRatings;
+    private byte[] rsoOrgs;
+
+    //The professor found by the search, whose details are parsed
+    private Professor searchedProf;
+
+    @Setup
+    public void setup() {
+        //Nothing is sent, so the HTTP clients never use their executor
+        diningMenuService = new DiningMenuService(Runnable::run);
+        gymService = new GymService("bench", Runnable::run);
+        rmpService = new RMPService("bench", Runnable::run);
+        rsoService = new RSOService(Runnable::run);
+
+        diningWeek = Fixtures.load(Fixtures.DINING_WEEK);
+        gymCounts = Fixtures.load(Fixtures.GYM_COUNTS);
+        rmpSearch = Fixtures.load(Fixtures.RMP_SEARCH);
+        rmpDetails = Fixtures.load(Fixtures.RMP_DETAILS);
+        rmpRatings = Fixtures.load(Fixtures.RMP_RATINGS);
+        rsoOrgs = Fixtures.load(Fixtures.RSO_ORGS);
+
+        searchedProf = new Professor();
+        if (!rmpService.parseSearchResults(rmpSearch, searchedProf)) {
+            throw new IllegalStateException("The RMP search fixture has no professor!");
+        }
+    }
+
+    //Typed as Object, since DiningWeek is only visible in its package (not in the generated jmh_generated package)
+    @Benchmark
+    public Object diningWeek() {
+        return diningMenuService.parseWeek(diningWeek, FIXTURE_URI);
+    }
+
+    @Benchmark
+    public GymSnapshot gymUsages() {
+        return gymService.parseGymUsages(gymCounts);
+    }
+
+    @Benchmark
+    public Professor rmpSearch() {
+        Professor prof = new Professor();
+        rmpService.parseSearchResults(rmpSearch, prof);
+        return prof;
+    }
+
+    @Benchmark
+    public Professor rmpDetails() {
+        Professor prof = new Professor();
+        prof.setRegularId(searchedProf.getRegularId());
+        prof.setLegacyId(searchedProf.getLegacyId());
+        prof.setSchool(searchedProf.getSchool());
+        prof.setWouldTakeAgainPercent(searchedProf.getWouldTakeAgainPercent());
+        return rmpService.parseDetails(rmpDetails, prof);
+    }
+
+    @Benchmark
+    public StudentRatingsPage rmpStudentRatings() {
+        return rmpService.parseStudentRatings(rmpRatings, searchedProf.getRegularId(), "CS577");
+    }
+
+    @Benchmark
+    public List<RegStudentOrg> rsoOrgs() {
+        return rsoService.parseOrgs(rsoOrgs);
+    }
+}
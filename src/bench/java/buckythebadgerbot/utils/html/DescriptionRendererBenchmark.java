@@ -0,0 +1,80 @@
+package buckythebadgerbot.utils.html;
+
+import buckythebadgerbot.benchmarks.Fixtures;
+import buckythebadgerbot.data.RegStudentOrg;
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.core.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the HTML descriptions of every fixture org
+ * - toText: parsing and rendering every description (what every lookup used to cost)
+ * - render: the same lookups once the descriptions are cached
+ * - renderAll: rendering a freshly loaded catalog in parallel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescriptionRendererBenchmark {
+
+    private List<RegStudentOrg> orgs;
+    private DescriptionRenderer renderer;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        try (JsonParser parser = JsonUtils.createParser(Fixtures.load(Fixtures.RSO_ORGS))) {
+            JsonUtils.seek(parser, "value");
+            orgs = JsonUtils.readArray(parser, JsonUtils.readerFor(RegStudentOrg.class));
+        }
+        renderer = new DescriptionRenderer(orgs.size());
+        renderer.renderAll(orgs, Runnable::run).join();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void toText(Blackhole blackhole) {
+        for (RegStudentOrg org : orgs) {
+            blackhole.consume(DescriptionRenderer.toText(org.getDescription()));
+        }
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        for (RegStudentOrg org : orgs) {
+            blackhole.consume(renderer.render(org));
+        }
+    }
+
+    @Benchmark
+    public DescriptionRenderer renderAll() {
+        DescriptionRenderer empty = new DescriptionRenderer(orgs.size());
+        empty.renderAll(orgs, executor).join();
+        return empty;
+    }
+}
@@ -0,0 +1,92 @@
+package buckythebadgerbot.utils.pagination;
+
+import buckythebadgerbot.BuckyTheBadgerBot;
+import buckythebadgerbot.benchmarks.Stubs;
+import buckythebadgerbot.utils.interaction.InteractionStateStore;
+import buckythebadgerbot.utils.scheduling.ComponentExpiry;
+import buckythebadgerbot.utils.scheduling.HashedTimingWheel;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+import net.dv8tion.jda.api.interactions.components.buttons.ButtonInteraction;
+import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A press of a pagination button, from the lookup of the menu to the edit of the message (which is stubbed, so nothing is sent)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginationBenchmark {
+
+    private static final int PAGES = 25;
+
+    private ButtonInteractionEvent event;
+    private String uuid;
+    private int presses;
+
+    @Setup
+    public void setup() {
+        BuckyTheBadgerBot.interactionStates = new InteractionStateStore(5000, 64L * 1024 * 1024);
+        //The wheel is never started, so the menu never expires
+        BuckyTheBadgerBot.componentExpiry = new ComponentExpiry(new HashedTimingWheel(Duration.ofSeconds(1), 1024),
+                BuckyTheBadgerBot.interactionStates);
+
+        List<MessageEmbed> embeds = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            embeds.add(new EmbedBuilder().setTitle("Page " + (i + 1)).setDescription("Benchmark page").setColor(Color.red).build());
+        }
+        //Capture the key of the menu from the IDs of its buttons
+        ReplyCallbackAction action = Stubs.stub(ReplyCallbackAction.class, (stub, method, args) -> {
+            if (method.getName().equals("setActionRow") && args[0] instanceof Collection<?> buttons) {
+                String id = ((Button) buttons.iterator().next()).getId();
+                uuid = id.substring(0, id.indexOf(":pagination:"));
+            }
+            return Stubs.UNANSWERED;
+        });
+        PaginationUtils.sendPaginatedMenu("123456789", action, PageSource.of(embeds));
+        if (uuid == null) {
+            throw new IllegalStateException("The menu was not sent!");
+        }
+        event = new ButtonInteractionEvent(Stubs.stub(JDA.class), 0, Stubs.stub(ButtonInteraction.class));
+    }
+
+    /**
+     * Go through the pages, back to the first one after the last one
+     */
+    @Benchmark
+    public void turnPage() {
+        String arg = ++presses % PAGES == 0 ? "first" : "next";
+        PaginationUtils.updatePaginationButtons(uuid, arg, event);
+    }
+
+    /**
+     * Press a button of a menu whose state is gone
+     */
+    @Benchmark
+    public void expiredMenu() {
+        PaginationUtils.updatePaginationButtons("123456789:expired", "next", event);
+    }
+}
@@ -0,0 +1,68 @@
+package buckythebadgerbot.utils.search;
+
+import buckythebadgerbot.benchmarks.Fixtures;
+import buckythebadgerbot.data.RegStudentOrg;
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.core.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing and searching of the org catalog behind /rso
+ * The fixture orgs are repeated to the size of the real catalog (~1000 orgs)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSOSearchIndexBenchmark {
+
+    private static final int CATALOG_SIZE = 1000;
+
+    //A common word, a short name and a prefix of a word
+    @Param({"badger club", "b0", "noodle"})
+    public String query;
+
+    private List<RegStudentOrg> orgs;
+    private RSOSearchIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        List<RegStudentOrg> fixture;
+        try (JsonParser parser = JsonUtils.createParser(Fixtures.load(Fixtures.RSO_ORGS))) {
+            JsonUtils.seek(parser, "value");
+            fixture = JsonUtils.readArray(parser, JsonUtils.readerFor(RegStudentOrg.class));
+        }
+        orgs = new ArrayList<>(CATALOG_SIZE);
+        while (orgs.size() < CATALOG_SIZE) {
+            orgs.add(fixture.get(orgs.size() % fixture.size()));
+        }
+        index = new RSOSearchIndex(orgs);
+    }
+
+    @Benchmark
+    public RSOSearchIndex build() {
+        return new RSOSearchIndex(orgs);
+    }
+
+    @Benchmark
+    public List<RegStudentOrg> search() {
+        return index.search(query, 100);
+    }
+}
@@ -2,12 +2,27 @@ package buckythebadgerbot;
 
 import buckythebadgerbot.commands.CommandManager;
 import buckythebadgerbot.data.database.Database;
+import buckythebadgerbot.data.database.repositories.impl.CoursesRepository;
 import buckythebadgerbot.listeners.StringSelectListener;
 import buckythebadgerbot.listeners.ButtonListener;
+import buckythebadgerbot.listeners.MessageDeleteListener;
 import buckythebadgerbot.services.impl.DiningMenuService;
 import buckythebadgerbot.services.impl.GymService;
 import buckythebadgerbot.services.impl.RMPService;
 import buckythebadgerbot.services.impl.RSOService;
+import buckythebadgerbot.utils.assets.GraphAssetService;
+import buckythebadgerbot.utils.cache.CacheStats;
+import buckythebadgerbot.utils.concurrent.BulkheadExecutor;
+import buckythebadgerbot.utils.concurrent.ExecutionModel;
+import buckythebadgerbot.utils.cooldown.CooldownTracker;
+import buckythebadgerbot.utils.interaction.InteractionStateStore;
+import buckythebadgerbot.utils.metrics.Metrics;
+import buckythebadgerbot.utils.metrics.MetricsRegistry;
+import buckythebadgerbot.utils.metrics.MetricsServer;
+import buckythebadgerbot.utils.scheduling.ComponentExpiry;
+import buckythebadgerbot.utils.scheduling.HashedTimingWheel;
+import buckythebadgerbot.utils.startup.StartupOrchestrator;
+import buckythebadgerbot.utils.startup.StartupStep;
 import com.zaxxer.hikari.pool.HikariPool;
 import io.github.cdimascio.dotenv.Dotenv;
 import net.dv8tion.jda.api.OnlineStatus;
@@ -20,13 +35,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for the Discord Bot
@@ -38,59 +59,259 @@ public class BuckyTheBadgerBot {
     public DiningMenuService diningMenuClient;
     public GymService gymClient;
     public RSOService rsoClient;
-    public ExecutorService service;
+    public ExecutionModel executionModel;
     public final @NotNull ButtonListener buttonListener;
     public final @NotNull StringSelectListener stringSelectListener;
+    public final @NotNull CommandManager commandManager;
     public @NotNull final Dotenv config;
-    public @NotNull final ShardManager shardManager;
-    public Database database;
+    //Null when the bot runs without a gateway connection
+    public final ShardManager shardManager;
+    //Set by the DATABASE startup step (null if it isn't configured or couldn't connect)
+    public volatile Database database;
     private static final Logger logger = LoggerFactory.getLogger(BuckyTheBadgerBot.class);
 
     //To implement anti-spam measurement for certain trigger events
-    //Synchronized the LinkedHashMap to allow concurrent modifications
-    //Follows the format {"UUID:buttonName"=timestamp}
-    public static final Map<String, Long> coolDownChecker = Collections.synchronizedMap(new LinkedHashMap<>());
+    public final CooldownTracker cooldownTracker = new CooldownTracker();
 
-    //Scheduler primarily for disabling buttons after a set period of time
-    public static final ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(20);
-    public BuckyTheBadgerBot() throws LoginException, SQLException {
+    //The steps of the startup, which slash commands are gated on (see CommandManager)
+    public StartupOrchestrator startup;
+
+    //Scheduler for background tasks (e.g, polling, sweeping, advancing the component expiry wheel)
+    //NOTE: Owned by the execution model, which is set up in the constructor
+    public static ScheduledExecutorService scheduledExecutor;
+
+    //State behind interactive components (e.g, the pages of paginated menus), bounded by entries and approximate bytes
+    //NOTE: Sized from the config (see INTERACTION_STATE_* in .env), which is loaded in the constructor
+    public static InteractionStateStore interactionStates;
 
+    //Expiry of message components (e.g, disabling buttons after 10 minutes), on a single timing wheel instead of a task per message
+    public static ComponentExpiry componentExpiry;
+
+    //The grade distribution graphs shown with /course (indexed by the GRADE_GRAPHS startup step, courses are shown without a graph until then)
+    public static GraphAssetService gradeGraphs;
+
+    public BuckyTheBadgerBot() throws LoginException, SQLException {
         //Load environment variables
-        config = Dotenv.configure().ignoreIfMissing().load();
+        this(Dotenv.configure().ignoreIfMissing().load(), true);
+    }
+
+    /**
+     * @param config the environment variables (see .env.example)
+     * @param connect whether to connect to Discord; without a connection, the listeners only receive the events passed to them directly (e.g, by the load harness)
+     */
+    public BuckyTheBadgerBot(@NotNull Dotenv config, boolean connect) throws LoginException, SQLException {
+        this.config = config;
         String token = config.get("TOKEN");
 
-        //Setup HTTP tools
-        rateMyProfessorClient = new RMPService(config.get("RMP_TOKEN"));
-        diningMenuClient = new DiningMenuService();
-        gymClient = new GymService(config.get("RECWELL_TOKEN"));
-        rsoClient = new RSOService();
+        //Run the independent steps of the startup in parallel (see the startup report in the logs, and bucky_startup_* on /metrics)
+        ExecutorService startupExecutor = Executors.newCachedThreadPool(BulkheadExecutor.threadFactory("startup"));
+        startup = new StartupOrchestrator(startupExecutor);
+
+        //Setup threadpools (see EXECUTION_MODEL in .env)
+        long stepStartTime = System.nanoTime();
+        executionModel = ExecutionModel.create(config);
+        scheduledExecutor = executionModel.getScheduler();
+        interactionStates = new InteractionStateStore(ExecutionModel.getInt(config, "INTERACTION_STATE_MAX_ENTRIES", 5000),
+                ExecutionModel.getInt(config, "INTERACTION_STATE_MAX_MB", 64) * 1024L * 1024L);
+        //1 second ticks, and a revolution (~17 minutes) longer than any component lifetime
+        HashedTimingWheel expiryWheel = new HashedTimingWheel(Duration.ofSeconds(1), 1024);
+        componentExpiry = new ComponentExpiry(expiryWheel, interactionStates);
+        startup.record(StartupStep.EXECUTORS, stepStartTime);
+
+        //Setup HTTP tools (the *_BASE_URL variables point them somewhere else than the real APIs, e.g, at local stubs)
+        stepStartTime = System.nanoTime();
+        rateMyProfessorClient = new RMPService(config.get("RMP_BASE_URL"), config.get("RMP_TOKEN"), executionModel.getCallbackPool());
+        diningMenuClient = new DiningMenuService(config.get("NUTRISLICE_BASE_URL"), executionModel.getCallbackPool());
+        gymClient = new GymService(config.get("RECWELL_BASE_URL"), config.get("RECWELL_TOKEN"), executionModel.getCallbackPool());
+        rsoClient = new RSOService(config.get("WIN_BASE_URL"), executionModel.getCallbackPool());
+        startup.record(StartupStep.SERVICES, stepStartTime);
 
-        //Setup threadpool
-        //NOTE: May choose to setup a certain amount of threads in the future
-        service = Executors.newCachedThreadPool();
+        //Connect ahead of time to the upstreams that commands wait on (the gym poller and the RSO refresher connect right away anyway)
+        startup.runAsync(StartupStep.PRECONNECT, () -> CompletableFuture.allOf(rateMyProfessorClient.preconnect(), diningMenuClient.preconnect()));
+        //Poll the live gym usages in the background, so /gym answers from memory
+        startup.runAsync(StartupStep.GYM_SNAPSHOT, () -> gymClient.startPoller(scheduledExecutor,
+                Duration.ofSeconds(ExecutionModel.getInt(config, "GYM_POLL_SECONDS", 60))).thenApply(BuckyTheBadgerBot::requireLoaded));
+        //Refresh the catalog of student organizations in the background, so /rso searches it in memory
+        startup.runAsync(StartupStep.RSO_CATALOG, () -> rsoClient.startRefresher(scheduledExecutor,
+                Duration.ofHours(ExecutionModel.getInt(config, "RSO_REFRESH_HOURS", 6))).thenApply(BuckyTheBadgerBot::requireLoaded));
+        //Load the dining menus of the week (they are only cached in memory), then refresh them every night
+        startup.runAsync(StartupStep.DINING_MENUS, () -> diningMenuClient.prefetch()
+                .whenComplete((result, e) -> diningMenuClient.startPrefetcher(scheduledExecutor)), StartupStep.PRECONNECT);
 
         //Setup database connection (optional)
-        try {
-            database = new Database(this);
-        } catch (HikariPool.PoolInitializationException e) {
-            logger.error("Unable to connect to the database! Moving on...");
+        if (config.get("POSTGRES_HOST", "").isBlank()) {
+            logger.warn("POSTGRES_HOST is not set, so /course and /search are unavailable! Moving on...");
+            startup.skip(StartupStep.DATABASE, "POSTGRES_HOST is not set");
+        } else {
+            //Initializing the pool blocks until its first connection is made, so it runs on the startup executor
+            startup.run(StartupStep.DATABASE, () -> {
+                try {
+                    database = new Database(this);
+                } catch (HikariPool.PoolInitializationException e) {
+                    logger.error("Unable to connect to the database! Moving on...");
+                    throw e;
+                }
+            });
+        }
+        //Load the courses into memory for /search and /course, and reload them every day to pick up changes (or shortly after the table changes)
+        startup.run(StartupStep.COURSE_INDEX, () -> {
+            try {
+                CoursesRepository coursesRepository = database.getRepository("courses", CoursesRepository.class);
+                //Listen first, so changes made while the index loads reload it again
+                coursesRepository.listenForChanges(database, scheduledExecutor);
+                registerCacheMetrics(coursesRepository.getCacheStats().getName());
+                coursesRepository.loadSearchIndex();
+                scheduledExecutor.scheduleAtFixedRate(coursesRepository::loadSearchIndex, 1, 1, TimeUnit.DAYS);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, StartupStep.DATABASE);
+
+        //Index the grade distribution graphs (mounted into ./grade-dist-graphs, see docker-compose.yml), then keep the index up to date
+        gradeGraphs = new GraphAssetService(Path.of("grade-dist-graphs"));
+        startup.run(StartupStep.GRADE_GRAPHS, () -> {
+            gradeGraphs.index();
+            gradeGraphs.startWatching();
+        });
+
+        //Periodically log the load (queue depth, rejections) on every executor, the hit rate of every cache, and the occupancy of the interaction state
+        scheduledExecutor.scheduleAtFixedRate(() -> {
+            executionModel.getStats().forEach(stats -> logger.debug("{}", stats));
+            getCacheStats().forEach(stats -> logger.debug("{}", stats));
+            logger.debug("{}", interactionStates.getStats());
+            logger.debug("{}", gradeGraphs);
+            logger.debug("ComponentExpiry{{pending={}, expired={}, cancelled={}}}",
+                    expiryWheel.getPendingCount(), expiryWheel.getExpiredCount(), expiryWheel.getCancelledCount());
+        }, 1, 1, TimeUnit.MINUTES);
+
+        //Expose the same signals (and the latency of every command, button, select menu and upstream service) on a local /metrics endpoint (optional)
+        registerMetrics(expiryWheel);
+        int metricsPort = ExecutionModel.getInt(config, "METRICS_PORT", 0);
+        if (metricsPort > 0) {
+            try {
+                new MetricsServer(Objects.requireNonNullElse(config.get("METRICS_HOST"), "127.0.0.1"), metricsPort, Metrics.registry);
+            } catch (IOException e) {
+                logger.error("Unable to serve the metrics on port {}! Moving on... {}", metricsPort, e.toString());
+            }
+        }
+
+        //Remove expired cooldowns in the background
+        cooldownTracker.startSweeper(scheduledExecutor);
+        //Remove expired interaction state in the background
+        interactionStates.startSweeper(scheduledExecutor);
+        //Expire message components in batches, once per tick
+        expiryWheel.start(scheduledExecutor);
+
+        stepStartTime = System.nanoTime();
+        commandManager = new CommandManager(this);
+        buttonListener = new ButtonListener(this);
+        stringSelectListener = new StringSelectListener(this);
+        startup.record(StartupStep.COMMANDS, stepStartTime);
+        if (!connect) {
+            shardManager = null;
+            reportStartup(startupExecutor);
+            return;
         }
 
-        //Build shard manager
+        //Build shard manager, which logs in in the background (slash commands are gated on what they need until the startup is done, see CommandManager)
         DefaultShardManagerBuilder builder = DefaultShardManagerBuilder.createDefault(token);
         builder.setStatus(OnlineStatus.ONLINE);
         builder.setActivity(Activity.playing("/help"));
         builder.enableIntents(GatewayIntent.GUILD_MEMBERS,
                 GatewayIntent.GUILD_MESSAGES,
                 GatewayIntent.GUILD_PRESENCES);
-        builder.addEventListeners(new CommandManager(this));
+        //Dispatch events and RestAction callbacks on the same execution model as the commands
+        builder.setEventPool(executionModel.getEventPool(), false);
+        builder.setCallbackPool(executionModel.getCallbackPool(), false);
+        //Register event listeners before logging in, so no event is missed
+        builder.addEventListeners(commandManager, buttonListener, stringSelectListener, new MessageDeleteListener());
         shardManager = builder.build();
+        startup.run(StartupStep.GATEWAY, () -> shardManager.getShards().forEach(shard -> {
+            try {
+                shard.awaitReady();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }));
+        reportStartup(startupExecutor);
+    }
 
-        //Register event listeners
-        buttonListener = new ButtonListener(this);
-        stringSelectListener = new StringSelectListener(this);
-        shardManager.addEventListener(buttonListener,stringSelectListener);
+    /**
+     * Log the timing of every startup step once they are all done, and release the startup executor
+     * @param startupExecutor the executor the blocking steps ran on
+     */
+    private void reportStartup(ExecutorService startupExecutor) {
+        startup.reportWhenDone().whenComplete((result, e) -> startupExecutor.shutdown());
+    }
+
+    /**
+     * Fail a startup step if the data it loads couldn't be fetched (its service logged why)
+     * @param loaded the data
+     * @return the data
+     */
+    private static <T> T requireLoaded(T loaded) {
+        if (loaded == null) {
+            throw new CompletionException(new IOException("Could not load the data"));
+        }
+        return loaded;
+    }
+
+    /**
+     * Register the gauges and counters of the executors, caches, interaction state and component expiry
+     * NOTE: The latency histograms and the database pool register themselves as they are used
+     * @param expiryWheel the timing wheel of the component expiry
+     */
+    private void registerMetrics(HashedTimingWheel expiryWheel) {
+        MetricsRegistry registry = Metrics.registry;
+        //The bulkheads of routes are created on their first use, so they're registered as they're created
+        executionModel.onExecutorCreated((name, stats) -> {
+            registry.gauge("bucky_executor_queue_depth", "Tasks waiting for a thread.", () -> stats.get().getQueueDepth(), "executor", name);
+            registry.gauge("bucky_executor_active_threads", "Threads running a task.", () -> stats.get().getActiveCount(), "executor", name);
+            registry.counter("bucky_executor_completed_total", "Tasks completed.", () -> stats.get().getCompletedCount(), "executor", name);
+            registry.counter("bucky_executor_rejected_total", "Tasks rejected because the executor was full.", () -> stats.get().getRejectedCount(), "executor", name);
+        });
+        for (CacheStats cache : getCacheStats()) {
+            registerCacheMetrics(cache.getName());
+        }
+        registry.gauge("bucky_interaction_state_entries", "Entries in the interaction state store.", () -> interactionStates.getStats().getSize());
+        registry.gauge("bucky_interaction_state_bytes", "Approximate size of the interaction state store.", () -> interactionStates.getStats().getBytes());
+        registry.counter("bucky_interaction_state_evictions_total", "Interaction state evicted before expiring.", () -> interactionStates.getStats().getEvictionCount());
+        registry.gauge("bucky_component_expiry_pending", "Message components waiting to expire.", expiryWheel::getPendingCount);
+        registry.gauge("bucky_cooldowns_active", "Active anti-spam cooldowns.", cooldownTracker::size);
+    }
+
+    /**
+     * Register the gauges of a cache
+     * @param name the name of the cache (see getCacheStats())
+     */
+    private void registerCacheMetrics(String name) {
+        MetricsRegistry registry = Metrics.registry;
+        registry.gauge("bucky_cache_hit_ratio", "Ratio of lookups answered from the cache (fresh or stale).", () -> cacheStats(name).getHitRate(), "cache", name);
+        registry.gauge("bucky_cache_size", "Entries in the cache.", () -> cacheStats(name).getSize(), "cache", name);
+        registry.counter("bucky_cache_evictions_total", "Entries evicted from the cache.", () -> cacheStats(name).getEvictionCount(), "cache", name);
+        registry.counter("bucky_cache_fallbacks_total", "Lookups answered with an old entry because loading a new one failed.", () -> cacheStats(name).getFallbackCount(), "cache", name);
+    }
 
+    /**
+     * @return the usage of every cache of the services (and of the courses, once the database is connected)
+     */
+    private List<CacheStats> getCacheStats() {
+        List<CacheStats> stats = new ArrayList<>(rateMyProfessorClient.getCacheStats());
+        stats.addAll(rsoClient.getCacheStats());
+        Database connectedDatabase = database;
+        if (connectedDatabase != null) {
+            try {
+                stats.add(connectedDatabase.getRepository("courses", CoursesRepository.class).getCacheStats());
+            } catch (SQLException ignored) {
+                //The courses repository is always mapped
+            }
+        }
+        return stats;
+    }
+
+    private CacheStats cacheStats(String name) {
+        return getCacheStats().stream().filter(stats -> stats.getName().equals(name)).findFirst().orElseThrow();
     }
 
     @NotNull
@@ -103,7 +324,6 @@ public class BuckyTheBadgerBot {
         return database;
     }
 
-    @NotNull
     public ShardManager getShardManager(){
         return shardManager;
     }
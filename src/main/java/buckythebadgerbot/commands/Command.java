@@ -1,12 +1,22 @@
 package buckythebadgerbot.commands;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
+import buckythebadgerbot.utils.metrics.Metrics;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.interactions.callbacks.IReplyCallback;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 import net.dv8tion.jda.api.interactions.commands.build.SubcommandData;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 /**
  * A general slash command with basic properties for registration
@@ -20,11 +30,88 @@ public abstract class Command {
     public List<OptionData> args;
     public List<SubcommandData> subCommands;
 
+    //The startup steps the command can't run without: if one of them failed (or was skipped), the command is unavailable (see CommandManager)
+    public List<StartupStep> requiredSteps;
+
+    //The startup steps the command waits on (for a bit) before it runs, but loads what it needs on demand if they failed (e.g, a cache warm-up)
+    public List<StartupStep> warmupSteps;
+
 
     public Command(BuckyTheBadgerBot bot){
         this.bot = bot;
         this.args = new ArrayList<>();
         this.subCommands = new ArrayList<>();
+        this.requiredSteps = new ArrayList<>();
+        this.warmupSteps = new ArrayList<>();
+    }
+
+    /**
+     * Get the executor (bulkhead) the command runs on
+     * @return the executor of the command from the execution model
+     */
+    public ExecutorService getExecutor() {
+        return bot.executionModel.getExecutor(name);
+    }
+
+    /**
+     * Record how long the command took to respond (see /metrics)
+     * @param startTime when the command started (in System.nanoTime())
+     * @return the duration in milliseconds, for the "This took N ms to respond." footer
+     */
+    protected long recordLatency(long startTime) {
+        return Metrics.commandLatency(name).recordSince(startTime) / 1000000;
+    }
+
+    /**
+     * Note that a reply shows the last data fetched from an upstream, because it couldn't be reached to refresh it
+     * @param source the name of the upstream (e.g, "RateMyProfessors")
+     * @param asOf when the data was fetched
+     * @return the note, for the description of an embed (Discord shows the timestamp in the user's timezone)
+     */
+    protected static String dataAsOfNote(String source, Instant asOf) {
+        return ":warning: " + source + " couldn't be reached, so this is the data as of <t:" + asOf.getEpochSecond() + ":f>.";
+    }
+
+    /**
+     * Acknowledge the command right away unless its answer is already there
+     * Discord only waits 3 seconds for the first reply, and an answer from an upstream can take longer (timeouts and retries),
+     * so the reply is deferred and the answer edits it instead (see respond())
+     * NOTE: Also used by the listeners, as a select menu (or button) waiting on an upstream has the same 3 seconds
+     * @param event the event to reply to (e.g, a slash command)
+     * @param answer the future the reply waits on
+     * @return true if the reply was deferred
+     */
+    public static boolean deferUnlessDone(IReplyCallback event, CompletableFuture<?> answer) {
+        if (answer.isDone()) {
+            return false;
+        }
+        event.deferReply().queue();
+        return true;
+    }
+
+    /**
+     * Reply with a message, or edit the deferred reply with it
+     * @param event the event to reply to (e.g, a slash command)
+     * @param deferred whether the reply was deferred (see deferUnlessDone())
+     * @param message the message
+     * @param onSent called with the hook of the reply once it is sent (e.g, to disable its components later)
+     */
+    public static void respond(IReplyCallback event, boolean deferred, MessageCreateData message, Consumer<InteractionHook> onSent) {
+        if (deferred) {
+            event.getHook().editOriginal(MessageEditData.fromCreateData(message)).queue(sent -> onSent.accept(event.getHook()));
+        } else {
+            event.reply(message).queue(onSent);
+        }
+    }
+
+    /**
+     * Reply with a text message, or edit the deferred reply with it
+     * @param event the event to reply to (e.g, a slash command)
+     * @param deferred whether the reply was deferred (see deferUnlessDone())
+     * @param message the text of the message
+     */
+    public static void respond(IReplyCallback event, boolean deferred, String message) {
+        respond(event, deferred, MessageCreateData.fromContent(message), hook -> {});
     }
 
     public abstract void execute(SlashCommandInteractionEvent event);
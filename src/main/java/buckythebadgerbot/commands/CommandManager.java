@@ -2,6 +2,8 @@ package buckythebadgerbot.commands;
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.impl.utility.HelpCommand;
 import buckythebadgerbot.commands.impl.uwmadison.*;
+import buckythebadgerbot.utils.startup.StartupOrchestrator;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
@@ -9,10 +11,17 @@ import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class CommandManager extends ListenerAdapter {
@@ -20,11 +29,21 @@ public class CommandManager extends ListenerAdapter {
     public static final List<Command> commands = new ArrayList<>();
     public static final Map<String, Command> commandsMap = new HashMap<>();
 
+    private final BuckyTheBadgerBot bot;
+    private static final Logger logger = LoggerFactory.getLogger(CommandManager.class);
+
+    //How long a command waits on the startup steps it needs (an interaction must be answered within 3 seconds)
+    private static final long READINESS_WAIT_MILLIS = 2000;
+
+    //Whether a command was handled since the startup, to log the time to the first one
+    private final AtomicBoolean handledFirst = new AtomicBoolean();
+
     /**
      * Adds the slash commands to a  list and registers them as event listener.
      * @param bot An instance of BuckyTheBadgerBot
      */
     public CommandManager(BuckyTheBadgerBot bot) {
+        this.bot = bot;
         mapCommand(
                 new CourseCommand(bot),
                 new ProfCommand(bot),
@@ -67,15 +86,67 @@ public class CommandManager extends ListenerAdapter {
 
     /**
      * Executes when a slash command is run
+     * Every command runs on its own executor (bulkhead) from the execution model
+     * Right after a restart, a command first waits (for a bit) on the startup steps it needs, e.g, the database for /course
+     * A command whose required steps failed (or were skipped) isn't run at all, since it would only fail
      * @param event the slash command event
      */
     @Override
     public void onSlashCommandInteraction(@NotNull SlashCommandInteractionEvent event) {
         // Get command by name
         Command cmd = commandsMap.get(event.getName());
-        if (cmd != null) {
-            // Run command
-            cmd.execute(event);
+        if (cmd == null) {
+            return;
+        }
+        List<StartupStep> awaited = new ArrayList<>(cmd.requiredSteps);
+        awaited.addAll(cmd.warmupSteps);
+        CompletableFuture<Void> ready = bot.startup.whenDone(awaited);
+        if (ready.isDone()) {
+            dispatchIfAvailable(cmd, event);
+            return;
+        }
+        ready.orTimeout(READINESS_WAIT_MILLIS, TimeUnit.MILLISECONDS).whenComplete((result, e) -> {
+            if (e == null) {
+                dispatchIfAvailable(cmd, event);
+            } else {
+                logger.warn("/{} is not ready {} ms after the startup!", cmd.name, bot.startup.getElapsed().toMillis());
+                event.reply("The bot is still starting up! Please try again in a few seconds...").setEphemeral(true).queue();
+            }
+        });
+    }
+
+    /**
+     * Run a command on its executor, unless one of its required startup steps didn't succeed
+     * @param cmd the command
+     * @param event the slash command event
+     */
+    private void dispatchIfAvailable(Command cmd, SlashCommandInteractionEvent event) {
+        for (StartupStep step : cmd.requiredSteps) {
+            StartupOrchestrator.Status status = bot.startup.getStatus(step);
+            if (status != StartupOrchestrator.Status.SUCCEEDED) {
+                //The startup already logged why the step didn't succeed
+                logger.debug("/{} is unavailable, as the {} step is {}", cmd.name, step.label, status);
+                event.reply("/" + cmd.name + " is currently unavailable! Please try again later.").setEphemeral(true).queue();
+                return;
+            }
+        }
+        dispatch(cmd, event);
+    }
+
+    /**
+     * Run a command on its executor
+     * @param cmd the command
+     * @param event the slash command event
+     */
+    private void dispatch(Command cmd, SlashCommandInteractionEvent event) {
+        if (handledFirst.compareAndSet(false, true)) {
+            logger.info("Handling the first slash command (/{}) {} ms after the startup", cmd.name, bot.startup.getElapsed().toMillis());
+        }
+        try {
+            cmd.getExecutor().execute(() -> cmd.execute(event));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejected /{}! {}", cmd.name, e.getMessage());
+            event.reply("The bot is too busy right now! Please try again in a moment...").setEphemeral(true).queue();
         }
     }
 
@@ -10,7 +10,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Command that sends a help menu consisting information of all slash commands
@@ -27,24 +26,22 @@ public class HelpCommand extends Command {
 
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", HelpCommand.class.getSimpleName());
+        logger.info("Executing {}", HelpCommand.class.getSimpleName());
 
-            EmbedBuilder eb = new EmbedBuilder()
-                    .setTitle("Help Menu")
-                    .setColor(Color.red)
-                    .setDescription("The slash commands:");
+        EmbedBuilder eb = new EmbedBuilder()
+                .setTitle("Help Menu")
+                .setColor(Color.red)
+                .setDescription("The slash commands:");
 
-            CommandManager.commands.forEach(command -> {
-                if (!command.name.equals("help")) {
-                    String args = "";
-                    for (OptionData arg : command.args) {
-                        args += " <" + arg.getName() + ">";
-                    }
-                    eb.addField(command.name, "`/" + command.name + args + "`" + "\n" + command.explanation, false);
+        CommandManager.commands.forEach(command -> {
+            if (!command.name.equals("help")) {
+                String args = "";
+                for (OptionData arg : command.args) {
+                    args += " <" + arg.getName() + ">";
                 }
-            });
-            event.replyEmbeds(eb.build()).queue();
-        }, bot.service);
+                eb.addField(command.name, "`/" + command.name + args + "`" + "\n" + command.explanation, false);
+            }
+        });
+        event.replyEmbeds(eb.build()).queue();
     }
 }
@@ -3,18 +3,17 @@ package buckythebadgerbot.commands.impl.uwmadison;
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.Command;
 import buckythebadgerbot.data.Course;
+import buckythebadgerbot.data.database.repositories.impl.CoursesRepository;
+import buckythebadgerbot.utils.assets.GraphAssetService;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
-import net.dv8tion.jda.api.utils.FileUpload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.io.File;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Command that retrieves information of a course at UW-Madison
@@ -40,64 +39,57 @@ public class CourseCommand extends Command {
                 NOTE: Cross-listed course querying is currently not supported (e.g., "COMP SCI/MATH 240").
                 Additionally, abbreviated subject querying may not work as intended (e.g., "CS 240")""";
         this.args.add(new OptionData(OptionType.STRING, "course", "Course subject and number, and/or title", true));
+        this.requiredSteps.add(StartupStep.DATABASE);
+        //Without the search index, courses are searched in the database instead
+        this.warmupSteps.add(StartupStep.COURSE_INDEX);
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow asynchronous executions.
+     * NOTE: The command runs on its own executor from the execution model (see CommandManager), so it is safe to block on the database here (only needed if the search index isn't loaded).
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", CourseCommand.class.getSimpleName());
-            long startTime = System.nanoTime();
-            String courseQuery = event.getOption("course").getAsString();
-            String sqlQuery = "SELECT *," +
-                    " ts_rank_cd(full_subject_name_number_idx_col, query) AS rank_full," +
-                    " ts_rank_cd(subject_abbrev_number_idx_col, query) AS rank_abbrev," +
-                    " similarity(title, '" + courseQuery + "') AS sml\n" +
-                    " FROM courses, plainto_tsquery('simple', '" + courseQuery + "') query\n" +
-                    " WHERE subject_abbrev_number_idx_col @@ query " +
-                    " OR full_subject_name_number_idx_col @@ query " +
-                    " OR title % '" + courseQuery + "'\n" +
-                    " ORDER BY rank_full DESC, rank_abbrev DESC, sml DESC\n" +
-                    " LIMIT 1;";
-            try {
-                List<Course> courses = bot.getDatabase().getRepository("courses").read(sqlQuery);
-                if (!courses.isEmpty()) {
-                    Course result = courses.get(0);
-                    EmbedBuilder eb = new EmbedBuilder()
-                            .setTitle(result.getSubjectAbbrev() + " " + result.getNumber() + " — " +result.getTitle())
-                            .setColor(Color.RED)
-                            .addField("Cumulative GPA", result.getCumulativeGpa() != null ? result.getCumulativeGpa().toString() : "N/A", false)
-                            .addField("Credits", result.getCredits() != null ? result.getCredits() : "None", false)
-                            .addField("Requisites", result.getRequisites() != null ? result.getRequisites() : "None", false)
-                            .addField("Course Designation",result.getCourseDesignation() != null ? result.getCourseDesignation() : "None", false)
-                            .addField("Repeatable For Credit", result.getRepeatable() != null ? result.getRepeatable() : "None", false)
-                            .addField("Last Taught", result.getLastTaught() != null ? result.getLastTaught() : "None", false)
-                            .addField("Cross-listed Subjects", result.getCrosslistSubjects() != null ? result.getCrosslistSubjects() + " " + result.getNumber() : "None", false);
-                    if (result.getDescription() != null) {
-                        eb.setDescription(result.getDescription());
-                    }
-                    long endTime = System.nanoTime();
-                    long duration = (endTime - startTime) / 1000000;
-                    eb.setFooter("This took " + duration + " ms to respond.");
-                    event.replyEmbeds(eb.build()).queue();
-                    String graphImgName = result.getSubjectAbbrev().replaceAll(" ","_") + "-" + result.getNumber() + ".png";
-                    File gradeDistGraph = new File("./grade-dist-graphs" + File.separator + graphImgName);
-                    if (gradeDistGraph.exists()) {
-                        FileUpload uploadedGradeDistGraph = FileUpload.fromData(gradeDistGraph);
-                        eb.setImage("attachment://" + graphImgName);
-                        event.getHook().editOriginalEmbeds(eb.build()).setFiles(uploadedGradeDistGraph).queue();
-                    }
-                } else {
-                    event.reply("No courses found. Try to be more specific.").queue();
+        logger.info("Executing {}", CourseCommand.class.getSimpleName());
+        long startTime = System.nanoTime();
+        String courseQuery = event.getOption("course").getAsString();
+        try {
+            CoursesRepository coursesRepository = bot.getDatabase().getRepository("courses", CoursesRepository.class);
+            Course result = coursesRepository.findBestCourse(courseQuery);
+            if (result != null) {
+                EmbedBuilder eb = new EmbedBuilder()
+                        .setTitle(result.getSubjectAbbrev() + " " + result.getNumber() + " — " +result.getTitle())
+                        .setColor(Color.RED)
+                        .addField("Cumulative GPA", result.getCumulativeGpa() != null ? result.getCumulativeGpa().toString() : "N/A", false)
+                        .addField("Credits", result.getCredits() != null ? result.getCredits() : "None", false)
+                        .addField("Requisites", result.getRequisites() != null ? result.getRequisites() : "None", false)
+                        .addField("Course Designation",result.getCourseDesignation() != null ? result.getCourseDesignation() : "None", false)
+                        .addField("Repeatable For Credit", result.getRepeatable() != null ? result.getRepeatable() : "None", false)
+                        .addField("Last Taught", result.getLastTaught() != null ? result.getLastTaught() : "None", false)
+                        .addField("Cross-listed Subjects", result.getCrosslistSubjects() != null ? result.getCrosslistSubjects() + " " + result.getNumber() : "None", false);
+                if (result.getDescription() != null) {
+                    eb.setDescription(result.getDescription());
                 }
-            } catch (Exception e) {
-                logger.error("Could not fetch courses!",e);
-                event.reply("An error has occurred. Unable to fetch courses...").queue();
+                //Show the grade distribution graph right away if it was uploaded before, otherwise upload it once the details are shown
+                GraphAssetService.Graph graph = BuckyTheBadgerBot.gradeGraphs.find(result.getSubjectAbbrev(), result.getNumber());
+                String graphUrl = graph == null ? null : graph.getUrl();
+                if (graphUrl != null) {
+                    eb.setImage(graphUrl);
+                    BuckyTheBadgerBot.gradeGraphs.recordReuse();
+                }
+                long duration = recordLatency(startTime);
+                eb.setFooter("This took " + duration + " ms to respond.");
+                event.replyEmbeds(eb.build()).queue();
+                if (graph != null && graphUrl == null) {
+                    BuckyTheBadgerBot.gradeGraphs.upload(event.getHook(), eb, graph);
+                }
+            } else {
+                event.reply("No courses found. Try to be more specific.").queue();
             }
-        }, bot.service);
+        } catch (Exception e) {
+            logger.error("Could not fetch courses!",e);
+            event.reply("An error has occurred. Unable to fetch courses...").queue();
+        }
     }
 }
@@ -2,8 +2,10 @@ package buckythebadgerbot.commands.impl.uwmadison;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.Command;
+import buckythebadgerbot.services.impl.DiningMenuService;
 import buckythebadgerbot.utils.enums.DiningMenuImage;
 import buckythebadgerbot.utils.pagination.PaginationUtils;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -14,10 +16,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.time.LocalDateTime;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.MonthDay;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAccessor;
 import java.util.*;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Command that retrieves information for dining menu
@@ -26,13 +37,26 @@ import java.util.concurrent.CompletableFuture;
 public class DiningMenuCommand extends Command {
     private static final Logger logger = LoggerFactory.getLogger(DiningMenuCommand.class);
 
+    //Format of the date argument (the year is optional)
+    private static final DateTimeFormatter DATE_ARG_FORMAT = DateTimeFormatter.ofPattern("M/d[/uuuu]");
+
+    //How many days away from today a menu can be requested
+    private static final int MAX_DAYS_AWAY = 14;
+
+    //Format of the date of a menu that isn't today's (e.g., "Friday, 10/24")
+    private static final DateTimeFormatter DATE_LABEL_FORMAT = DateTimeFormatter.ofPattern("EEEE, MM/dd");
+
+    //The finished embeds of every requested menu, only rebuilt when the menu changes
+    private final MenuRenderCache renderedMenus = new MenuRenderCache();
+
     public DiningMenuCommand(BuckyTheBadgerBot bot) {
         super(bot);
         this.name = "diningmenu";
-        this.description = "Check today's menu for a dining market";
+        this.description = "Check the menu of a dining market (today's by default)";
         this.explanation = """
-                 `e.g., <Rheta's Market> <Breakfast>, <Gordon Avenue Market> <Lunch>, <Four Lakes Market> <Dinner>`\s
-                 Displays today's dining menu (breakfast, lunch, dinner, or daily) consisting of every food station and its servings, for any one of the six dining markets.""";
+                 `e.g., <Rheta's Market> <Breakfast>, <Gordon Avenue Market> <Lunch>, <Four Lakes Market> <Dinner> <10/24>`\s
+                 Displays the dining menu (breakfast, lunch, dinner, or daily) consisting of every food station and its servings, for any one of the six dining markets.
+                 The menu is today's, unless a date (MM/DD) within two weeks is passed in.""";
         this.args.add(new OptionData(OptionType.STRING, "dining-market", "Dining market", true)
                 .addChoice("Rheta's Market","rhetas-market-0Rheta's Market")
                 .addChoice("Gordon Avenue Market","gordon-avenue-market-0Gordon Avenue Market")
@@ -45,40 +69,79 @@ public class DiningMenuCommand extends Command {
                 .addChoice("Lunch","lunch-0Lunch")
                 .addChoice("Dinner","dinner-0Dinner")
                 .addChoice("Daily","lowell-dining-daily-0Daily"));
+        this.args.add(new OptionData(OptionType.STRING, "date", "Date of the menu (MM/DD), defaults to today", false));
+        this.warmupSteps.add(StartupStep.PRECONNECT);
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow asynchronous executions.
+     * NOTE: The reply is chained onto the future of the HTTP request (and runs on the command's executor), so no thread is blocked while waiting on the API.
+     * The embeds are rendered once per menu (see MenuRenderCache), so replying with a cached menu is only a lookup.
+     * Unless the week of the menu is cached, the reply is deferred first, since fetching it may take longer than Discord waits for it.
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", DiningMenuCommand.class.getSimpleName());
-            //Obtain the argument (value) of the dining market choice
-            String diningMarketArg = event.getOption("dining-market").getAsString();
-            //Get the chosen dining market
-            String diningMarket = diningMarketArg.split("-0")[0];
-            //Obtain the argument (value) of the dining market choice
-            String menuTypeArg = event.getOption("menu").getAsString();
-            //Get the chosen menu type
-            String menuType = menuTypeArg.split("-0")[0];
-
-            if ((menuType.equals("lowell-dining-daily")) && !((diningMarket.equals("four-lakes-market")) || (diningMarket.equals("gordon-avenue-market")))){
-                event.reply("`" + diningMarketArg.split("-0")[1] + " - " + menuTypeArg.split("-0")[1] +
-                        "`" + " is not a valid option (doesn't exist).").setEphemeral(true).queue();
+        logger.info("Executing {}", DiningMenuCommand.class.getSimpleName());
+        //Obtain the argument (value) of the dining market choice, e.g, "rhetas-market-0Rheta's Market"
+        String[] diningMarketArgs = event.getOption("dining-market").getAsString().split("-0");
+        //Get the chosen dining market, and its name
+        String diningMarket = diningMarketArgs[0];
+        String diningMarketName = diningMarketArgs[1];
+        //Obtain the argument (value) of the menu type choice, e.g, "lunch-0Lunch"
+        String[] menuTypeArgs = event.getOption("menu").getAsString().split("-0");
+        //Get the chosen menu type, and its name
+        String menuType = menuTypeArgs[0];
+        String menuTypeName = menuTypeArgs[1];
+
+        if (!DiningMenuService.isOffered(diningMarket, menuType)){
+            event.reply("`" + diningMarketName + " - " + menuTypeName +
+                    "`" + " is not a valid option (doesn't exist).").setEphemeral(true).queue();
+            return;
+        }
+
+        //Get the chosen date (today if not passed in)
+        LocalDate today = DiningMenuService.today();
+        LocalDate date = today;
+        if (event.getOption("date") != null) {
+            date = parseDate(event.getOption("date").getAsString(), today);
+            if (date == null) {
+                event.reply("`" + event.getOption("date").getAsString() + "` is not a valid date! Please use MM/DD (e.g., 10/24).")
+                        .setEphemeral(true).queue();
+                return;
+            }
+            if (Math.abs(ChronoUnit.DAYS.between(today, date)) > MAX_DAYS_AWAY) {
+                event.reply("Only menus within " + MAX_DAYS_AWAY + " days of today are available!").setEphemeral(true).queue();
                 return;
             }
+        }
+        LocalDate menuDate = date;
 
-            long startTime = System.nanoTime();
-            HashMap<String,String> stations = bot.diningMenuClient.getDiningMenu(diningMarket,menuType);
-            long endTime = System.nanoTime();
-            long duration = (endTime - startTime) / 1000000;
+        long startTime = System.nanoTime();
+        CompletableFuture<Map<String, String>> menu = bot.diningMenuClient.getDiningMenuAsync(diningMarket, menuType, menuDate);
+        //Fetching the week of the menu (with timeouts and retries) may take longer than Discord waits for the reply
+        boolean deferred = deferUnlessDone(event, menu);
+        menu.thenAcceptAsync(stations -> {
+            if (stations == null) {
+                //Nutrislice couldn't be reached (and the week of the menu wasn't fetched before), which doesn't tell if the menu is offered
+                recordLatency(startTime);
+                respond(event, deferred, "Nutrislice is unreachable right now, try again later!");
+                return;
+            }
             //Get embeds in pagination menu
-            ArrayList<MessageEmbed> diningMenuEmbeds = buildMenu(stations,diningMarketArg.split("-0")[1], menuTypeArg.split("-0")[1],duration);
+            Instant dataAsOf = bot.diningMenuClient.getDataAsOf(diningMarket, menuType, menuDate);
+            List<MessageEmbed> diningMenuEmbeds = renderedMenus.get(diningMarket + "/" + menuType + "/" + menuDate, menuDate, today, stations, dataAsOf,
+                    () -> buildMenu(stations, diningMarketName, menuTypeName, dateLabel(menuDate, today), dataAsOf,
+                            bot.diningMenuClient.getFetchedAt(diningMarket, menuType, menuDate)));
+            recordLatency(startTime);
 
-            if (!diningMenuEmbeds.isEmpty()){
+            if (!diningMenuEmbeds.isEmpty() && deferred) {
+                if (diningMenuEmbeds.size() > 1) {
+                    PaginationUtils.sendPaginatedMenu(event.getUser().getId(), event.getHook(), diningMenuEmbeds);
+                    return;
+                }
+                event.getHook().editOriginalEmbeds(diningMenuEmbeds.get(0)).queue();
+            } else if (!diningMenuEmbeds.isEmpty()){
                 //Send a paginated menu
                 ReplyCallbackAction action = event.replyEmbeds(diningMenuEmbeds.get(0));
                 if (diningMenuEmbeds.size() > 1){
@@ -87,21 +150,65 @@ public class DiningMenuCommand extends Command {
                 }
                 action.queue();
             } else{
-                event.reply("`" + diningMarketArg.split("-0")[1] + " - " + menuTypeArg.split("-0")[1] + "`" +
-                        " is not offered today.").queue();
+                String dateLabel = dateLabel(menuDate, today);
+                respond(event, deferred, "`" + diningMarketName + " - " + menuTypeName + "`" +
+                        " is not offered " + (dateLabel == null ? "today" : "on " + dateLabel) + ".");
             }
-        }, bot.service);
+        }, getExecutor()).exceptionally(e -> {
+            logger.error("Could not reply to {}! {}", DiningMenuCommand.class.getSimpleName(), e.toString());
+            return null;
+        });
+    }
+
+
+    /**
+     * Parse the date argument
+     * Without a year, the date closest to today is picked (e.g., 1/2 in late December is next year's)
+     * @param dateArg the date argument (M/D or M/D/YYYY)
+     * @param today today's date in US Central Time
+     * @return the date, or null if the argument is malformed
+     */
+    private LocalDate parseDate(String dateArg, LocalDate today) {
+        try {
+            TemporalAccessor parsed = DATE_ARG_FORMAT.parse(dateArg.strip());
+            MonthDay monthDay = MonthDay.from(parsed);
+            if (parsed.isSupported(ChronoField.YEAR)) {
+                return monthDay.atYear(parsed.get(ChronoField.YEAR));
+            }
+            LocalDate date = monthDay.atYear(today.getYear());
+            if (date.isBefore(today.minusMonths(6))) {
+                date = monthDay.atYear(today.getYear() + 1);
+            } else if (date.isAfter(today.plusMonths(6))) {
+                date = monthDay.atYear(today.getYear() - 1);
+            }
+            return date;
+        } catch (DateTimeException e) {
+            return null;
+        }
     }
 
+    /**
+     * Label a menu with its date unless it is today's
+     * @param date the date of the menu
+     * @param today today's date in US Central Time
+     * @return the label (e.g., "Friday, 10/24"), or null if the menu is today's
+     */
+    private static String dateLabel(LocalDate date, LocalDate today) {
+        return date.equals(today) ? null : date.format(DATE_LABEL_FORMAT);
+    }
 
     /**
      * To generate embeds for pagination menu
      * @param stations the content of the menu (every food station and its food items)
      * @param diningMarket the chosen dining market from choice argument
      * @param menuType the chosen menu type from choice argument
+     * @param dateLabel the date of the menu (null if it is today's)
+     * @param dataAsOf when the menu was fetched if it is served past its expiry because the API couldn't be reached (null otherwise)
+     * @param updatedAt when the menu was fetched (shown in the footer, null to leave it out)
      * @return an ArrayList of all embeds in the pagination menu
      */
-    private ArrayList<MessageEmbed> buildMenu(HashMap<String, String> stations, String diningMarket, String menuType, long duration) {
+    static ArrayList<MessageEmbed> buildMenu(Map<String, String> stations, String diningMarket, String menuType, String dateLabel,
+                                             Instant dataAsOf, Instant updatedAt) {
         DiningMenuImage thumbnail = DiningMenuImage.valueOf(diningMarket.substring(0, 2).toUpperCase());
         ArrayList<MessageEmbed> embeds = new ArrayList<>();
 
@@ -122,11 +229,15 @@ public class DiningMenuCommand extends Command {
                         embeds.add(embed.build());
                     }
                     embed = new EmbedBuilder()
-                            .setTitle(diningMarket + " - " + menuType + " Menu\n\n" + "Station: " + currentStation)
+                            .setTitle(diningMarket + " - " + menuType + " Menu" + (dateLabel == null ? "" : " (" + dateLabel + ")")
+                                    + "\n\n" + "Station: " + currentStation)
                             .setThumbnail(thumbnail.url)
-                            .setFooter(LocalDateTime.now(TimeZone.getTimeZone("US/Central").toZoneId()).format(DateTimeFormatter.ofPattern("MM/dd/uuuu • h:mm a"))
-                                    + " (US Central Time)" + "\n" + "This took " + duration + " ms to respond.")
+                            .setDescription(dataAsOf == null ? null : dataAsOfNote("Nutrislice", dataAsOf))
                             .setColor(Color.red);
+                    //The embeds are shared by every request of the menu, so the footer has no per-request content (Discord shows the timestamp in local time)
+                    if (updatedAt != null) {
+                        embed.setFooter("Last updated").setTimestamp(updatedAt);
+                    }
 
                 }
                 embed.addField(entry.getKey().split("-0")[2], entry.getValue(), false);
@@ -138,5 +249,68 @@ public class DiningMenuCommand extends Command {
         }
         return embeds;
     }
-}
 
+    /**
+     * The finished embeds of the requested menus, keyed by dining market, menu type and date
+     * - While the stations of a menu are the same map (its week wasn't fetched again), the embeds are served as is
+     * - Once its week is fetched again, the embeds are only rebuilt if the stations (in order) or the note that they are outdated changed
+     * - The date label of a menu depends on whether it is today's, so the embeds are also rebuilt when the day changes over
+     * NOTE: Menus of dates that can no longer be requested are dropped whenever a menu is rebuilt
+     */
+    static class MenuRenderCache {
+        private final Map<String, RenderedMenu> menus = new ConcurrentHashMap<>();
+
+        /**
+         * Get the embeds of a menu, building them if the menu changed since they were built
+         * @param key the key of the menu (dining market, menu type and date)
+         * @param date the date of the menu
+         * @param today today's date in US Central Time
+         * @param stations the stations of the menu (null if they couldn't be fetched, which is never cached)
+         * @param dataAsOf when the menu was fetched if it is served past its expiry (null otherwise)
+         * @param builder builds the embeds of the menu
+         * @return the read-only embeds
+         */
+        List<MessageEmbed> get(String key, LocalDate date, LocalDate today, Map<String, String> stations, Instant dataAsOf,
+                               Supplier<List<MessageEmbed>> builder) {
+            if (stations == null) {
+                return builder.get();
+            }
+            boolean isToday = date.equals(today);
+            RenderedMenu menu = menus.get(key);
+            if (menu != null && menu.isToday == isToday && Objects.equals(menu.dataAsOf, dataAsOf)) {
+                if (menu.stations == stations) {
+                    return menu.embeds;
+                }
+                if (sameContent(menu.stations, stations)) {
+                    //Remember the new map, so the next requests don't compare the content again
+                    menus.put(key, new RenderedMenu(stations, date, isToday, dataAsOf, menu.embeds));
+                    return menu.embeds;
+                }
+            }
+            List<MessageEmbed> embeds = List.copyOf(builder.get());
+            menus.values().removeIf(rendered -> Math.abs(ChronoUnit.DAYS.between(today, rendered.date)) > MAX_DAYS_AWAY);
+            menus.put(key, new RenderedMenu(stations, date, isToday, dataAsOf, embeds));
+            logger.debug("Rendered the menu {} ({} pages)", key, embeds.size());
+            return embeds;
+        }
+
+        /**
+         * @return true if both menus have the same stations in the same order (the order is the order of the pages)
+         */
+        private static boolean sameContent(Map<String, String> previous, Map<String, String> current) {
+            if (previous.size() != current.size()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, String>> currentEntries = current.entrySet().iterator();
+            for (Map.Entry<String, String> entry : previous.entrySet()) {
+                if (!entry.equals(currentEntries.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private record RenderedMenu(Map<String, String> stations, LocalDate date, boolean isToday, Instant dataAsOf, List<MessageEmbed> embeds) {
+        }
+    }
+}
@@ -2,19 +2,24 @@ package buckythebadgerbot.commands.impl.uwmadison;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.Command;
+import buckythebadgerbot.data.GymLocation;
+import buckythebadgerbot.data.GymSnapshot;
 import buckythebadgerbot.utils.pagination.PaginationUtils;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Command that retrieves live usage for every gym equipment
@@ -22,74 +27,104 @@ import java.util.concurrent.CompletableFuture;
  */
 public class GymCommand extends Command {
     private static final Logger logger = LoggerFactory.getLogger(GymCommand.class);
+
+    //The embeds of the latest snapshot (null until the first successful poll)
+    private final AtomicReference<List<MessageEmbed>> embeds = new AtomicReference<>();
+
     public GymCommand(BuckyTheBadgerBot bot) {
         super(bot);
         this.name = "gym";
         this.description = "Check live usages for all gym equipments";
         this.explanation = """
                 Displays live usages for every gym equipment at the Nicholas Recreation Center and the Bakke Recreation and Wellbeing Center.""";
+        this.warmupSteps.add(StartupStep.GYM_SNAPSHOT);
+
+        //Rebuild the embeds every time the poller publishes a new snapshot
+        bot.gymClient.addListener(snapshot -> embeds.set(buildMenu(snapshot)));
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow asynchronous executions.
+     * NOTE: The embeds are pre-built from the snapshot of the poller, so the reply doesn't wait on the API (unless no snapshot exists yet,
+     * in which case the reply is deferred first).
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", GymCommand.class.getSimpleName());
+        logger.info("Executing {}", GymCommand.class.getSimpleName());
+        long startTime = System.nanoTime();
 
-            //Create an ArrayList of embeds by calling the HTTP client's gymLookup() method
-            long startTime = System.nanoTime();
-            ArrayList<HashMap<String,String>> gymInformation = bot.gymClient.getGymUsages();
-            long endTime = System.nanoTime();
-            long duration = (endTime - startTime) / 1000000;
+        List<MessageEmbed> gymEmbeds = embeds.get();
+        if (gymEmbeds != null) {
+            reply(event, false, gymEmbeds, startTime);
+            return;
+        }
 
-            ArrayList<MessageEmbed> gymEmbeds = buildMenu(gymInformation, duration);
-            if (!gymEmbeds.isEmpty()){
-                //Send a paginated menu
-                ReplyCallbackAction action = event.replyEmbeds(gymEmbeds.get(0));
-                if (gymEmbeds.size() > 1){
-                    PaginationUtils.sendPaginatedMenu(event.getUser().getId(), action, gymEmbeds);
-                    return;
-                }
-                action.queue();
-            } else{
-                event.reply("Unable to retrieve the live gym usages at this moment!").queue();
-            }
-        }, bot.service);
+        //No snapshot yet (e.g, right after startup or if the API is down), so wait on the poll in progress
+        //The poll (with its timeout and retries) may take longer than Discord waits for the reply
+        CompletableFuture<GymSnapshot> poll = bot.gymClient.getGymUsagesAsync();
+        boolean deferred = deferUnlessDone(event, poll);
+        poll.thenAcceptAsync(snapshot -> reply(event, deferred, buildMenu(snapshot), startTime), getExecutor())
+                .exceptionally(e -> {
+                    logger.error("Could not reply to {}! {}", GymCommand.class.getSimpleName(), e.toString());
+                    return null;
+                });
+    }
+
+    /**
+     * Reply with the embeds in a paginated menu, or edit the deferred reply with them
+     * @param event the event of the slash command
+     * @param deferred whether the reply was deferred (see deferUnlessDone())
+     * @param gymEmbeds the embeds of every facility
+     * @param startTime when the command started (in System.nanoTime())
+     */
+    private void reply(SlashCommandInteractionEvent event, boolean deferred, List<MessageEmbed> gymEmbeds, long startTime) {
+        recordLatency(startTime);
+        if (gymEmbeds.size() > 1 && deferred) {
+            PaginationUtils.sendPaginatedMenu(event.getUser().getId(), event.getHook(), gymEmbeds);
+        } else if (gymEmbeds.size() > 1){
+            //Send a paginated menu
+            ReplyCallbackAction action = event.replyEmbeds(gymEmbeds.get(0));
+            PaginationUtils.sendPaginatedMenu(event.getUser().getId(), action, gymEmbeds);
+        } else if (!gymEmbeds.isEmpty()) {
+            respond(event, deferred, MessageCreateData.fromEmbeds(gymEmbeds.get(0)), hook -> {});
+        } else{
+            respond(event, deferred, "Unable to retrieve the live gym usages at this moment!");
+        }
     }
 
     /**
      * To generate embeds for the paginated menu
-     * @param gymInformation the ArrayList with every embed to add onto the menu
-     * @return an ArrayList of all embeds in the menu
+     * @param snapshot the live usage of every facility
+     * @return a read-only List of all embeds in the menu
      */
-    private ArrayList<MessageEmbed> buildMenu(ArrayList<HashMap<String, String>> gymInformation, long duration){
+    private List<MessageEmbed> buildMenu(GymSnapshot snapshot){
 
         //Create an ArrayList of embeds
         ArrayList<MessageEmbed> embeds = new ArrayList<>();
-        if (gymInformation != null){
-            //Iterate through every HashMap in the ArrayList of gym information
-            for (HashMap<String, String> entry : gymInformation){
+        if (snapshot != null){
+            //Iterate through every facility in the snapshot
+            for (Map.Entry<String, List<GymLocation>> facility : snapshot.getFacilities().entrySet()){
+                if (facility.getValue().isEmpty()) {
+                    continue;
+                }
                 //Create a new embed
                 EmbedBuilder embed = new EmbedBuilder()
-                        .setTitle(entry.keySet().stream().findFirst().get().split("\\|")[0])
+                        .setTitle(facility.getKey())
                         .setColor(Color.red)
-                        .setFooter("This took " + duration + " ms to respond.")
-                        .setTimestamp(Instant.now());
+                        .setFooter("Last refreshed")
+                        .setTimestamp(snapshot.getFetchedAt());
 
-                //Iterate through every pair in the HashMap
-                for (String key : entry.keySet()){
-                    embed.addField(key.split("\\|")[1], entry.get(key), true);
+                //Iterate through every location of the facility
+                for (GymLocation location : facility.getValue()){
+                    embed.addField(location.getLocationName(), "Usage: `" + location.getLastCount() + "/" + location.getTotalCapacity() + "`"
+                            + "\n" + "Last updated " + "<t:" + location.getLastUpdatedEpochSecond() + ":R>", true);
                 }
 
                 //Store the embed in the ArrayList
                 embeds.add(embed.build());
             }
         }
-        return embeds;
+        return List.copyOf(embeds);
     }
 }
-
@@ -5,11 +5,15 @@ import buckythebadgerbot.commands.Command;
 import buckythebadgerbot.listeners.StringSelectListener;
 import buckythebadgerbot.data.Professor;
 import buckythebadgerbot.data.StudentRating;
+import buckythebadgerbot.data.StudentRatingsPage;
+import buckythebadgerbot.utils.pagination.PageSource;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
+import net.dv8tion.jda.api.interactions.components.LayoutComponent;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.interactions.components.buttons.ButtonStyle;
 import net.dv8tion.jda.api.utils.messages.MessageCreateBuilder;
@@ -17,9 +21,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.util.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Command that retrieves information about a professor from ratemyprofessor.com
@@ -43,23 +51,30 @@ public class ProfCommand extends Command {
                  You can also view student ratings for every course taught by the professor.""";
         this.args.add(new OptionData(OptionType.STRING, "professor", "Professor's name", true));
 
+        this.warmupSteps.add(StartupStep.PRECONNECT);
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow asynchronous executions.
+     * NOTE: The reply is chained onto the future of the HTTP requests (and runs on the command's executor), so no thread is blocked while waiting on the API.
+     * Unless the professor is cached, the reply is deferred first, since the requests may take longer than Discord waits for it.
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", ProfCommand.class.getSimpleName());
-            long startTime = System.nanoTime();
-            String uuid = event.getUser().getId() + ":" + UUID.randomUUID();
-            String profName = Objects.requireNonNull(event.getOption("professor")).getAsString();
-            //Assigns the Professor instance to the results of the HTTP request
-            Professor prof = bot.rateMyProfessorClient.getProf(profName);
-            if (prof.getDoesExist() && !prof.getFallback()) {
+        logger.info("Executing {}", ProfCommand.class.getSimpleName());
+        long startTime = System.nanoTime();
+        String uuid = event.getUser().getId() + ":" + UUID.randomUUID();
+        String profName = Objects.requireNonNull(event.getOption("professor")).getAsString();
+        //Assigns the Professor instance to the results of the HTTP request
+        CompletableFuture<Professor> lookup = bot.rateMyProfessorClient.getProfAsync(profName);
+        //Fetching the professor (two requests, with timeouts and retries) may take longer than Discord waits for the reply
+        boolean deferred = deferUnlessDone(event, lookup);
+        lookup.handleAsync((prof, failure) -> {
+            if (failure != null) {
+                //RMP couldn't be reached (and the professor wasn't looked up before), which doesn't tell if the professor exists
+                respond(event, deferred, "RateMyProfessors is unreachable right now, try again later!");
+            } else if (prof.getDoesExist() && !prof.getFallback()) {
                 StringBuilder topTags = new StringBuilder();
                 StringBuilder coursesTaught = new StringBuilder();
                 String coursesTaughtDisplay;
@@ -101,8 +116,12 @@ public class ProfCommand extends Command {
                         .addField("Would Take Again", String.valueOf(prof.getWouldTakeAgainPercent()).replace("-1.0", "N/A") + "%", false)
                         .addField(tagsDisplay, topTags.toString(), false)
                         .addField(coursesTaughtDisplay, coursesTaught.toString(), false);
-                long endTime = System.nanoTime();
-                long duration = (endTime - startTime) / 1000000;
+                //Note if RMP couldn't be reached and the professor was looked up a long time ago
+                Instant dataAsOf = bot.rateMyProfessorClient.getDataAsOf(prof);
+                if (dataAsOf != null) {
+                    eb.setDescription(dataAsOfNote("RateMyProfessors", dataAsOf));
+                }
+                long duration = recordLatency(startTime);
                 eb.setFooter("This took " + duration + " ms to respond.");
 
                 MessageCreateBuilder message = new MessageCreateBuilder();
@@ -111,58 +130,78 @@ public class ProfCommand extends Command {
                 if (!prof.getCoursesTaught().isEmpty()){
                     message.addActionRow(Button.of(ButtonStyle.PRIMARY,uuid + ":" + "studentRatings" + ":" + prof.getRegularId(),"See Student Ratings"));
                 }
-                event.reply(message.build()).queue();
-                //Disable the buttons after 10 minutes starting the execution of slash command
-                event.getHook().editOriginalComponents(message.getComponents().get(0).asDisabled()).queueAfter(10, TimeUnit.MINUTES);
+                if (message.getComponents().isEmpty()) {
+                    respond(event, deferred, message.build(), interactionHook -> {});
+                } else {
+                    //Disable the buttons after 10 minutes (which also releases the select options, unless the button was used)
+                    LayoutComponent disabled = message.getComponents().get(0).asDisabled();
+                    respond(event, deferred, message.build(), interactionHook -> BuckyTheBadgerBot.componentExpiry.schedule(uuid, Duration.ofMinutes(10),
+                            () -> interactionHook.editOriginalComponents(disabled).queue(), uuid + ":studentRatings"));
+                }
 
             } else if (prof.getDoesExist() && prof.getFallback()) {
-                event.reply("Professor " + "\"" + prof.getFirstName() + " " + prof.getLastName() + "\"" + " does not teach at UW-Madison!" + " (Note: If this is inaccurate, try to be more specific or blame RMP)").queue();
+                respond(event, deferred, "Professor " + "\"" + prof.getFirstName() + " " + prof.getLastName() + "\"" + " does not teach at UW-Madison!" + " (Note: If this is inaccurate, try to be more specific or blame RMP)");
 
             } else {
-                event.reply("Professor " + "\"" + profName + "\"" + " does not exist!" + " (Note: If this is inaccurate, try to be more specific or blame RMP)").queue();
+                respond(event, deferred, "Professor " + "\"" + profName + "\"" + " does not exist!" + " (Note: If this is inaccurate, try to be more specific or blame RMP)");
             }
-        }, bot.service);
+            return null;
+        }, getExecutor()).exceptionally(e -> {
+            logger.error("Could not reply to {}! {}", ProfCommand.class.getSimpleName(), e.toString());
+            return null;
+        });
     }
 
     /**
-     * To generate embeds for student ratings paginated menu
-     * @param ratings the list of student ratings
+     * To generate the pages of the student ratings paginated menu
+     * @param firstPage the first page of student ratings
+     * @param fetcher fetches the page of student ratings after a cursor, as the user gets to it
      * @param profName the name professor that the student ratings correspond to
      * @param duration the duration of the API call
-     * @return a list of MessageEmbeds
+     * @return the pages of the menu, one per student rating (a page's embed is only built when it is requested)
      */
-    public static ArrayList<MessageEmbed> buildMenu(ArrayList<StudentRating> ratings, String profName, long duration) {
-        ArrayList<MessageEmbed> embeds = new ArrayList<>();
-        for (int i = 0; i < ratings.size(); i++) {
-            EmbedBuilder embed = new EmbedBuilder()
-                    .setTitle(ratings.get(i).getCourse() + " - " + " Student Rating (" + (i + 1) + "/" + ratings.size() + ")")
-                    .setDescription("This rating was written on " + "<t:" + ratings.get(i).getDate() + ":f>")
-                    .setColor(Color.decode(ratings.get(i).getRatingQuality().hexColor))
-                    .addField("Professor", profName, false)
-                    .addField("Quality", String.valueOf(ratings.get(i).getQuality()), true)
-                    .addField("Difficulty", String.valueOf(ratings.get(i).getDifficulty()), true)
-                    .addField("For Credit", ratings.get(i).isForCredit(), true)
-                    .addField("Attendance", ratings.get(i).getAttendance(), true)
-                    .addField("Would Take Again", ratings.get(i).getWouldTakeAgain(), true)
-                    .addField("Grade", ratings.get(i).getGrade(), true)
-                    .addField("Textbook", ratings.get(i).getTextbookUse(), true)
-                    .addField("Comment", ratings.get(i).getComment(), false);
-            StringBuilder tagDisplay = new StringBuilder();
-            if (ratings.get(i).getTags() != null) {
-                for (String tag : ratings.get(i).getTags()) {
-                    tagDisplay.append("`").append(tag.strip()).append("`").append("\n");
-                }
-            } else {
-                tagDisplay.append("None");
+    public static PageSource buildMenu(StudentRatingsPage firstPage, Function<String, CompletableFuture<StudentRatingsPage>> fetcher,
+                                       String profName, long duration) {
+        return new StudentRatingPages(firstPage, fetcher, profName, duration);
+    }
+
+    /**
+     * To generate the embed of a student rating
+     * @param rating the student rating
+     * @param index the index of the student rating in the menu
+     * @param total the number of student ratings in the menu
+     * @param profName the name professor that the student rating corresponds to
+     * @param duration the duration of the API call
+     * @return the embed of the student rating
+     */
+    static MessageEmbed buildRatingEmbed(StudentRating rating, int index, int total, String profName, long duration) {
+        EmbedBuilder embed = new EmbedBuilder()
+                .setTitle(rating.getCourse() + " - " + " Student Rating (" + (index + 1) + "/" + total + ")")
+                .setDescription("This rating was written on " + "<t:" + rating.getDate() + ":f>")
+                .setColor(Color.decode(rating.getRatingQuality().hexColor))
+                .addField("Professor", profName, false)
+                .addField("Quality", String.valueOf(rating.getQuality()), true)
+                .addField("Difficulty", String.valueOf(rating.getDifficulty()), true)
+                .addField("For Credit", rating.isForCredit(), true)
+                .addField("Attendance", rating.getAttendance(), true)
+                .addField("Would Take Again", rating.getWouldTakeAgain(), true)
+                .addField("Grade", rating.getGrade(), true)
+                .addField("Textbook", rating.getTextbookUse(), true)
+                .addField("Comment", rating.getComment(), false);
+        StringBuilder tagDisplay = new StringBuilder();
+        if (rating.getTags() != null) {
+            for (String tag : rating.getTags()) {
+                tagDisplay.append("`").append(tag.strip()).append("`").append("\n");
             }
-            embed.addField("Tags", tagDisplay.toString(), true);
-            embed.setImage(ratings.get(i).getRatingQuality().imageUrl);
-            embed.addField("Helpful/Not Helpful", ":thumbsup:" + " " + ratings.get(i).getThumbsUpTotal()
-                    + " " + ":thumbsdown:" + " " + ratings.get(i).getThumbsDownTotal(), false);
-            embed.setFooter("This took " + duration + " ms to respond.");
-            embeds.add(embed.build());
+        } else {
+            tagDisplay.append("None");
         }
-        return embeds;
+        embed.addField("Tags", tagDisplay.toString(), true);
+        embed.setImage(rating.getRatingQuality().imageUrl);
+        embed.addField("Helpful/Not Helpful", ":thumbsup:" + " " + rating.getThumbsUpTotal()
+                + " " + ":thumbsdown:" + " " + rating.getThumbsDownTotal(), false);
+        embed.setFooter("This took " + duration + " ms to respond.");
+        return embed.build();
     }
 }
 
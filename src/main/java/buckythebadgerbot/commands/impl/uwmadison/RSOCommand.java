@@ -3,21 +3,25 @@ package buckythebadgerbot.commands.impl.uwmadison;
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.Command;
 import buckythebadgerbot.data.RegStudentOrg;
+import buckythebadgerbot.utils.pagination.PageSource;
 import buckythebadgerbot.utils.pagination.PaginationUtils;
+import buckythebadgerbot.utils.search.RSOSearchIndex;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * Command that retrieves information for dining menu
@@ -26,6 +30,9 @@ import java.util.concurrent.CompletableFuture;
 public class RSOCommand extends Command {
     private static final Logger logger = LoggerFactory.getLogger(RSOCommand.class);
 
+    //The most orgs a search returns (and pages a menu has)
+    private static final int MAX_RESULTS = 100;
+
     public RSOCommand(BuckyTheBadgerBot bot) {
         super(bot);
         this.name = "rso";
@@ -33,72 +40,105 @@ public class RSOCommand extends Command {
         this.explanation = """
                  """;
         this.args.add(new OptionData(OptionType.STRING, "query", "Name of organization/club", true));
+        this.warmupSteps.add(StartupStep.RSO_CATALOG);
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow asynchronous executions.
+     * NOTE: The orgs are searched in the catalog kept in memory by RSOService, so the API is only called if the catalog isn't loaded yet
+     * (the reply is deferred first then, as loading every page of the catalog takes longer than Discord waits for it)
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", RSOCommand.class.getSimpleName());
+        logger.info("Executing {}", RSOCommand.class.getSimpleName());
 
-            String query = event.getOption("query").getAsString();
-            long startTime = System.nanoTime();
-            List<RegStudentOrg> results = bot.rsoClient.getOrgs(query);
-            long endTime = System.nanoTime();
-            long duration = (endTime - startTime) / 1000000;
+        String query = event.getOption("query").getAsString();
+        long startTime = System.nanoTime();
+        CompletableFuture<RSOSearchIndex> catalogLoad = bot.rsoClient.getCatalogAsync();
+        boolean deferred = deferUnlessDone(event, catalogLoad);
+        catalogLoad.thenAcceptAsync(catalog -> {
+            if (catalog == null) {
+                recordLatency(startTime);
+                respond(event, deferred, "Could not load the student organizations! Please try again later.");
+                return;
+            }
+            List<RegStudentOrg> results = catalog.search(query, MAX_RESULTS);
+            long duration = recordLatency(startTime);
 
-            //Get embeds in pagination menu
-            ArrayList<MessageEmbed> rsoEmbeds = buildMenu(results,duration);
-            if (!rsoEmbeds.isEmpty()) {
-                //Send pagination menu
-                ReplyCallbackAction action = event.replyEmbeds(rsoEmbeds.get(0));
-                if (rsoEmbeds.size() > 1) {
-                    PaginationUtils.sendPaginatedMenu(event.getUser().getId(), action, rsoEmbeds);
-                    return;
+            if (!results.isEmpty()) {
+                //Only the first page is rendered now, the others are rendered as the user gets to them
+                PageSource pages = buildMenu(results, bot.rsoClient::getDescription, bot.rsoClient.getDataAsOf(), duration);
+                if (pages.size() > 1 && deferred) {
+                    PaginationUtils.sendPaginatedMenu(event.getUser().getId(), event.getHook(), pages);
+                } else if (pages.size() > 1) {
+                    ReplyCallbackAction action = event.replyEmbeds(pages.render(0));
+                    PaginationUtils.sendPaginatedMenu(event.getUser().getId(), action, pages);
+                } else {
+                    respond(event, deferred, MessageCreateData.fromEmbeds(pages.render(0)), hook -> {});
                 }
-                action.queue();
             } else {
-                event.reply("No results found.").queue();
+                respond(event, deferred, "No results found.");
             }
-        }, bot.service);
+        }, getExecutor()).exceptionally(e -> {
+            logger.error("Could not reply to {}! {}", RSOCommand.class.getSimpleName(), e.toString());
+            return null;
+        });
     }
 
     /**
-     * Generate embeds for pagination menu
-     * @param orgs list of registered student orgs
-     * @param duration the duration of the get request
-     * @return an ArrayList of all embeds in the pagination menu
+     * Build the pages of the pagination menu, one per org
+     * @param orgs the registered student orgs matching the query, best first
+     * @param descriptions renders the description of an org into plain text
+     * @param dataAsOf when the catalog was loaded if it couldn't be refreshed since (null otherwise)
+     * @param duration the duration of the search
+     * @return the pages of the menu
      */
-    private ArrayList<MessageEmbed> buildMenu(List<RegStudentOrg> orgs, long duration) {
-        ArrayList<MessageEmbed> embeds = new ArrayList<>();
-        if (orgs != null) {
-            for (RegStudentOrg org : orgs) {
-                EmbedBuilder embed = new EmbedBuilder()
-                        .setTitle(org.getName(), org.getWebsite())
-                        .setColor(Color.red);
-                if (org.getProfilePictureLink() != null) {
-                    embed.setThumbnail(org.getProfilePictureLink());
-                }
-                if (org.getSummary() != null) {
-                    embed.addField("Summary",org.getSummary(),false);
-                }
-                embed.addField("Status",org.getStatus(),false);
-                if (org.getCategoryNames().length != 0) {
-                    StringBuilder categories = new StringBuilder();
-                    for (String category : org.getCategoryNames()) {
-                        categories.append("`").append(category).append("`").append("\n");
-                    }
-                    embed.addField("Categories", categories.toString(),false);
+    private static PageSource buildMenu(List<RegStudentOrg> orgs, Function<RegStudentOrg, String> descriptions, Instant dataAsOf, long duration) {
+        //The orgs are shared with the catalog, so a menu only keeps a reference to each of them
+        return PageSource.of(orgs, (org, index) -> buildOrgEmbed(org, descriptions, dataAsOf, duration), org -> PageSource.OVERHEAD_BYTES);
+    }
+
+    /**
+     * Generate the embed of an org
+     * @param org the registered student org
+     * @param descriptions renders the description of an org into plain text (shown when the org has no summary)
+     * @param dataAsOf when the catalog was loaded if it couldn't be refreshed since (null otherwise)
+     * @param duration the duration of the search
+     * @return the embed of the org
+     */
+    private static MessageEmbed buildOrgEmbed(RegStudentOrg org, Function<RegStudentOrg, String> descriptions, Instant dataAsOf, long duration) {
+        EmbedBuilder embed = new EmbedBuilder()
+                .setTitle(org.getName(), org.getWebsite())
+                .setColor(Color.red);
+        if (dataAsOf != null) {
+            embed.setDescription(dataAsOfNote("WIN", dataAsOf));
+        }
+        if (org.getProfilePictureLink() != null) {
+            embed.setThumbnail(org.getProfilePictureLink());
+        }
+        if (org.getSummary() != null) {
+            embed.addField("Summary",org.getSummary(),false);
+        } else {
+            String description = descriptions.apply(org);
+            if (description != null && !description.isBlank()) {
+                description = description.strip();
+                //Fields are limited to 1024 characters
+                if (description.length() > MessageEmbed.VALUE_MAX_LENGTH) {
+                    description = description.substring(0, MessageEmbed.VALUE_MAX_LENGTH - 3) + "...";
                 }
-                embed.setFooter("This took " + duration + " ms to respond.");
-                embeds.add(embed.build());
+                embed.addField("Description", description, false);
             }
         }
-        return embeds;
+        embed.addField("Status",org.getStatus(),false);
+        if (org.getCategoryNames().length != 0) {
+            StringBuilder categories = new StringBuilder();
+            for (String category : org.getCategoryNames()) {
+                categories.append("`").append(category).append("`").append("\n");
+            }
+            embed.addField("Categories", categories.toString(),false);
+        }
+        embed.setFooter("This took " + duration + " ms to respond.");
+        return embed.build();
     }
 }
-
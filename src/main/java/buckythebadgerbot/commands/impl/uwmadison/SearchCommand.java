@@ -3,7 +3,9 @@ package buckythebadgerbot.commands.impl.uwmadison;
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.commands.Command;
 import buckythebadgerbot.data.Course;
+import buckythebadgerbot.data.database.repositories.impl.CoursesRepository;
 import buckythebadgerbot.listeners.ButtonListener;
+import buckythebadgerbot.utils.startup.StartupStep;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
@@ -18,12 +20,11 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Command that queries courses and displays the top ten (or all if less) results.
  * Generates buttons for the results, which you can click on to fetch the course information
- * Uses Postgres db for queries
+ * Uses the in-memory course search index (or Postgres db if it isn't loaded) for queries
  */
 public class SearchCommand extends Command {
 
@@ -39,60 +40,51 @@ public class SearchCommand extends Command {
                 NOTE: Cross-listed course querying is currently not supported (e.g., "COMP SCI/MATH 240").
                 Additionally, abbreviated subject querying may not work as intended (e.g., "CS 240")""";
         this.args.add(new OptionData(OptionType.STRING, "query", "Course subject, number, and/or title", true));
+        this.requiredSteps.add(StartupStep.DATABASE);
+        //Without the search index, courses are searched in the database instead
+        this.warmupSteps.add(StartupStep.COURSE_INDEX);
     }
 
     /**
      * Method to execute the task of the command
      * @param event the event of the slash command
-     * NOTE: The entire command is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow concurrent executions.
+     * NOTE: The command runs on its own executor from the execution model (see CommandManager), so it is safe to block on the database here (only needed if the search index isn't loaded).
      */
     @Override
     public void execute(SlashCommandInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", SearchCommand.class.getSimpleName());
-            long startTime = System.nanoTime();
-            String uuid = event.getUser().getId() + ":" + UUID.randomUUID();
-            String courseQuery = event.getOption("query").getAsString();
-            String sqlQuery = "SELECT *," +
-                    " ts_rank_cd(full_subject_name_number_idx_col, query) AS rank_full," +
-                    " ts_rank_cd(subject_abbrev_number_idx_col, query) AS rank_abbrev," +
-                    " word_similarity('" + courseQuery + "', title) AS sml\n" +
-                    " FROM courses, plainto_tsquery('simple', '" + courseQuery + "') query\n" +
-                    " WHERE subject_abbrev_number_idx_col @@ query " +
-                    " OR full_subject_name_number_idx_col @@ query " +
-                    " OR '" + courseQuery + "' <% title\n" +
-                    " ORDER BY rank_full DESC, rank_abbrev DESC, sml DESC\n" +
-                    " LIMIT 10;";
-            try {
-                List<Course> courses = bot.getDatabase().getRepository("courses").read(sqlQuery);
-                if (!courses.isEmpty()) {
-                    StringBuilder results = new StringBuilder();
-                    ArrayList<String> buttonResults = new ArrayList<>();
-                    ArrayList<String> buttonIds = new ArrayList<>();
-                    for (Course course : courses) {
-                        results.append("`").append(course.getSubjectAbbrev()).append(" ").append(course.getNumber()).append(" — ").append(course.getTitle()).append("`").append("\n");
-                        buttonIds.add(course.getSubjectAbbrev() + "-T" + course.getNumber());
-                        buttonResults.add(course.getSubjectAbbrev() + " " + course.getNumber());
-                    }
-                    EmbedBuilder eb = new EmbedBuilder()
-                            .setTitle("Query: " + courseQuery)
-                            .setColor(Color.red)
-                            .addField("Results: ", results.toString(), false)
-                            .setDescription(courses.size() == 10 ? "Showing the first 10 results." : "Showing all " + courses.size() + " results.");
-                    long endTime = System.nanoTime();
-                    long duration = (endTime - startTime) / 1000000;
-                    eb.setFooter("This took " + duration + " ms to respond.");
-                    MessageCreateBuilder message = new MessageCreateBuilder();
-                    message.addEmbeds(eb.build());
-                    ReplyCallbackAction action = event.reply(message.build());
-                    ButtonListener.generateButtons(uuid,"courseSearch", buttonIds, buttonResults,ButtonStyle.SECONDARY, action);
-                } else {
-                    event.reply("No results found. Try to be more specific.").queue();
+        logger.info("Executing {}", SearchCommand.class.getSimpleName());
+        long startTime = System.nanoTime();
+        String uuid = event.getUser().getId() + ":" + UUID.randomUUID();
+        String courseQuery = event.getOption("query").getAsString();
+        try {
+            CoursesRepository coursesRepository = bot.getDatabase().getRepository("courses", CoursesRepository.class);
+            List<Course> courses = coursesRepository.searchCourses(courseQuery, 10);
+            if (!courses.isEmpty()) {
+                StringBuilder results = new StringBuilder();
+                ArrayList<String> buttonResults = new ArrayList<>();
+                ArrayList<String> buttonIds = new ArrayList<>();
+                for (Course course : courses) {
+                    results.append("`").append(course.getSubjectAbbrev()).append(" ").append(course.getNumber()).append(" — ").append(course.getTitle()).append("`").append("\n");
+                    buttonIds.add(course.getSubjectAbbrev() + "-T" + course.getNumber());
+                    buttonResults.add(course.getSubjectAbbrev() + " " + course.getNumber());
                 }
-            } catch (Exception e) {
-                logger.error("Could not fetch courses! {}",e.toString());
-                event.reply("An error has occurred. Unable to fetch courses...").queue();
+                EmbedBuilder eb = new EmbedBuilder()
+                        .setTitle("Query: " + courseQuery)
+                        .setColor(Color.red)
+                        .addField("Results: ", results.toString(), false)
+                        .setDescription(courses.size() == 10 ? "Showing the first 10 results." : "Showing all " + courses.size() + " results.");
+                long duration = recordLatency(startTime);
+                eb.setFooter("This took " + duration + " ms to respond.");
+                MessageCreateBuilder message = new MessageCreateBuilder();
+                message.addEmbeds(eb.build());
+                ReplyCallbackAction action = event.reply(message.build());
+                ButtonListener.generateButtons(uuid,"courseSearch", buttonIds, buttonResults,ButtonStyle.SECONDARY, action);
+            } else {
+                event.reply("No results found. Try to be more specific.").queue();
             }
-        }, bot.service);
+        } catch (Exception e) {
+            logger.error("Could not fetch courses! {}",e.toString());
+            event.reply("An error has occurred. Unable to fetch courses...").queue();
+        }
     }
 }
@@ -0,0 +1,151 @@
+package buckythebadgerbot.commands.impl.uwmadison;
+
+import buckythebadgerbot.data.StudentRating;
+import buckythebadgerbot.data.StudentRatingsPage;
+import buckythebadgerbot.utils.pagination.PageSource;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The pages of a student ratings menu, one per rating, fetched from RMP as the user gets to them
+ * - The menu starts with the (small) first page of ratings, so it can be sent right away
+ * - Once the user gets close to the last fetched rating, the next ratings are fetched in the background with the end cursor of the previous ones
+ * - Jumping past the fetched ratings (e.g, "last") fetches every page up to it, one at a time
+ * Safe to use from any thread: the fetched ratings (and the cursor after them) are published as one immutable snapshot,
+ * so readers never see the cursor of a page with the ratings of the previous one, and only one page is fetched at a time
+ */
+class StudentRatingPages implements PageSource {
+
+    //How close to the last fetched rating the user gets before the next ones are fetched
+    private static final int PREFETCH_MARGIN = 3;
+
+    private final Function<String, CompletableFuture<StudentRatingsPage>> fetcher;
+    private final String profName;
+    private final long duration;
+
+    //How many ratings the course has according to RMP (-1 if unknown), to number the pages that aren't fetched yet
+    private final int totalCount;
+
+    //What is fetched so far, replaced as a whole once a page is added
+    private volatile Snapshot fetched;
+
+    //The page being fetched, if any (guarded by this)
+    private CompletableFuture<Void> fetching;
+
+    /**
+     * @param firstPage the first page of ratings
+     * @param fetcher fetches the page of ratings after a cursor (completed exceptionally if the request failed)
+     * @param profName the name of the professor the ratings correspond to
+     * @param duration the duration of the first API call
+     */
+    StudentRatingPages(StudentRatingsPage firstPage, Function<String, CompletableFuture<StudentRatingsPage>> fetcher, String profName, long duration) {
+        this.fetcher = fetcher;
+        this.profName = profName;
+        this.duration = duration;
+        this.totalCount = firstPage.getTotalCount();
+        this.fetched = new Snapshot(firstPage.getRatings(), firstPage.getEndCursor(), firstPage.hasNextPage(),
+                OVERHEAD_BYTES + estimateBytes(firstPage.getRatings()));
+    }
+
+    @Override
+    public int size() {
+        return size(fetched);
+    }
+
+    private int size(Snapshot snapshot) {
+        if (!snapshot.hasNextPage()) {
+            return snapshot.ratings().size();
+        }
+        //There is at least one more rating, even if the total is off
+        return Math.max(totalCount, snapshot.ratings().size() + 1);
+    }
+
+    @Override
+    public MessageEmbed render(int page) {
+        Snapshot snapshot = fetched;
+        int index = Math.min(page, snapshot.ratings().size() - 1);
+        return ProfCommand.buildRatingEmbed(snapshot.ratings().get(index), index, size(snapshot), profName, duration);
+    }
+
+    @Override
+    public long estimateBytes() {
+        return fetched.bytes();
+    }
+
+    @Override
+    public CompletableFuture<Integer> load(int page) {
+        CompletableFuture<Integer> loaded = fetchUntil(page);
+        //Fetch the next ratings while the user reads the last few fetched ones
+        loaded.thenAccept(shown -> {
+            if (shown + PREFETCH_MARGIN >= fetched.ratings().size()) {
+                fetchNext();
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Fetch pages until a rating is fetched (or there are no more)
+     * @param page the index of the rating
+     * @return a future completed with the index of the rating, or of the last one if there are fewer
+     */
+    private CompletableFuture<Integer> fetchUntil(int page) {
+        Snapshot snapshot = fetched;
+        if (page < snapshot.ratings().size() || !snapshot.hasNextPage()) {
+            return CompletableFuture.completedFuture(Math.max(0, Math.min(page, snapshot.ratings().size() - 1)));
+        }
+        return fetchNext().thenCompose(ignored -> fetchUntil(page));
+    }
+
+    /**
+     * Fetch the next page, unless it is already being fetched
+     * @return a future completed once the page is added, or completed exceptionally if it couldn't be fetched (it is retried on the next call)
+     */
+    private synchronized CompletableFuture<Void> fetchNext() {
+        if (fetching != null && !fetching.isDone()) {
+            return fetching;
+        }
+        //Only this method replaces the snapshot, and only one fetch runs at a time, so it can't change until the fetch is done
+        Snapshot previous = fetched;
+        if (!previous.hasNextPage()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        fetching = fetcher.apply(previous.cursor()).thenAccept(next -> {
+            List<StudentRating> merged = new ArrayList<>(previous.ratings().size() + next.getRatings().size());
+            merged.addAll(previous.ratings());
+            merged.addAll(next.getRatings());
+            //An empty page would otherwise be fetched forever
+            fetched = new Snapshot(List.copyOf(merged), next.getEndCursor(), next.hasNextPage() && !next.getRatings().isEmpty(),
+                    previous.bytes() + estimateBytes(next.getRatings()));
+        });
+        return fetching;
+    }
+
+    /**
+     * Every char of a rating is 2 bytes (UTF-16), and the comment is by far the largest field
+     * @param ratings the ratings
+     * @return the approximate number of bytes the ratings keep on the heap
+     */
+    private static long estimateBytes(List<StudentRating> ratings) {
+        long bytes = 0;
+        for (StudentRating rating : ratings) {
+            bytes += OVERHEAD_BYTES + 512 + 2L * Objects.toString(rating.getComment(), "").length();
+        }
+        return bytes;
+    }
+
+    /**
+     * The ratings fetched so far, and where the next ones start
+     * @param ratings the fetched ratings (read-only)
+     * @param cursor the end cursor of the last fetched page
+     * @param hasNextPage whether there are more ratings after the cursor
+     * @param bytes the approximate number of bytes the menu keeps on the heap
+     */
+    private record Snapshot(List<StudentRating> ratings, String cursor, boolean hasNextPage, long bytes) {
+    }
+}
@@ -0,0 +1,70 @@
+package buckythebadgerbot.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * GymLocation object (POJO) deserialized from JSON
+ * Represents the live count of a single location (e.g, "Level 1 Fitness") within a recreation facility
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GymLocation {
+
+    @JsonProperty("FacilityName")
+    private String facilityName;
+
+    @JsonProperty("LocationName")
+    private String locationName;
+
+    @JsonProperty("LastCount")
+    private int lastCount;
+
+    @JsonProperty("TotalCapacity")
+    private int totalCapacity;
+
+    //Set in US/Central, in the format of yyyy-MM-dd'T'HH:mm:ss
+    @JsonProperty("LastUpdatedDateAndTime")
+    private String lastUpdated;
+
+    public String getFacilityName() {
+        return facilityName;
+    }
+
+    public String getLocationName() {
+        return locationName;
+    }
+
+    public int getLastCount() {
+        return lastCount;
+    }
+
+    public int getTotalCapacity() {
+        return totalCapacity;
+    }
+
+    public String getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * Convert the timestamp (which is set in US/Central) to unix timestamp (epoch)
+     * @return the epoch second of the last update
+     */
+    public long getLastUpdatedEpochSecond() {
+        return LocalDateTime.parse(lastUpdated).atZone(ZoneId.of("US/Central")).toEpochSecond();
+    }
+
+    @Override
+    public String toString() {
+        return "GymLocation{" +
+                "facilityName='" + facilityName + '\'' +
+                ", locationName='" + locationName + '\'' +
+                ", lastCount=" + lastCount +
+                ", totalCapacity=" + totalCapacity +
+                ", lastUpdated='" + lastUpdated + '\'' +
+                '}';
+    }
+}
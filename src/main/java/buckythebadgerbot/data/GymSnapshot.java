@@ -0,0 +1,43 @@
+package buckythebadgerbot.data;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the live usage of every gym location, as of a single poll
+ * Safe to share between threads, since it never changes once published
+ */
+public class GymSnapshot {
+
+    //Every main facility (Nick, then Bakke) matching with its locations, sorted by usage in descending order
+    private final Map<String, List<GymLocation>> facilities;
+
+    //When the snapshot was fetched
+    private final Instant fetchedAt;
+
+    public GymSnapshot(Map<String, List<GymLocation>> facilities, Instant fetchedAt) {
+        Map<String, List<GymLocation>> copy = new LinkedHashMap<>();
+        facilities.forEach((facility, locations) -> copy.put(facility, List.copyOf(locations)));
+        this.facilities = Collections.unmodifiableMap(copy);
+        this.fetchedAt = fetchedAt;
+    }
+
+    public Map<String, List<GymLocation>> getFacilities() {
+        return facilities;
+    }
+
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "GymSnapshot{" +
+                "facilities=" + facilities.keySet() +
+                ", fetchedAt=" + fetchedAt +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package buckythebadgerbot.data;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -21,9 +22,13 @@ public class Professor {
     private boolean doesExist;
     private boolean fallback;
 
+    //When the professor was fetched from RMP
+    private final Instant fetchedAt;
+
     public Professor() {
         this.doesExist = true;
         this.fallback = false;
+        this.fetchedAt = Instant.now();
     }
 
     public String getRegularId() {
@@ -138,6 +143,10 @@ public class Professor {
         this.fallback = fallback;
     }
 
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
     @Override
     public String toString() {
         return "Professor{" +
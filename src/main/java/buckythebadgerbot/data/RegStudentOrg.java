@@ -2,20 +2,12 @@ package buckythebadgerbot.data;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import net.htmlparser.jericho.Renderer;
-import net.htmlparser.jericho.Segment;
-import net.htmlparser.jericho.Source;
 
 import java.util.Arrays;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class RegStudentOrg {
 
-    //to parse HTML strings
-    private Source htmlSource;
-    private Segment segment;
-    private Renderer htmlRender;
-
     @JsonProperty("@search.score")
     private double searchScore;
 
@@ -104,14 +96,11 @@ public class RegStudentOrg {
         return "https://se-images.campuslabs.com/clink/images/" + profilePictureLink + "?preset=med-sq";
     }
 
+    /**
+     * @return the description as HTML (see DescriptionRenderer for plain text)
+     */
     public String getDescription() {
-        if (this.description == null) {
-            return null;
-        }
-        this.htmlSource = new Source(description);
-        this.segment = new Segment(htmlSource,0,htmlSource.length());
-        this.htmlRender = new Renderer(segment);
-        return htmlRender.toString();
+        return description;
     }
 
     public String getSummary() {
@@ -0,0 +1,53 @@
+package buckythebadgerbot.data;
+
+import java.util.List;
+
+/**
+ * Immutable page of the student ratings of a course taught by a professor, as returned by one RatingsListQuery
+ * The next page is fetched with the end cursor of this one
+ */
+public class StudentRatingsPage {
+
+    private final List<StudentRating> ratings;
+
+    //Where the next page starts (null if there are no more pages)
+    private final String endCursor;
+
+    private final boolean hasNextPage;
+
+    //How many ratings the course has in total, according to RMP (-1 if unknown)
+    private final int totalCount;
+
+    public StudentRatingsPage(List<StudentRating> ratings, String endCursor, boolean hasNextPage, int totalCount) {
+        this.ratings = List.copyOf(ratings);
+        this.endCursor = endCursor;
+        this.hasNextPage = hasNextPage && endCursor != null;
+        this.totalCount = totalCount;
+    }
+
+    public List<StudentRating> getRatings() {
+        return ratings;
+    }
+
+    public String getEndCursor() {
+        return endCursor;
+    }
+
+    public boolean hasNextPage() {
+        return hasNextPage;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    @Override
+    public String toString() {
+        return "StudentRatingsPage{" +
+                "ratings=" + ratings.size() +
+                ", endCursor='" + endCursor + '\'' +
+                ", hasNextPage=" + hasNextPage +
+                ", totalCount=" + totalCount +
+                '}';
+    }
+}
@@ -3,22 +3,29 @@ package buckythebadgerbot.data.database;
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.data.database.repositories.impl.CoursesRepository;
 import buckythebadgerbot.data.database.repositories.Repository;
+import buckythebadgerbot.utils.metrics.HikariMetricsTrackerFactory;
+import buckythebadgerbot.utils.metrics.Metrics;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class Database {
     private final BuckyTheBadgerBot bot;
     private static final HikariConfig config = new HikariConfig();
     private static HikariDataSource dataSource;
     private static final Logger logger = LoggerFactory.getLogger(Database.class);
-    private static final Map<String, Repository> repositoriesMap = new HashMap<>();
+    private static final Map<String, Repository<?>> repositoriesMap = new HashMap<>();
+    private static final List<NotificationListener> listeners = new CopyOnWriteArrayList<>();
 
     public Database(BuckyTheBadgerBot bot) {
         this.bot = bot;
@@ -33,22 +40,34 @@ public class Database {
         config.setUsername(bot.getConfig().get("POSTGRES_USER"));
         config.setPassword(bot.getConfig().get("POSTGRES_PASSWORD"));
         config.setDriverClassName("org.postgresql.Driver");
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        //NOTE: cachePrepStmts/prepStmtCacheSize are MySQL driver properties (ignored by pgjdbc), so the PostgreSQL equivalents are set instead
+        //Prepare statements on the server from their first execution, and keep them cached per connection (keyed by SQL)
+        config.addDataSourceProperty("prepareThreshold", "1");
+        config.addDataSourceProperty("preparedStatementCacheQueries", "256");
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", "5");
+        //Record the wait for connections and the pool usage (see /metrics)
+        config.setMetricsTrackerFactory(new HikariMetricsTrackerFactory(Metrics.registry));
         dataSource = new HikariDataSource(config);
         logger.info("Successfully connected to database!");
     }
 
-    private void mapRepository(Repository ...repositories) {
-        for (Repository repository : repositories) {
+    private void mapRepository(Repository<?> ...repositories) {
+        for (Repository<?> repository : repositories) {
             repositoriesMap.put(repository.name, repository);
         }
     }
 
-    public Repository getRepository(String repositoryName) throws SQLException {
-        if (repositoriesMap.containsKey(repositoryName)) {
-            return repositoriesMap.get(repositoryName);
+    /**
+     * Get the repository of a table
+     * @param repositoryName the name of the table
+     * @param type the class of the repository (e.g, CoursesRepository.class)
+     * @return the repository
+     * @throws SQLException if the table has no repository of that type
+     */
+    public <R extends Repository<?>> R getRepository(String repositoryName, Class<R> type) throws SQLException {
+        Repository<?> repository = repositoriesMap.get(repositoryName);
+        if (type.isInstance(repository)) {
+            return type.cast(repository);
         } else {
             throw new SQLException("Table '" + repositoryName + "' does not exist!");
         }
@@ -58,9 +77,32 @@ public class Database {
         return dataSource.getConnection();
     }
 
+    /**
+     * Open a connection outside the pool (e.g, for LISTEN, which holds its connection for as long as it listens)
+     * @return the connection, which the caller must close
+     * @throws SQLException if the database can't be reached
+     */
+    public Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(config.getJdbcUrl(), config.getUsername(), config.getPassword());
+    }
+
+    /**
+     * Start listening to a notification channel (see NotificationListener)
+     * @param channel the channel (e.g, "courses_changed")
+     * @param onNotification handles the payload of a notification
+     * @param onReset runs whenever notifications may have been missed
+     * @return the listener
+     */
+    public NotificationListener listen(String channel, Consumer<String> onNotification, Runnable onReset) {
+        NotificationListener listener = new NotificationListener(this, channel, onNotification, onReset);
+        listeners.add(listener);
+        listener.start();
+        return listener;
+    }
+
     public void disconnect() {
+        listeners.forEach(NotificationListener::stop);
         dataSource.close();
     }
 
-
 }
@@ -0,0 +1,139 @@
+package buckythebadgerbot.data.database;
+
+import buckythebadgerbot.utils.concurrent.BulkheadExecutor;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Listens to a PostgreSQL notification channel (LISTEN/NOTIFY) on a dedicated connection
+ * - The connection isn't taken from the pool, as it stays open (and idle) for as long as the bot runs
+ * - Notifications are polled by a single daemon thread, and handled on it in the order they were sent
+ * - If the connection is lost, notifications sent in the meantime are lost too: onReset runs before listening again (and when the connection is lost),
+ *   so whatever is derived from the notifications can be thrown away
+ */
+public class NotificationListener {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationListener.class);
+
+    //How long a poll waits for notifications, which is also how long stop() can take
+    private static final int POLL_TIMEOUT_MILLIS = 10000;
+
+    //How long to wait before reconnecting, doubled after every failed attempt
+    private static final Duration RECONNECT_BASE_DELAY = Duration.ofSeconds(1);
+    private static final Duration RECONNECT_MAX_DELAY = Duration.ofMinutes(1);
+
+    private final Database database;
+    private final String channel;
+    private final Consumer<String> onNotification;
+    private final Runnable onReset;
+    private final Thread thread;
+
+    //True while LISTEN is active on an open connection
+    private volatile boolean listening;
+    private volatile boolean stopped;
+
+    /**
+     * @param database the database to open the connection to
+     * @param channel the channel (e.g, "courses_changed")
+     * @param onNotification handles the payload of a notification
+     * @param onReset runs whenever notifications may have been missed (the connection was lost, or is about to listen)
+     */
+    NotificationListener(Database database, String channel, Consumer<String> onNotification, Runnable onReset) {
+        this.database = database;
+        this.channel = channel;
+        this.onNotification = onNotification;
+        this.onReset = onReset;
+        this.thread = BulkheadExecutor.threadFactory("listen-" + channel).newThread(this::run);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop listening and close the connection
+     */
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    /**
+     * @return true while notifications are received, false if some may be missed
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    private void run() {
+        long delayMillis = RECONNECT_BASE_DELAY.toMillis();
+        while (!stopped) {
+            try (Connection connection = database.openConnection()) {
+                //Anything derived before now may be outdated, as notifications can't be received until LISTEN runs
+                onReset.run();
+                try (Statement statement = connection.createStatement()) {
+                    //The channel is a constant of the caller, identifiers can't be bound as parameters
+                    statement.execute("LISTEN " + channel);
+                }
+                listening = true;
+                delayMillis = RECONNECT_BASE_DELAY.toMillis();
+                logger.info("Listening to '{}' notifications", channel);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!stopped) {
+                    //Throws once the connection is closed
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        handle(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (stopped) {
+                    break;
+                }
+                logger.warn("Lost the '{}' notification channel! Reconnecting in {} ms... {}", channel, delayMillis, e.toString());
+            } finally {
+                if (listening) {
+                    listening = false;
+                    onReset.run();
+                }
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            delayMillis = Math.min(delayMillis * 2, RECONNECT_MAX_DELAY.toMillis());
+        }
+        logger.info("Stopped listening to '{}' notifications", channel);
+    }
+
+    private void handle(String payload) {
+        try {
+            onNotification.accept(payload);
+        } catch (RuntimeException e) {
+            logger.error("Could not handle the '{}' notification '{}'! {}", channel, payload, e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationListener{" +
+                "channel='" + channel + '\'' +
+                ", listening=" + listening +
+                '}';
+    }
+}
@@ -2,7 +2,11 @@ package buckythebadgerbot.data.database.repositories;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class Repository <T> {
@@ -13,5 +17,29 @@ public abstract class Repository <T> {
         this.bot = bot;
     }
 
-    public abstract List<T> read(String query) throws SQLException;
+    /**
+     * Run a query with bound parameters
+     * NOTE: The SQL should be a constant, so the driver can reuse the server-side prepared statement (and its plan) on every call
+     * @param sql the query, with a ? for every parameter
+     * @param mapper maps every row of the result
+     * @param params the parameters, in order
+     * @return the mapped rows
+     * @throws SQLException if the query fails
+     */
+    protected <R> List<R> query(String sql, RowMapper<R> mapper, Object... params) throws SQLException {
+        try (Connection connection = bot.getDatabase().getConnectionFromPool();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                //NOTE: PostgreSQL uses 1-indexed for some reason...
+                ps.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                List<R> rows = new ArrayList<>();
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+                return rows;
+            }
+        }
+    }
 }
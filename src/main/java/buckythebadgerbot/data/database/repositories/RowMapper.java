@@ -0,0 +1,19 @@
+package buckythebadgerbot.data.database.repositories;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object
+ * @param <T> the type of the object
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * @param rs the result set, positioned on the row to map
+     * @return the mapped object
+     * @throws SQLException if a column can't be read
+     */
+    T map(ResultSet rs) throws SQLException;
+}
@@ -1,51 +1,319 @@
 package buckythebadgerbot.data.database.repositories.impl;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
-import buckythebadgerbot.commands.impl.uwmadison.SearchCommand;
 import buckythebadgerbot.data.Course;
+import buckythebadgerbot.data.database.Database;
+import buckythebadgerbot.data.database.NotificationListener;
 import buckythebadgerbot.data.database.repositories.Repository;
+import buckythebadgerbot.utils.cache.CacheStats;
+import buckythebadgerbot.utils.json.JsonUtils;
+import buckythebadgerbot.utils.search.CourseSearchIndex;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CoursesRepository extends Repository<Course> {
+    private static final Logger logger = LoggerFactory.getLogger(CoursesRepository.class);
+
+    //The channel the trigger on the table notifies of changed rows (see db_init_example.sql)
+    private static final String CHANGES_CHANNEL = "courses_changed";
+
+    //The triggers that notify the channel (see db_init_example.sql), without which changes to the table would go unnoticed
+    private static final List<String> CHANGE_TRIGGERS = List.of("courses_changed", "courses_truncated");
+
+    private static final int COURSE_CACHE_SIZE = 5000;
+
+    //How long a cached course is served, as a safety net in case a change is never notified (e.g, the triggers are dropped later on)
+    private static final long COURSE_TTL_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    //How long after a change the search index is reloaded, so a catalog reload (many changes at once) reloads it once
+    private static final long INDEX_RELOAD_DELAY_SECONDS = 30;
+
+    //In-memory copy of the table for searches (null until loaded, or if loading failed)
+    private volatile CourseSearchIndex searchIndex;
+
+    //Read-through cache of findByCode(), keyed by code(), with a null course for courses that don't exist
+    //Entries are removed when the trigger notifies that their row changed, so they are only served while listening (and for COURSE_TTL at most)
+    //LinkedHashMap in access order, so the least recently used entry is evicted first (every access is synchronized on it)
+    private final LinkedHashMap<String, CachedCourse> coursesByCode = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedCourse> eldest) {
+            if (size() > COURSE_CACHE_SIZE) {
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    //Incremented on every invalidation, so a query that raced with one doesn't cache what it read before the change
+    //NOTE: Only read and written while synchronized on coursesByCode
+    private long invalidations;
+
+    //Null until listenForChanges(), or if the triggers aren't installed (the cache is bypassed then)
+    private volatile NotificationListener changes;
+    private final AtomicBoolean indexReloadScheduled = new AtomicBoolean();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
 
     public CoursesRepository(BuckyTheBadgerBot bot) {
         super(bot);
         this.name = "courses";
     }
 
-    @Override
-    public List<Course> read(String query) throws SQLException {
-        try (Connection connection = bot.getDatabase().getConnectionFromPool();
-             PreparedStatement ps = connection.prepareStatement(query);
-             ResultSet rs = ps.executeQuery()) {
-            List<Course> courses = new ArrayList<>();
-            while (rs.next()) {
-                Course course = new Course();
-                //NOTE: PostgreSQL uses 1-indexed for some reason...
-                course.setSubjectAbbrev(rs.getString(1));
-                course.setFullSubjectName(rs.getString(2));
-                course.setNumber(rs.getString(3));
-                course.setTitle(rs.getString(4));
-                //Null decimal values get auto-converted to 0.0, so we have to manually set it to null if it is actually null by checking with Object type
-                course.setCumulativeGpa(rs.getObject(5) == null ? null : rs.getDouble(5));
-                course.setCredits(rs.getString(6));
-                course.setDescription(rs.getString(7));
-                course.setRequisites(rs.getString(8));
-                course.setCourseDesignation(rs.getString(9));
-                course.setRepeatable(rs.getString(10));
-                course.setLastTaught(rs.getString(11));
-                course.setCrosslistSubjects(rs.getString(12));
-                courses.add(course);
+    //Columns of the course details (e.g, /course), and of the search results (e.g, /search)
+    private static final String DETAIL_COLUMNS = "subject_abbrev, full_subject_name, number, title, cumulative_gpa, credits," +
+            " description, requisites, course_designation, repeatable, last_taught, crosslist_subjects";
+    private static final String SUMMARY_COLUMNS = "subject_abbrev, number, title";
+
+    //Every query is a constant with bound parameters, so each one is prepared once per connection and its plan is reused
+    private static final String FIND_ALL = "SELECT " + DETAIL_COLUMNS + " FROM courses";
+    private static final String COUNT_TRIGGERS = "SELECT count(*) FROM pg_trigger" +
+            " WHERE tgrelid = to_regclass('courses') AND tgname IN (?, ?) AND tgenabled <> 'D'";
+    private static final String FIND_BY_CODE = "SELECT " + DETAIL_COLUMNS + " FROM courses WHERE subject_abbrev = ? AND number = ?";
+    private static final String SEARCH = "SELECT " + SUMMARY_COLUMNS +
+            " FROM courses, plainto_tsquery('simple', ?) query" +
+            " WHERE subject_abbrev_number_idx_col @@ query" +
+            " OR full_subject_name_number_idx_col @@ query" +
+            " OR ? <% title" +
+            " ORDER BY ts_rank_cd(full_subject_name_number_idx_col, query) DESC," +
+            " ts_rank_cd(subject_abbrev_number_idx_col, query) DESC," +
+            " word_similarity(?, title) DESC" +
+            " LIMIT ?";
+    private static final String FIND_BEST = "SELECT " + DETAIL_COLUMNS +
+            " FROM courses, plainto_tsquery('simple', ?) query" +
+            " WHERE subject_abbrev_number_idx_col @@ query" +
+            " OR full_subject_name_number_idx_col @@ query" +
+            " OR title % ?" +
+            " ORDER BY ts_rank_cd(full_subject_name_number_idx_col, query) DESC," +
+            " ts_rank_cd(subject_abbrev_number_idx_col, query) DESC," +
+            " similarity(title, ?) DESC" +
+            " LIMIT 1";
+
+    /**
+     * Map a row of DETAIL_COLUMNS
+     * @param rs the result set
+     * @return the course with every detail
+     * @throws SQLException if a column can't be read
+     */
+    private static Course mapDetails(ResultSet rs) throws SQLException {
+        Course course = new Course();
+        course.setSubjectAbbrev(rs.getString("subject_abbrev"));
+        course.setFullSubjectName(rs.getString("full_subject_name"));
+        course.setNumber(rs.getString("number"));
+        course.setTitle(rs.getString("title"));
+        //Null decimal values get auto-converted to 0.0, so we have to manually set it to null if it is actually null by checking with Object type
+        course.setCumulativeGpa(rs.getObject("cumulative_gpa") == null ? null : rs.getDouble("cumulative_gpa"));
+        course.setCredits(rs.getString("credits"));
+        course.setDescription(rs.getString("description"));
+        course.setRequisites(rs.getString("requisites"));
+        course.setCourseDesignation(rs.getString("course_designation"));
+        course.setRepeatable(rs.getString("repeatable"));
+        course.setLastTaught(rs.getString("last_taught"));
+        course.setCrosslistSubjects(rs.getString("crosslist_subjects"));
+        return course;
+    }
+
+    /**
+     * Map a row of SUMMARY_COLUMNS
+     * @param rs the result set
+     * @return the course with only its subject, number and title
+     * @throws SQLException if a column can't be read
+     */
+    private static Course mapSummary(ResultSet rs) throws SQLException {
+        Course course = new Course();
+        course.setSubjectAbbrev(rs.getString("subject_abbrev"));
+        course.setNumber(rs.getString("number"));
+        course.setTitle(rs.getString("title"));
+        return course;
+    }
+
+    /**
+     * Find a course by its code
+     * Answered from memory after the first lookup, until the row changes (see listenForChanges()) or COURSE_TTL passed
+     * NOTE: The returned course is shared with the cache, so it must not be modified
+     * @param subjectAbbrev the abbreviated subject (e.g, "COMP SCI")
+     * @param number the number (e.g, "577")
+     * @return the course with every detail, or null if it doesn't exist
+     * @throws SQLException if the query fails
+     */
+    public Course findByCode(String subjectAbbrev, String number) throws SQLException {
+        NotificationListener listener = changes;
+        if (listener == null || !listener.isListening()) {
+            //Changes wouldn't be noticed, so nothing is cached
+            return queryByCode(subjectAbbrev, number);
+        }
+        String code = code(subjectAbbrev, number);
+        long generation;
+        synchronized (coursesByCode) {
+            CachedCourse cached = coursesByCode.get(code);
+            if (cached != null && System.nanoTime() - cached.expiresAt() < 0) {
+                hitCount.increment();
+                return cached.course();
+            }
+            generation = invalidations;
+        }
+        missCount.increment();
+        Course course = queryByCode(subjectAbbrev, number);
+        synchronized (coursesByCode) {
+            if (invalidations == generation && listener.isListening()) {
+                coursesByCode.put(code, new CachedCourse(course, System.nanoTime() + COURSE_TTL_NANOS));
+            }
+        }
+        return course;
+    }
+
+    private Course queryByCode(String subjectAbbrev, String number) throws SQLException {
+        List<Course> courses = query(FIND_BY_CODE, CoursesRepository::mapDetails, subjectAbbrev, number);
+        return courses.isEmpty() ? null : courses.get(0);
+    }
+
+    /**
+     * Keep the cache of findByCode() (and the search index) up to date with the table, using the notifications of its trigger
+     * - A changed row (inserted, updated or deleted) removes its course from the cache, and reloads the search index shortly after
+     * - A truncated table (or lost notifications, e.g, while reconnecting) clears the whole cache
+     * LISTEN works whether or not anything notifies the channel, so if the triggers aren't installed, nothing is listened to (and nothing is cached)
+     * @param database the database to listen on
+     * @param scheduler runs the reloads of the search index
+     */
+    public void listenForChanges(Database database, ScheduledExecutorService scheduler) {
+        try {
+            List<Integer> installed = query(COUNT_TRIGGERS, rs -> rs.getInt(1), CHANGE_TRIGGERS.toArray());
+            if (installed.get(0) < CHANGE_TRIGGERS.size()) {
+                logger.warn("The triggers {} on courses aren't installed (see db_init_example.sql), so course lookups aren't cached! Moving on...", CHANGE_TRIGGERS);
+                return;
             }
-            return courses;
+        } catch (SQLException e) {
+            logger.error("Could not check the triggers on courses, so course lookups aren't cached! {}", e.toString());
+            return;
         }
+        changes = database.listen(CHANGES_CHANNEL, payload -> {
+            onChange(payload);
+            if (indexReloadScheduled.compareAndSet(false, true)) {
+                scheduler.schedule(() -> {
+                    indexReloadScheduled.set(false);
+                    loadSearchIndex();
+                }, INDEX_RELOAD_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+        }, this::invalidateAll);
+    }
+
+    /**
+     * Handle a notification of the trigger
+     * @param payload {"subject_abbrev": ..., "number": ...} for a changed row, or {} if every row may have changed
+     */
+    private void onChange(String payload) {
+        JsonNode row;
+        try {
+            row = JsonUtils.readTree(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Could not parse the '{}' notification '{}'! Clearing the course cache... {}", CHANGES_CHANNEL, payload, e.toString());
+            invalidateAll();
+            return;
+        }
+        if (row.hasNonNull("subject_abbrev") && row.hasNonNull("number")) {
+            invalidate(code(row.get("subject_abbrev").asText(), row.get("number").asText()));
+        } else {
+            invalidateAll();
+        }
+    }
+
+    private void invalidate(String code) {
+        synchronized (coursesByCode) {
+            invalidations++;
+            coursesByCode.remove(code);
+        }
+    }
+
+    private void invalidateAll() {
+        synchronized (coursesByCode) {
+            invalidations++;
+            coursesByCode.clear();
+        }
+    }
+
+    private static String code(String subjectAbbrev, String number) {
+        return subjectAbbrev + "|" + number;
+    }
+
+    /**
+     * @return the usage of the cache of findByCode()
+     */
+    public CacheStats getCacheStats() {
+        int size;
+        synchronized (coursesByCode) {
+            size = coursesByCode.size();
+        }
+        return new CacheStats("coursesByCode", size, hitCount.sum(), 0, missCount.sum(), 0, evictionCount.sum());
+    }
+
+    /**
+     * Load every course into the in-memory search index (replacing the previous one)
+     * If loading fails, the previous index (if any) is kept
+     */
+    public void loadSearchIndex() {
+        try {
+            long startTime = System.nanoTime();
+            CourseSearchIndex index = new CourseSearchIndex(query(FIND_ALL, CoursesRepository::mapDetails));
+            searchIndex = index;
+            logger.info("Loaded {} courses into the search index in {} ms", index.size(), (System.nanoTime() - startTime) / 1000000);
+        } catch (Exception e) {
+            logger.error("Could not load the course search index! Searches will query the database... {}", e.toString());
+        }
+    }
+
+    /**
+     * Search for courses by subject, number and/or title
+     * Uses the in-memory index, or the database if the index isn't loaded
+     * @param courseQuery the user input
+     * @param limit the maximum number of results
+     * @return the best matches, best first (only the subject, number and title are set if they come from the database)
+     * @throws SQLException if the index isn't loaded and the database query fails
+     */
+    public List<Course> searchCourses(String courseQuery, int limit) throws SQLException {
+        CourseSearchIndex index = searchIndex;
+        if (index != null) {
+            return index.search(courseQuery, limit);
+        }
+        //Search results only show the subject, number and title
+        return query(SEARCH, CoursesRepository::mapSummary, courseQuery, courseQuery, courseQuery, limit);
+    }
+
+    /**
+     * Find the course that best matches the subject, number and/or title
+     * Uses the in-memory index, or the database if the index isn't loaded
+     * @param courseQuery the user input
+     * @return the best match, or null if nothing matches
+     * @throws SQLException if the index isn't loaded and the database query fails
+     */
+    public Course findBestCourse(String courseQuery) throws SQLException {
+        CourseSearchIndex index = searchIndex;
+        if (index != null) {
+            return index.findBest(courseQuery);
+        }
+        List<Course> courses = query(FIND_BEST, CoursesRepository::mapDetails, courseQuery, courseQuery, courseQuery);
+        return courses.isEmpty() ? null : courses.get(0);
+    }
+
+    /**
+     * A cached result of findByCode()
+     * @param course the course, or null if it doesn't exist
+     * @param expiresAt when the entry stops being served (in System.nanoTime())
+     */
+    private record CachedCourse(Course course, long expiresAt) {
     }
 }
@@ -2,6 +2,9 @@ package buckythebadgerbot.listeners;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
 import buckythebadgerbot.data.Course;
+import buckythebadgerbot.data.database.repositories.impl.CoursesRepository;
+import buckythebadgerbot.utils.assets.GraphAssetService;
+import buckythebadgerbot.utils.metrics.Metrics;
 import buckythebadgerbot.utils.pagination.PaginationUtils;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
@@ -10,22 +13,18 @@ import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.components.ActionRow;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.interactions.components.buttons.ButtonStyle;
-import net.dv8tion.jda.api.interactions.components.selections.SelectOption;
 import net.dv8tion.jda.api.interactions.components.selections.StringSelectMenu;
 import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
-import net.dv8tion.jda.api.utils.FileUpload;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -37,8 +36,11 @@ public class ButtonListener extends ListenerAdapter {
     private final BuckyTheBadgerBot bot;
     private static final Logger logger = LoggerFactory.getLogger(ButtonListener.class);
 
-    //Scheduler to disable buttons after a set period of time
-    //public static final ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(20);
+    //How long a user has to wait before selecting the same option again
+    private static final Duration COOLDOWN = Duration.ofSeconds(30);
+
+    //How long generated buttons and select menus stay enabled
+    private static final Duration COMPONENT_LIFETIME = Duration.ofMinutes(10);
 
     public ButtonListener(BuckyTheBadgerBot bot) {
         this.bot = bot;
@@ -72,125 +74,136 @@ public class ButtonListener extends ListenerAdapter {
             }
             actionRows.add(ActionRow.of(buttonsRow));
         }
-        //After setting the message components to the newly generated ActionRows and executing it, call the method to disable the ActionRows (buttons) after 10 minutes
-        action.setComponents(actionRows).queue(interactionHook -> disableButtons(actionRows,interactionHook));
+        //After setting the message components to the newly generated ActionRows and executing it, disable the ActionRows (buttons) after 10 minutes
+        action.setComponents(actionRows).queue(interactionHook -> BuckyTheBadgerBot.componentExpiry.schedule(uuid, COMPONENT_LIFETIME,
+                () -> disableButtons(actionRows, interactionHook)));
     }
 
     /**
-     * Disable buttons after 10 minutes
+     * Disable buttons (called once they expire)
      * @param actionRows The ActionRows (buttons) to disable
      * @param hook the message hook pointing to the original message; this will be the message to disable the buttons from
      */
     public static void disableButtons(ArrayList<ActionRow> actionRows, InteractionHook hook) {
-        Runnable task = () -> {
-            List<ActionRow> newActionRows = actionRows.stream().map(ActionRow::asDisabled).collect(Collectors.toList());
-            hook.editOriginalComponents(newActionRows).queue();
-        };
-        BuckyTheBadgerBot.scheduledExecutor.schedule(task, 10, TimeUnit.MINUTES);
+        List<ActionRow> newActionRows = actionRows.stream().map(ActionRow::asDisabled).collect(Collectors.toList());
+        hook.editOriginalComponents(newActionRows).queue();
     }
 
     /**
      * Method to execute tasks based on the button clicked
      *
      * @param event the event of the button interaction
-     * NOTE: The entire method is a Runnable task, meaning it is a thread managed by the ExecutorService threadpool. This is to allow concurrent executions.
+     * NOTE: The entire method is a Runnable task on the "button" executor of the execution model. This is to allow concurrent executions.
      */
     @Override
     public void onButtonInteraction(@NotNull ButtonInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", ButtonListener.class.getSimpleName());
-
-            //Check what was pressed
-            //[0] User ID [1] UUID [2] Argument ID (E.g, pagination or courseSearch) [3] Argument Label (e.g, "next", Course to query for, Professor's Name)
-            String[] pressedArgs = event.getComponentId().split(":");
-            //Store the user ID of who pressed the button
-            String eventUserID = event.getUser().getId();
-
-            //For the search command - if the user didn't press the same button within 30 seconds, the task executes and the user gets added to the cooldown afterwards.
-            //Otherwise, they get a message saying to wait until 30 seconds has passed since the initial button press.
-            if (pressedArgs[2].equals("courseSearch")) {
-                if (!BuckyTheBadgerBot.coolDownChecker.containsKey(eventUserID + ":" + pressedArgs[1] + ":" + pressedArgs[3])
-                        || System.currentTimeMillis() > BuckyTheBadgerBot.coolDownChecker.get(eventUserID + ":" + pressedArgs[1] + ":" + pressedArgs[3]) + 30000) {
-                    long startTime = System.nanoTime();
-                    String courseQuery = pressedArgs[3];
-                    //E.g. COMP SCI-T300
-                    String[] courseQueryArgs = courseQuery.split("-T");
-                    String sqlQuery = "SELECT * FROM courses WHERE subject_abbrev = '" + courseQueryArgs[0] + "' AND number = '" + courseQueryArgs[1] + "';";
-                    try {
-                        List<Course> courses = bot.getDatabase().getRepository("courses").read(sqlQuery);
-                        Course result = courses.get(0);
-                        EmbedBuilder eb = new EmbedBuilder()
-                                .setTitle(result.getSubjectAbbrev() + " " + result.getNumber() + " — " +result.getTitle())
-                                .setColor(Color.RED)
-                                .addField("Cumulative GPA", result.getCumulativeGpa() != null ? result.getCumulativeGpa().toString() : "N/A", false)
-                                .addField("Credits", result.getCredits() != null ? result.getCredits() : "None", false)
-                                .addField("Requisites", result.getRequisites() != null ? result.getRequisites() : "None", false)
-                                .addField("Course Designation",result.getCourseDesignation() != null ? result.getCourseDesignation() : "None", false)
-                                .addField("Repeatable For Credit", result.getRepeatable() != null ? result.getRepeatable() : "None", false)
-                                .addField("Last Taught", result.getLastTaught() != null ? result.getLastTaught() : "None", false)
-                                .addField("Cross-listed Subjects", result.getCrosslistSubjects() != null ? result.getCrosslistSubjects() + " " + result.getNumber() : "None", false);
-                        if (result.getDescription() != null) {
-                            eb.setDescription(result.getDescription());
-                        }
-                        long endTime = System.nanoTime();
-                        long duration = (endTime - startTime) / 1000000;
-                        eb.setFooter("This took " + duration + " ms to respond.");
-                        event.replyEmbeds(eb.build()).queue();
-                        String graphImgName = result.getSubjectAbbrev().replaceAll(" ","_") + "-" + result.getNumber() + ".png";
-                        File gradeDistGraph = new File("./grade-dist-graphs" + File.separator + graphImgName);
-                        if (gradeDistGraph.exists()) {
-                            FileUpload uploadedGradeDistGraph = FileUpload.fromData(gradeDistGraph);
-                            eb.setImage("attachment://" + graphImgName);
-                            event.getHook().editOriginalEmbeds(eb.build()).setFiles(uploadedGradeDistGraph).queue();
+        //Record how long every route takes to respond, including the wait for a thread (see /metrics)
+        long receivedTime = System.nanoTime();
+        String[] componentArgs = event.getComponentId().split(":");
+        String route = componentArgs.length > 2 ? componentArgs[2] : "unknown";
+        try {
+            CompletableFuture.runAsync(() -> {
+                logger.info("Executing {}", ButtonListener.class.getSimpleName());
+
+                //Check what was pressed
+                //[0] User ID [1] UUID [2] Argument ID (E.g, pagination or courseSearch) [3] Argument Label (e.g, "next", Course to query for, Professor's Name)
+                String[] pressedArgs = event.getComponentId().split(":");
+                //Store the user ID of who pressed the button
+                String eventUserID = event.getUser().getId();
+
+                //Remember which message the buttons are on, so their expiry is cancelled if the message is deleted
+                BuckyTheBadgerBot.componentExpiry.bindMessage(event.getMessageIdLong(), pressedArgs[0] + ":" + pressedArgs[1]);
+
+                //For the search command - if the user didn't press the same button within 30 seconds, the user gets added to the cooldown and the task executes.
+                //Otherwise, they get a message saying to wait until 30 seconds has passed since the initial button press.
+                if (pressedArgs[2].equals("courseSearch")) {
+                    if (bot.cooldownTracker.tryAcquire(eventUserID, pressedArgs[1] + ":" + pressedArgs[3], COOLDOWN)) {
+                        long startTime = System.nanoTime();
+                        String courseQuery = pressedArgs[3];
+                        //E.g. COMP SCI-T300
+                        String[] courseQueryArgs = courseQuery.split("-T");
+                        try {
+                            Course result = bot.getDatabase().getRepository("courses", CoursesRepository.class)
+                                    .findByCode(courseQueryArgs[0], courseQueryArgs[1]);
+                            if (result == null) {
+                                event.reply("`" + event.getButton().getLabel() + "` no longer exists...").setEphemeral(true).queue();
+                                return;
+                            }
+                            EmbedBuilder eb = new EmbedBuilder()
+                                    .setTitle(result.getSubjectAbbrev() + " " + result.getNumber() + " — " +result.getTitle())
+                                    .setColor(Color.RED)
+                                    .addField("Cumulative GPA", result.getCumulativeGpa() != null ? result.getCumulativeGpa().toString() : "N/A", false)
+                                    .addField("Credits", result.getCredits() != null ? result.getCredits() : "None", false)
+                                    .addField("Requisites", result.getRequisites() != null ? result.getRequisites() : "None", false)
+                                    .addField("Course Designation",result.getCourseDesignation() != null ? result.getCourseDesignation() : "None", false)
+                                    .addField("Repeatable For Credit", result.getRepeatable() != null ? result.getRepeatable() : "None", false)
+                                    .addField("Last Taught", result.getLastTaught() != null ? result.getLastTaught() : "None", false)
+                                    .addField("Cross-listed Subjects", result.getCrosslistSubjects() != null ? result.getCrosslistSubjects() + " " + result.getNumber() : "None", false);
+                            if (result.getDescription() != null) {
+                                eb.setDescription(result.getDescription());
+                            }
+                            //Show the grade distribution graph right away if it was uploaded before, otherwise upload it once the details are shown
+                            GraphAssetService.Graph graph = BuckyTheBadgerBot.gradeGraphs.find(result.getSubjectAbbrev(), result.getNumber());
+                            String graphUrl = graph == null ? null : graph.getUrl();
+                            if (graphUrl != null) {
+                                eb.setImage(graphUrl);
+                                BuckyTheBadgerBot.gradeGraphs.recordReuse();
+                            }
+                            long endTime = System.nanoTime();
+                            long duration = (endTime - startTime) / 1000000;
+                            eb.setFooter("This took " + duration + " ms to respond.");
+                            event.replyEmbeds(eb.build()).queue();
+                            if (graph != null && graphUrl == null) {
+                                BuckyTheBadgerBot.gradeGraphs.upload(event.getHook(), eb, graph);
+                            }
+                        } catch (Exception e) {
+                            logger.error("Could not fetch courses! {}",e.toString());
+                            event.reply("An error has occurred. Unable to fetch courses...").queue();
                         }
-                    } catch (Exception e) {
-                        logger.error("Could not fetch courses! {}",e.toString());
-                        event.reply("An error has occurred. Unable to fetch courses...").queue();
+                    } else {
+                        event.reply("Stop spamming! You already selected `" + event.getButton().getLabel() + "` recently. Please wait 30 seconds...").setEphemeral(true).queue();
                     }
-                    //Adds the user and the button they pressed to the cooldown
-                    BuckyTheBadgerBot.coolDownChecker.put(eventUserID + ":" + pressedArgs[1] + ":" + pressedArgs[3], System.currentTimeMillis());
-                } else {
-                    event.reply("Stop spamming! You already selected `" + event.getButton().getLabel() + "` recently. Please wait 30 seconds...").setEphemeral(true).queue();
-                }
-                //Clean map of expired timestamps
-                //NOTE: Doing a while loop is faster than Collection.removeif by a few milliseconds since it only iterates through expired elements
-                Iterator<Map.Entry<String, Long>> iterator = BuckyTheBadgerBot.coolDownChecker.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, Long> entry = iterator.next();
-                    if (entry.getValue() + 30000 < System.currentTimeMillis()) {
-                        iterator.remove();
+                } else if (pressedArgs[2].equals("pagination")) {
+                    //Check if the user requested the original menu
+                    if (pressedArgs[0].equals(eventUserID)) {
+                        //Update the buttons according to the pressed arg
+                        PaginationUtils.updatePaginationButtons(pressedArgs[0] + ":" + pressedArgs[1], pressedArgs[3], event);
+                    } else {
+                        event.reply("You didn't request this!").setEphemeral(true).queue();
                     }
-                }
-            } else if (pressedArgs[2].equals("pagination")) {
-                //Check if the user requested the original menu
-                if (pressedArgs[0].equals(eventUserID)) {
-                    //Update the buttons according to the pressed arg
-                    PaginationUtils.updatePaginationButtons(pressedArgs[0] + ":" + pressedArgs[1], pressedArgs[3], event);
-                } else {
-                    event.reply("You didn't request this!").setEphemeral(true).queue();
-                }
-            } else if (pressedArgs[2].equals("studentRatings")) {
-                String uuid = pressedArgs[0] + ":" + pressedArgs[1];
-                if (pressedArgs[0].equals(eventUserID)) {
-                    List<SelectOption> selectOptions = StringSelectListener.StringSelectOptions.get(uuid);
-
-                    StringSelectMenu menu = StringSelectMenu.create(uuid + ":" + "studentRatings" + ":" + pressedArgs[3])
-                            .setPlaceholder("Select a course")
-                            .setRequiredRange(1, 1)
-                            .addOptions(selectOptions)
-                            .build();
-
-                    event.reply("Select a course you want to see student ratings for:").addActionRow(menu).queue(interactionHook
-                            -> {
-                        Runnable task = () -> interactionHook.editOriginalComponents(ActionRow.of(menu).asDisabled()).queue();
-                        BuckyTheBadgerBot.scheduledExecutor.schedule(task, 10, TimeUnit.MINUTES);
-                    });
-                    event.editButton(event.getButton().asDisabled()).queue();
+                } else if (pressedArgs[2].equals("studentRatings")) {
+                    String uuid = pressedArgs[0] + ":" + pressedArgs[1];
+                    if (pressedArgs[0].equals(eventUserID)) {
+                        StringSelectListener.StringSelectOptions selectOptions = BuckyTheBadgerBot.interactionStates
+                                .get(uuid + ":studentRatings", StringSelectListener.StringSelectOptions.class);
+                        if (selectOptions == null) {
+                            event.reply("This menu has expired! Please run the command again.").setEphemeral(true).queue();
+                            return;
+                        }
 
-                } else {
-                    event.reply("You didn't request this!").setEphemeral(true).queue();
+                        StringSelectMenu menu = StringSelectMenu.create(uuid + ":" + "studentRatings" + ":" + pressedArgs[3])
+                                .setPlaceholder("Select a course")
+                                .setRequiredRange(1, 1)
+                                .addOptions(selectOptions.options)
+                                .build();
+
+                        //The select menu takes over the select options, and releases them once it expires
+                        event.reply("Select a course you want to see student ratings for:").addActionRow(menu).queue(interactionHook
+                                -> BuckyTheBadgerBot.componentExpiry.schedule(uuid + ":select", COMPONENT_LIFETIME,
+                                () -> interactionHook.editOriginalComponents(ActionRow.of(menu).asDisabled()).queue(), uuid + ":studentRatings"));
+                        //The button is disabled right away, so it no longer needs to expire
+                        event.editButton(event.getButton().asDisabled()).queue();
+                        BuckyTheBadgerBot.componentExpiry.cancel(uuid);
+
+                    } else {
+                        event.reply("You didn't request this!").setEphemeral(true).queue();
+                    }
                 }
-            }
-        }, bot.service);
+            }, bot.executionModel.getExecutor("button"))
+                    .whenComplete((result, e) -> Metrics.componentLatency("button", route).recordSince(receivedTime));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejected {}! {}", ButtonListener.class.getSimpleName(), e.getMessage());
+            event.reply("The bot is too busy right now! Please try again in a moment...").setEphemeral(true).queue();
+        }
     }
 }
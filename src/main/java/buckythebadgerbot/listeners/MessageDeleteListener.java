@@ -0,0 +1,20 @@
+package buckythebadgerbot.listeners;
+
+import buckythebadgerbot.BuckyTheBadgerBot;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Listens for deleted messages, so the expiry of their components is cancelled and their interaction state released right away
+ * (and the URL of a grade distribution graph attached to them is no longer reused)
+ */
+public class MessageDeleteListener extends ListenerAdapter {
+
+    @Override
+    public void onMessageDelete(@NotNull MessageDeleteEvent event) {
+        //Only a map lookup, so it runs on the event pool directly
+        BuckyTheBadgerBot.componentExpiry.onMessageDeleted(event.getMessageIdLong());
+        BuckyTheBadgerBot.gradeGraphs.onMessageDeleted(event.getMessageIdLong());
+    }
+}
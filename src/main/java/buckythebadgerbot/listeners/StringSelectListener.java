@@ -1,20 +1,25 @@
 package buckythebadgerbot.listeners;
 
 import buckythebadgerbot.BuckyTheBadgerBot;
+import buckythebadgerbot.commands.Command;
 import buckythebadgerbot.commands.impl.uwmadison.ProfCommand;
-import buckythebadgerbot.data.StudentRating;
+import buckythebadgerbot.data.StudentRatingsPage;
+import buckythebadgerbot.utils.metrics.Metrics;
+import buckythebadgerbot.utils.pagination.PageSource;
 import buckythebadgerbot.utils.pagination.PaginationUtils;
-import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.components.selections.SelectOption;
 import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Listens for select option clicks (from the Select Menu) and handles them accordingly
@@ -24,16 +29,20 @@ public class StringSelectListener extends ListenerAdapter {
 
     private final BuckyTheBadgerBot bot;
 
-    public static final HashMap<String, List<SelectOption>> StringSelectOptions = new HashMap<>();
-
     private static final Logger logger = LoggerFactory.getLogger(StringSelectListener.class);
 
+    //How long a user has to wait before selecting the same option again
+    private static final Duration COOLDOWN = Duration.ofSeconds(30);
+
+    //How long the select options are kept (the button that shows them is disabled after 10 minutes)
+    private static final Duration OPTIONS_TTL = Duration.ofMinutes(11);
+
     public StringSelectListener(BuckyTheBadgerBot bot) {
         this.bot = bot;
     }
 
     /**
-     * Populate a list of SelectOptions and store it in the map
+     * Populate a list of SelectOptions and store it in the interaction state store
      * @param uuid the user ID + random UUID
      * @param argument the argument to differentiate select options
      * @param options a list of Strings to convert to a list of SelectOptions
@@ -41,72 +50,97 @@ public class StringSelectListener extends ListenerAdapter {
     public static void sendStringSelectOptions(String uuid, String argument, List<String> options) {
         if (options != null) {
             List<SelectOption> selectOptions = new ArrayList<>();
+            long bytes = PageSource.OVERHEAD_BYTES;
             for (String option : options) {
                 selectOptions.add(SelectOption.of(option, option + ":" + argument));
+                bytes += PageSource.OVERHEAD_BYTES + 2L * (2 * option.length() + argument.length() + 1);
             }
-            StringSelectOptions.put(uuid, selectOptions);
+            BuckyTheBadgerBot.interactionStates.put(uuid + ":studentRatings", new StringSelectOptions(selectOptions), bytes, OPTIONS_TTL);
         }
     }
 
     @Override
     public void onStringSelectInteraction(@NotNull StringSelectInteractionEvent event) {
-        CompletableFuture.runAsync(() -> {
-            logger.info("Executing {}", StringSelectListener.class.getSimpleName());
-
-            //[0] UserID [1] UUID [2] Argument ID (e.g, studentRatings) [3] Argument Label (e.g, professor's regular id)
-            String[] pressedArgs = event.getComponent().getId().split(":");
-
-            //Store the user ID of who triggered the select options
-            String eventUserID = event.getUser().getId();
-
-            if (pressedArgs[2].equals("studentRatings")) {
-                String uuid = pressedArgs[0] + ":" + pressedArgs[1];
-                //Check if the user requested the StringSelectInteractionMenu
-                if (pressedArgs[0].equals(eventUserID)) {
-                    String profRegularId = pressedArgs[3];
-                    //Label - Course | Value - Course:ProfName
-                    List<SelectOption> selectedOptions = event.getSelectedOptions();
-                    for (SelectOption option : selectedOptions) {
-                        String course = option.getValue().split(":")[0];
-                        //Check if the user didn't choose an option that's currently in cooldown
-                        if (!BuckyTheBadgerBot.coolDownChecker.containsKey(uuid + ":" + course + ":" + profRegularId)
-                                || System.currentTimeMillis() > BuckyTheBadgerBot.coolDownChecker.get(uuid + ":" + course + ":" + profRegularId) + 30000) {
-                            String profName = option.getValue().split(":")[1];
-                            long startTime = System.nanoTime();
-                            ArrayList<StudentRating> ratings = bot.rateMyProfessorClient.getStudentRatings(profRegularId, course);
-                            long endTime = System.nanoTime();
-                            long duration = (endTime - startTime) / 1000000;
-                            BuckyTheBadgerBot.coolDownChecker.put(uuid + ":" + course + ":" + profRegularId, System.currentTimeMillis());
-                            if (ratings == null) {
-                                event.reply("Could not find any student ratings for `" + course + "`!").queue();
-                                return;
-                            }
-                            ArrayList<MessageEmbed> studentRatingEmbeds = ProfCommand.buildMenu(ratings, profName, duration);
-                            ReplyCallbackAction action = event.replyEmbeds(studentRatingEmbeds.get(0));
-                            if (studentRatingEmbeds.size() > 1) {
-                                PaginationUtils.sendPaginatedMenu(eventUserID, action, studentRatingEmbeds);
-                                return;
+        try {
+            CompletableFuture.runAsync(() -> {
+                logger.info("Executing {}", StringSelectListener.class.getSimpleName());
+
+                //[0] UserID [1] UUID [2] Argument ID (e.g, studentRatings) [3] Argument Label (e.g, professor's regular id)
+                String[] pressedArgs = event.getComponent().getId().split(":");
+
+                //Store the user ID of who triggered the select options
+                String eventUserID = event.getUser().getId();
+
+                //Remember which message the select menu is on, so its expiry is cancelled if the message is deleted
+                BuckyTheBadgerBot.componentExpiry.bindMessage(event.getMessageIdLong(), pressedArgs[0] + ":" + pressedArgs[1] + ":select");
+
+                if (pressedArgs[2].equals("studentRatings")) {
+                    //Check if the user requested the StringSelectInteractionMenu
+                    if (pressedArgs[0].equals(eventUserID)) {
+                        String profRegularId = pressedArgs[3];
+                        //Label - Course | Value - Course:ProfName
+                        List<SelectOption> selectedOptions = event.getSelectedOptions();
+                        for (SelectOption option : selectedOptions) {
+                            String course = option.getValue().split(":")[0];
+                            //Check if the user didn't choose an option that's currently in cooldown
+                            if (bot.cooldownTracker.tryAcquire(eventUserID, pressedArgs[1] + ":" + course + ":" + profRegularId, COOLDOWN)) {
+                                String profName = option.getValue().split(":")[1];
+                                long startTime = System.nanoTime();
+                                //Chain the reply onto the HTTP request instead of waiting on it
+                                //Only the first few ratings are fetched before replying, the next ones are fetched as the user pages through them
+                                CompletableFuture<StudentRatingsPage> ratings = bot.rateMyProfessorClient.getStudentRatingsAsync(profRegularId, course, null);
+                                //Fetching the first page (with timeouts and retries) may take longer than Discord waits for the reply
+                                boolean deferred = Command.deferUnlessDone(event, ratings);
+                                ratings.handleAsync((firstPage, failure) -> {
+                                    long duration = Metrics.componentLatency("stringSelect", "studentRatings").recordSince(startTime) / 1000000;
+                                    if (failure != null) {
+                                        //RMP couldn't be reached, which doesn't tell if the course has ratings
+                                        Command.respond(event, deferred, "RateMyProfessors is unreachable right now, try again later!");
+                                        return null;
+                                    }
+                                    if (firstPage.getRatings().isEmpty()) {
+                                        Command.respond(event, deferred, "Could not find any student ratings for `" + course + "`!");
+                                        return null;
+                                    }
+                                    PageSource studentRatingPages = ProfCommand.buildMenu(firstPage,
+                                            cursor -> bot.rateMyProfessorClient.getStudentRatingsAsync(profRegularId, course, cursor), profName, duration);
+                                    if (studentRatingPages.size() > 1 && deferred) {
+                                        PaginationUtils.sendPaginatedMenu(eventUserID, event.getHook(), studentRatingPages);
+                                    } else if (studentRatingPages.size() > 1) {
+                                        ReplyCallbackAction action = event.replyEmbeds(studentRatingPages.render(0));
+                                        PaginationUtils.sendPaginatedMenu(eventUserID, action, studentRatingPages);
+                                    } else {
+                                        Command.respond(event, deferred, MessageCreateData.fromEmbeds(studentRatingPages.render(0)), hook -> {});
+                                    }
+                                    return null;
+                                }, bot.executionModel.getExecutor("stringSelect")).exceptionally(e -> {
+                                    logger.error("Could not reply to {}! {}", StringSelectListener.class.getSimpleName(), e.toString());
+                                    return null;
+                                });
+                            } else {
+                                event.reply("Stop spamming! You already selected `" + course + "` recently. Please wait 30 seconds...").setEphemeral(true).queue();
                             }
-                            action.queue();
-                        } else {
-                            event.reply("Stop spamming! You already selected `" + course + "` recently. Please wait 30 seconds...").setEphemeral(true).queue();
                         }
-                    }
-                } else {
-                    event.reply("You didn't request this!").setEphemeral(true).queue();
-                }
-                //Clean map of expired timestamps
-                //NOTE: Doing a while loop is faster than Collection.removeif by a few milliseconds since it only iterates through expired elements
-                logger.info("Cleaning cooldown checker...");
-                Iterator<Map.Entry<String, Long>> iterator = BuckyTheBadgerBot.coolDownChecker.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, Long> entry = iterator.next();
-                    if (entry.getValue() + 30000 < System.currentTimeMillis()) {
-                        iterator.remove();
+                    } else {
+                        event.reply("You didn't request this!").setEphemeral(true).queue();
                     }
                 }
-            }
 
-        }, bot.service);
+            }, bot.executionModel.getExecutor("stringSelect"));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejected {}! {}", StringSelectListener.class.getSimpleName(), e.getMessage());
+            event.reply("The bot is too busy right now! Please try again in a moment...").setEphemeral(true).queue();
+        }
+    }
+
+    /**
+     * The select options of a professor's courses, kept until the user picks one
+     */
+    public static class StringSelectOptions {
+        public final List<SelectOption> options;
+
+        public StringSelectOptions(List<SelectOption> options) {
+            this.options = List.copyOf(options);
+        }
     }
 }
@@ -1,13 +1,248 @@
 package buckythebadgerbot.services;
 
+import buckythebadgerbot.utils.http.DecodingBodyHandler;
+import buckythebadgerbot.utils.metrics.Metrics;
+import buckythebadgerbot.utils.resilience.AdaptiveTimeout;
+import buckythebadgerbot.utils.resilience.CircuitBreaker;
+import buckythebadgerbot.utils.resilience.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Base of the clients of the upstream APIs, with one HTTP client (and connection pool) per service, i.e, per upstream host
+ * - Requests are made over HTTP/2 when the host supports it (HTTPS), so concurrent requests share one connection
+ * - Every request asks for a gzip or deflate body, which is decompressed as it arrives (see DecodingBodyHandler)
+ * - Every service has its own connect and request timeouts, and can connect ahead of its first request (see preconnect())
+ * Requests are guarded against a slow or failing upstream:
+ * - The request timeout adapts to the recent latency of the host, up to the timeout of the service (see AdaptiveTimeout)
+ * - Failed requests (connection errors, timeouts, 5xx and 429 responses) are retried a few times after a random backoff
+ * - Every host has a circuit breaker, so requests fail fast (with a CircuitOpenException) while it keeps failing (see CircuitBreaker)
+ */
 public abstract class APIService {
+    private static final Logger logger = LoggerFactory.getLogger(APIService.class);
+
+    //Defaults of the services that don't set their own timeouts
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    //The shortest request timeout, however fast the upstream recently was
+    private static final Duration MIN_REQUEST_TIMEOUT = Duration.ofSeconds(1);
+
+    //How many times a failed request is retried, and the bounds of the backoff (a random delay up to base * 2^retry, "full jitter")
+    private static final int MAX_RETRIES = 2;
+    private static final Duration RETRY_BASE_DELAY = Duration.ofMillis(100);
+    private static final Duration RETRY_MAX_DELAY = Duration.ofSeconds(1);
+
+    //Map to store the circuit breaker of every upstream host, shared by the services calling it
+    private static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
     protected final String apiKey;
     protected final HttpClient httpClient;
 
-    public APIService(String apiKey) {
+    //The origin of the upstream (e.g, https://www.ratemyprofessors.com/), or null if unknown
+    private final URI origin;
+    private final Duration requestTimeout;
+
+    //Map to store the request timeout of every host the service calls
+    private final Map<String, AdaptiveTimeout> timeouts = new ConcurrentHashMap<>();
+
+    //The executor retries are scheduled on
+    private final Executor executor;
+
+    /**
+     * @param apiKey the API key of the service (null if not needed)
+     * @param executor the executor the HTTP client completes its futures on (see ExecutionModel.getCallbackPool())
+     */
+    public APIService(String apiKey, Executor executor) {
+        this(apiKey, executor, null, CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param apiKey the API key of the service (null if not needed)
+     * @param executor the executor the HTTP client completes its futures on (see ExecutionModel.getCallbackPool())
+     * @param baseUrl the base URL of the upstream, to connect to ahead of the first request (null if unknown)
+     * @param connectTimeout how long connecting to the upstream can take
+     * @param requestTimeout how long a request can take until its headers arrive at most, unless the request sets its own timeout
+     */
+    public APIService(String apiKey, Executor executor, String baseUrl, Duration connectTimeout, Duration requestTimeout) {
         this.apiKey = apiKey;
-        this.httpClient = HttpClient.newHttpClient();
+        this.origin = baseUrl == null ? null : URI.create(baseUrl).resolve("/");
+        this.requestTimeout = requestTimeout;
+        this.executor = executor;
+        this.httpClient = HttpClient.newBuilder()
+                .executor(executor)
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    /**
+     * Send a request without blocking the calling thread
+     * The request is retried if it fails, unless the circuit breaker of its host opened in the meantime
+     * @param request the request to send (it must be safe to send again, which every read of the upstream APIs is)
+     * @return a future completed with the raw (decompressed) bytes of the response body once they have all arrived,
+     * or completed exceptionally (with a CircuitOpenException if the request wasn't sent)
+     */
+    protected CompletableFuture<byte[]> sendAsync(HttpRequest request) {
+        return sendAsync(request, 0);
+    }
+
+    /**
+     * Send a request, retrying it after a random backoff if it fails
+     * @param request the request to send
+     * @param retries how many times the request was retried already
+     * @return a future completed with the raw bytes of the response body
+     */
+    private CompletableFuture<byte[]> sendAsync(HttpRequest request, int retries) {
+        String host = request.uri().getHost();
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(host, breaker.getRemainingOpenDuration()));
+        }
+        CompletableFuture<byte[]> attempt = send(request, host).whenComplete((body, e) -> {
+            if (e == null) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+        });
+        if (retries >= MAX_RETRIES) {
+            return attempt;
+        }
+        return attempt.handle((body, e) -> {
+            //Only failures of the upstream are worth retrying (not e.g, a body that couldn't be decoded)
+            if (e == null || !(unwrap(e) instanceof IOException) || breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return attempt;
+            }
+            Metrics.registry.counter("bucky_upstream_retries_total", "HTTP requests to an upstream service sent again after failing.", "host", host).increment();
+            long backoff = Math.min(RETRY_MAX_DELAY.toMillis(), RETRY_BASE_DELAY.toMillis() << retries);
+            Executor delayed = CompletableFuture.delayedExecutor(ThreadLocalRandom.current().nextLong(backoff + 1), TimeUnit.MILLISECONDS, executor);
+            return CompletableFuture.supplyAsync(() -> sendAsync(request, retries + 1), delayed).thenCompose(retry -> retry);
+        }).thenCompose(result -> result);
+    }
+
+    /**
+     * Send a request once
+     * The latency (until the headers, and until the whole body), the size and the failures of every request are recorded per host (see /metrics)
+     * @param request the request to send
+     * @param host the host of the request
+     * @return a future completed with the raw bytes of the response body, or completed exceptionally if it failed or the upstream answered with a 5xx or 429
+     */
+    private CompletableFuture<byte[]> send(HttpRequest request, String host) {
+        long startTime = System.nanoTime();
+        AtomicLong headersTime = new AtomicLong();
+        LongAdder wireBytes = Metrics.registry.counter("bucky_upstream_received_bytes_total", "Bytes of upstream response bodies, as received (compressed or not).", "host", host);
+        return this.httpClient.sendAsync(prepare(request), new DecodingBodyHandler(headersTime::set, wireBytes::add))
+                .whenComplete((response, e) -> {
+                    Metrics.upstreamLatency(host).recordSince(startTime);
+                    if (headersTime.get() != 0) {
+                        Metrics.upstreamHeadersLatency(host).record(headersTime.get() - startTime);
+                    } else if (e != null && unwrap(e) instanceof HttpTimeoutException) {
+                        //A timed out request took at least the timeout, which raises the timeout of the next ones if it keeps happening
+                        Metrics.upstreamHeadersLatency(host).recordSince(startTime);
+                    }
+                    if (e != null || isUpstreamFailure(response.statusCode())) {
+                        Metrics.registry.counter("bucky_upstream_errors_total", "HTTP requests to an upstream service that failed.", "host", host).increment();
+                    }
+                    if (e == null) {
+                        Metrics.registry.counter("bucky_upstream_decoded_bytes_total", "Bytes of upstream response bodies, once decompressed.", "host", host).add(response.body().length);
+                    }
+                })
+                .thenApply(response -> {
+                    if (isUpstreamFailure(response.statusCode())) {
+                        throw new CompletionException(new IOException("HTTP " + response.statusCode() + " from " + host));
+                    }
+                    return response.body();
+                });
+    }
+
+    /**
+     * Connect to the upstream ahead of the first request, so it doesn't wait for the TCP and TLS handshakes
+     * The connection stays in the pool of the HTTP client (and with HTTP/2, every later request shares it)
+     * @return a future completed once the upstream answered (or failed to, which is only logged)
+     */
+    public CompletableFuture<Void> preconnect() {
+        if (origin == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        HttpRequest request = prepare(HttpRequest.newBuilder(origin).method("HEAD", HttpRequest.BodyPublishers.noBody()).build());
+        long startTime = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, e) -> {
+                    if (e != null) {
+                        logger.warn("Could not connect to {} ahead of time! {}", origin, unwrap(e).toString());
+                    } else {
+                        logger.info("Connected to {} over {} in {} ms", origin, response.version(), (System.nanoTime() - startTime) / 1000000);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Add what every request of the transport needs
+     * @param request the request of a service
+     * @return the request, accepting compressed bodies and with the (adaptive) timeout of its host (unless it has its own)
+     */
+    private HttpRequest prepare(HttpRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request, (name, value) -> true);
+        if (request.headers().firstValue("Accept-Encoding").isEmpty()) {
+            builder.header("Accept-Encoding", DecodingBodyHandler.ACCEPT_ENCODING);
+        }
+        if (request.timeout().isEmpty()) {
+            String host = request.uri().getHost();
+            builder.timeout(timeouts.computeIfAbsent(host, key ->
+                    new AdaptiveTimeout(Metrics.upstreamHeadersLatency(key), MIN_REQUEST_TIMEOUT, requestTimeout)).get());
+        }
+        //HTTP/2 is only negotiated over TLS, plain HTTP (e.g, local stand-ins) isn't worth an upgrade round trip
+        if ("http".equalsIgnoreCase(request.uri().getScheme())) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get the circuit breaker of an upstream host
+     * @param host the host (e.g, "www.ratemyprofessors.com")
+     * @return the circuit breaker, created on first use
+     */
+    public static CircuitBreaker getCircuitBreaker(String host) {
+        return circuitBreakers.computeIfAbsent(host, CircuitBreaker::new);
+    }
+
+    /**
+     * @param statusCode the status of a response
+     * @return true if the upstream failed to answer (a server error, or it is throttling the bot), false otherwise
+     */
+    private static boolean isUpstreamFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    /**
+     * Get the actual cause of a failed future (which wraps it in a CompletionException)
+     * @param throwable the throwable the future completed with
+     * @return the underlying cause
+     */
+    protected static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
     }
 }
@@ -1,120 +1,359 @@
 package buckythebadgerbot.services.impl;
 
-import buckythebadgerbot.commands.impl.uwmadison.SearchCommand;
 import buckythebadgerbot.services.APIService;
-import com.fasterxml.jackson.core.type.TypeReference;
+import buckythebadgerbot.utils.concurrent.SingleFlight;
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DiningMenuService extends APIService {
     private static final String BASE_URL = "https://wisc-housingdining.api.nutrislice.com/menu/api/weeks/school/";
 
     private static final Logger logger = LoggerFactory.getLogger(DiningMenuService.class);
 
-    public DiningMenuService() {
-        super(null);
+    //A week of menus is a large response, and most are fetched by the prefetcher rather than while a user waits
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+
+    //The timezone every menu is set in
+    private static final ZoneId CENTRAL = ZoneId.of("US/Central");
+
+    //Every dining market and menu type the prefetcher warms up
+    public static final List<String> DINING_MARKETS = List.of("rhetas-market", "gordon-avenue-market", "lowell-market",
+            "lizs-market", "carsons-market", "four-lakes-market");
+    public static final List<String> MENU_TYPES = List.of("breakfast", "lunch", "dinner", "lowell-dining-daily");
+
+    //How long a cached week is served before it is fetched again (the prefetcher normally refreshes it before then)
+    private static final Duration WEEK_TTL = Duration.ofHours(12);
+
+    //When the prefetcher runs every day (US Central Time)
+    private static final LocalTime PREFETCH_TIME = LocalTime.of(0, 5);
+
+    //Map to store the parsed week of every menu
+    //Follows the format {"market/menuType/weekStart"=week}
+    private final Map<String, DiningWeek> weeks = new ConcurrentHashMap<>();
+
+    //The fetch in progress of every week (keyed like the weeks), so concurrent lookups and the prefetcher share one request
+    private final SingleFlight<String, DiningWeek> weekFetches = new SingleFlight<>("diningWeeks");
+
+    //The base URL of the API (the benchmarks point it at a local stand-in serving recorded responses)
+    private final String baseUrl;
+
+    public DiningMenuService(Executor executor) {
+        this(BASE_URL, executor);
+    }
+
+    /**
+     * @param baseUrl the base URL of the API (null for nutrislice)
+     * @param executor the executor the HTTP client completes its futures on
+     */
+    public DiningMenuService(String baseUrl, Executor executor) {
+        super(null, executor, Objects.requireNonNullElse(baseUrl, BASE_URL), CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+        this.baseUrl = Objects.requireNonNullElse(baseUrl, BASE_URL);
     }
 
     /**
-     * Fetch a menu containing the food items of every food station at the passed in dining market
+     * Check if a dining market serves a menu type
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @return false for the daily menu of every market except Four Lakes and Gordon Avenue
+     */
+    public static boolean isOffered(String diningMarket, String menuType) {
+        return !menuType.equals("lowell-dining-daily")
+                || diningMarket.equals("four-lakes-market") || diningMarket.equals("gordon-avenue-market");
+    }
+
+    /**
+     * @return today's date in US Central Time
+     */
+    public static LocalDate today() {
+        return LocalDate.now(CENTRAL);
+    }
+
+    /**
+     * Fetch today's menu containing the food items of every food station at the passed in dining market
      * @param diningMarket the dining market to fetch the menu from
      * @param menuType the type of menu (Breakfast, Lunch, or Dinner)
-     * @return HashMap containing every food station and its sub-categories matching with all food items in the sub-category
+     * @return Map containing every food station and its sub-categories matching with all food items in the sub-category
      */
-    public HashMap<String,String> getDiningMenu(String diningMarket, String menuType){
-        //Get the current date in CST
-        String date = "\"" + LocalDate.now(TimeZone.getTimeZone("US/Central").toZoneId()) + "\"";
+    public Map<String,String> getDiningMenu(String diningMarket, String menuType){
+        return getDiningMenuAsync(diningMarket, menuType).join();
+    }
+
+    /**
+     * Fetch today's menu without blocking the calling thread
+     * @param diningMarket the dining market to fetch the menu from
+     * @param menuType the type of menu (Breakfast, Lunch, or Dinner)
+     * @return a future completed with the stations of the menu (see getDiningMenuAsync(String, String, LocalDate))
+     */
+    public CompletableFuture<Map<String,String>> getDiningMenuAsync(String diningMarket, String menuType){
+        return getDiningMenuAsync(diningMarket, menuType, today());
+    }
+
+    /**
+     * Fetch the menu of a date without blocking the calling thread
+     * The menu is served from the cached week of the date, which is only fetched if it is missing or expired
+     * @param diningMarket the dining market to fetch the menu from
+     * @param menuType the type of menu (Breakfast, Lunch, or Dinner)
+     * @param date the date of the menu
+     * @return a future completed with the (read-only) stations of the menu, an empty map if the menu isn't offered on the date,
+     * or null if the request or parsing failed
+     */
+    public CompletableFuture<Map<String,String>> getDiningMenuAsync(String diningMarket, String menuType, LocalDate date){
+        return getWeek(diningMarket, menuType, weekStart(date))
+                .thenApply(week -> week == null ? null : week.days.getOrDefault(date, Collections.emptyMap()));
+    }
+
+    /**
+     * Tell if the menu of a date is served past its time to live, because its week couldn't be fetched again (e.g, the API is down)
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @param date the date of the menu
+     * @return when the week of the date was fetched if it is expired, or null if it is fresh (or not cached)
+     */
+    public Instant getDataAsOf(String diningMarket, String menuType, LocalDate date) {
+        DiningWeek week = weeks.get(diningMarket + "/" + menuType + "/" + weekStart(date));
+        return week != null && week.isExpired() ? week.fetchedAt : null;
+    }
+
+    /**
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @param date the date of the menu
+     * @return when the cached week of the date was fetched, or null if it isn't cached
+     */
+    public Instant getFetchedAt(String diningMarket, String menuType, LocalDate date) {
+        DiningWeek week = weeks.get(diningMarket + "/" + menuType + "/" + weekStart(date));
+        return week == null ? null : week.fetchedAt;
+    }
+
+    /**
+     * Get a week from the cache, or fetch it if it is missing or expired
+     * Concurrent lookups of the same week share one request
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @param weekStart the first day (Sunday) of the week
+     * @return a future completed with the week (the expired one if it couldn't be fetched again), or null if the request or parsing failed
+     */
+    private CompletableFuture<DiningWeek> getWeek(String diningMarket, String menuType, LocalDate weekStart) {
+        String key = diningMarket + "/" + menuType + "/" + weekStart;
+        DiningWeek cached = weeks.get(key);
+        if (cached != null && !cached.isExpired()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<DiningWeek> loaded = loadWeek(diningMarket, menuType, weekStart);
+        if (cached == null) {
+            return loaded;
+        }
+        //The expired week is still better than nothing while the API is down
+        return loaded.thenApply(week -> week != null ? week : cached);
+    }
 
-        //Call the API
+    /**
+     * Fetch a week and cache it, or join the fetch in progress of the same week
+     * NOTE: Failed requests aren't cached, so the next lookup tries again (and an expired week is kept until it is replaced)
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @param weekStart the first day (Sunday) of the week
+     * @return a future completed with the week, or null if the request or parsing failed
+     */
+    private CompletableFuture<DiningWeek> loadWeek(String diningMarket, String menuType, LocalDate weekStart) {
+        String key = diningMarket + "/" + menuType + "/" + weekStart;
+        return weekFetches.execute(key, () -> fetchWeek(diningMarket, menuType, weekStart).thenApply(week -> {
+            if (week != null) {
+                weeks.put(key, week);
+            }
+            return week;
+        }));
+    }
+
+    /**
+     * Call the API for a week of menus
+     * @param diningMarket the dining market
+     * @param menuType the type of menu
+     * @param weekStart the first day (Sunday) of the week
+     * @return a future completed with the parsed week, or null if the request or parsing failed
+     */
+    CompletableFuture<DiningWeek> fetchWeek(String diningMarket, String menuType, LocalDate weekStart) {
         HttpRequest request = HttpRequest.newBuilder()
                 .GET()
-                .uri(URI.create(BASE_URL + diningMarket + "/menu-type/" + menuType + "/"
-                        + date.replaceAll("-", "/").replaceAll("\"", "") + "/"))
+                .uri(URI.create(baseUrl + diningMarket + "/menu-type/" + menuType + "/"
+                        + weekStart.format(DateTimeFormatter.ofPattern("uuuu/MM/dd")) + "/"))
                 .build();
-        HttpResponse<String> response;
-        ObjectMapper objectMapper;
-        JsonNode jsonNode;
-        try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper = new ObjectMapper();
-            jsonNode = objectMapper.readTree(response.body());
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
-            return null;
+        return sendAsync(request)
+                .thenApply(body -> parseWeek(body, request.uri()))
+                .exceptionally(e -> {
+                    logger.error("Something went wrong with the API request! {}",unwrap(e).toString());
+                    logger.error("Request URL: {}",request.uri());
+                    return null;
+                });
+    }
+
+    /**
+     * Schedule the prefetcher to refresh the current week of every menu shortly after midnight (US Central Time)
+     * @param scheduler the scheduler to run the prefetcher on
+     */
+    public void startPrefetcher(ScheduledExecutorService scheduler) {
+        ZonedDateTime now = ZonedDateTime.now(CENTRAL);
+        ZonedDateTime nextRun = now.toLocalDate().atTime(PREFETCH_TIME).atZone(CENTRAL);
+        if (!nextRun.isAfter(now)) {
+            nextRun = now.toLocalDate().plusDays(1).atTime(PREFETCH_TIME).atZone(CENTRAL);
         }
+        //Schedule one run at a time, so the next run is always computed with the current UTC offset (DST)
+        scheduler.schedule(() -> {
+            prefetch().whenComplete((result, e) -> startPrefetcher(scheduler));
+        }, Duration.between(now, nextRun).toMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Scheduled the dining menu prefetcher for {}", nextRun);
+    }
+
+    /**
+     * Refresh the current week of every offered menu and drop the weeks that are over
+     * The menus are fetched one after another to be gentle on the API
+     * NOTE: A week is only replaced once its refresh succeeds, so a failed refresh keeps serving the old week
+     * @return a future completed once every menu has been refreshed
+     */
+    public CompletableFuture<Void> prefetch() {
+        LocalDate weekStart = weekStart(today());
+        weeks.keySet().removeIf(key -> LocalDate.parse(key.substring(key.lastIndexOf('/') + 1)).isBefore(weekStart));
 
-        try {
-            ArrayNode days = jsonNode.withArray("days");
-            JsonNode day = null;
-            //Iterate through every day until it reaches the specified date
-            for (JsonNode dayOfWeek : days) {
-                if (dayOfWeek.get("date").toString().equals(date)) {
-                    day = dayOfWeek;
-                    break;
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (String diningMarket : DINING_MARKETS) {
+            for (String menuType : MENU_TYPES) {
+                if (!isOffered(diningMarket, menuType)) {
+                    continue;
                 }
+                chain = chain.thenCompose(v -> loadWeek(diningMarket, menuType, weekStart).thenAccept(week -> {}));
             }
+        }
+        return chain.thenRun(() -> logger.info("Prefetched the dining menus of the week of {} ({} weeks cached)",
+                weekStart, weeks.size()));
+    }
 
-            if (day == null) {
-                System.out.println("day is null");
+    /**
+     * Get the week a date belongs to
+     * NOTE: Nutrislice weeks run from Sunday to Saturday (not Monday to Sunday like ISO weeks), so the cache follows the API
+     * @param date the date
+     * @return the Sunday on or before the date
+     */
+    private static LocalDate weekStart(LocalDate date) {
+        return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+    }
+
+    /**
+     * Parse the menu of every day of the week returned by the API
+     * @param body the raw bytes of the response body
+     * @param uri the request URL, for logging
+     * @return the parsed week, or null if parsing failed
+     */
+    DiningWeek parseWeek(byte[] body, URI uri) {
+        Map<LocalDate, Map<String, String>> days = new HashMap<>();
+        //Stream through the days of the week and parse them one at a time
+        try (JsonParser parser = JsonUtils.createParser(body)) {
+            if (JsonUtils.seek(parser, "days") && parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    JsonNode day = parser.readValueAsTree();
+                    LocalDate date = LocalDate.parse(day.path("date").asText());
+                    days.put(date, Collections.unmodifiableMap(parseDay(day)));
+                }
             }
+        } catch (Exception e) {
+            logger.error("Something went wrong with JSON parsing! {}",e.toString());
+            logger.error("Request URL: {}",uri);
+            return null;
+        }
+        return new DiningWeek(days);
+    }
+
+    /**
+     * Parse the menu of a single day
+     * @param day the tree of the day
+     * @return the stations of the menu, in the format {stationID-0stationName-0foodCategory = String containing all the items in the station and its category}
+     */
+    private LinkedHashMap<String,String> parseDay(JsonNode day) {
+        //LinkedHashMap in the format of {stationID-0stationName-0foodCategory = String containing all the items in the station and its category
+        LinkedHashMap<String, String> stations = new LinkedHashMap<>();
 
-            //LinkedHashMap in the format of {stationID-0stationName-0foodCategory = String containing all the items in the station and its category
-            LinkedHashMap<String, String> stations = new LinkedHashMap<>();
+        //HashMap to retrieve the stationID-0stationName-0foodCategory key from above HashMap by getting the station ID alone
+        HashMap<String, String> stationsKey = new HashMap<>();
 
-            //HashMap to retrieve the stationID-0stationName-0foodCategory key from above HashMap by getting the station ID alone
-            HashMap<String, String> stationsKey = new HashMap<>();
+        //Iterate through every station and store its ID and name into the HashMap
+        Iterator<Map.Entry<String, JsonNode>> menuInfo = day.path("menu_info").fields();
+        while (menuInfo.hasNext()) {
+            Map.Entry<String, JsonNode> entry = menuInfo.next();
+            String stationID = entry.getKey();
+            String stationName = entry.getValue().get("section_options").get("display_name").asText();
+            stationsKey.put(stationID, stationID + "-0" + stationName);
+        }
 
-            //Iterate through every station and store its ID and name into the HashMap
-            Map<String, JsonNode> menuInfo = objectMapper.convertValue(day.get("menu_info"), new TypeReference<>() {});
-            for (Map.Entry<String, JsonNode> entry : menuInfo.entrySet()) {
-                String stationID = entry.getKey();
-                String stationName = entry.getValue().get("section_options").get("display_name").asText();
-                stationsKey.put(stationID, stationID + "-0" + stationName);
-            }
+        ArrayNode menuItems = day.withArray("menu_items");
+        JsonNode food;
+        //Iterate through every food item and obtain the following information:
+        //Food Station ID, Food Name, Food Category, Food Calories,
+        for (JsonNode menuItem : menuItems) {
+            if (!menuItem.get("food").isNull()) {
+                food = menuItem.get("food");
+                String stationID = menuItem.get("menu_id").asText();
+                stations.putIfAbsent(stationsKey.get(stationID) + "-0" + "Entree", null);
+                stations.putIfAbsent(stationsKey.get(stationID) + "-0" + "Side", null);
+                String foodName = food.get("name").asText();
+                String foodCategory = food.get("food_category").asText().isBlank() ? "Unknown" : food.get("food_category").asText();
+                foodCategory = foodCategory.substring(0, 1).toUpperCase() + foodCategory.substring(1);
+                String key = stationsKey.get(stationID) + "-0" + foodCategory;
+                String calories = food.get("rounded_nutrition_info").get("calories").asText().replace(".0", "").replace("null", "N/A");
 
-            ArrayNode menuItems = day.withArray("menu_items");
-            JsonNode food;
-            //Iterate through every food item and obtain the following information:
-            //Food Station ID, Food Name, Food Category, Food Calories,
-            for (JsonNode menuItem : menuItems) {
-                if (!menuItem.get("food").isNull()) {
-                    food = menuItem.get("food");
-                    String stationID = menuItem.get("menu_id").asText();
-                    stations.putIfAbsent(stationsKey.get(stationID) + "-0" + "Entree", null);
-                    stations.putIfAbsent(stationsKey.get(stationID) + "-0" + "Side", null);
-                    String foodName = food.get("name").asText();
-                    String foodCategory = food.get("food_category").asText().isBlank() ? "Unknown" : food.get("food_category").asText();
-                    foodCategory = foodCategory.substring(0, 1).toUpperCase() + foodCategory.substring(1);
-                    String key = stationsKey.get(stationID) + "-0" + foodCategory;
-                    String calories = food.get("rounded_nutrition_info").get("calories").asText().replace(".0", "").replace("null", "N/A");
-
-                    //{stationID-0stationName-0foodCategory = String containing all the items in the station and its category
-                    if (stations.get(key) == null){
-                        stations.put(key,"\n" + "\u25B6 **" +  foodName + "**"  + "\n" + calories + " Cal");
-                    } else {
-                        stations.put(key,stations.get(key) + "\n" + "\u25B6 **" +  foodName + "**"  + "\n" + calories + " Cal");
-                    }
+                //{stationID-0stationName-0foodCategory = String containing all the items in the station and its category
+                if (stations.get(key) == null){
+                    stations.put(key,"\n" + "\u25B6 **" +  foodName + "**"  + "\n" + calories + " Cal");
+                } else {
+                    stations.put(key,stations.get(key) + "\n" + "\u25B6 **" +  foodName + "**"  + "\n" + calories + " Cal");
                 }
             }
-            return stations;
-            //Catch any null pointer exceptions and return a null hashmap
-        } catch (Exception e) {
-            logger.error("Something went wrong with JSON parsing! {}",e.toString());
-            return null;
+        }
+        return stations;
+    }
+
+    /**
+     * The parsed menus of a week
+     */
+    static class DiningWeek {
+        private final Map<LocalDate, Map<String, String>> days;
+        private final Instant fetchedAt;
+
+        private DiningWeek(Map<LocalDate, Map<String, String>> days) {
+            this.days = days;
+            this.fetchedAt = Instant.now();
+        }
+
+        private boolean isExpired() {
+            return fetchedAt.plus(WEEK_TTL).isBefore(Instant.now());
         }
     }
 
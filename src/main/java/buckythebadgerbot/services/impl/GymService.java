@@ -1,9 +1,12 @@
 package buckythebadgerbot.services.impl;
 
+import buckythebadgerbot.data.GymLocation;
+import buckythebadgerbot.data.GymSnapshot;
 import buckythebadgerbot.services.APIService;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import buckythebadgerbot.utils.concurrent.SingleFlight;
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,81 +14,188 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
-import java.time.ZoneId;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class GymService extends APIService {
     private static final String BASE_URL = "https://goboardapi.azurewebsites.net/api/FacilityCount/GetCountsByAccount?AccountAPIKey=";
 
     private static final Logger logger = LoggerFactory.getLogger(GymService.class);
 
-    //The standard timestamp format
-    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    //The poller tries again soon anyway, so a slow poll is given up on quickly
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
 
-    public GymService(String apiKey) {
-        super(apiKey);
+    private static final ObjectReader locationReader = JsonUtils.readerFor(GymLocation.class);
+
+    //The main facilities, in the order they are displayed
+    private static final List<String> FACILITIES = List.of("Nicholas Recreation Center", "Bakke Recreation & Wellbeing Center ");
+
+    //The latest snapshot published by the poller (null until the first successful poll)
+    private final AtomicReference<GymSnapshot> snapshot = new AtomicReference<>();
+
+    //The poll in progress (if any), so lookups without a snapshot share it instead of calling the API again
+    private final SingleFlight<String, GymSnapshot> polls = new SingleFlight<>("gymUsages");
+
+    //Notified with every new snapshot (e.g, to pre-build the embeds of /gym)
+    private final List<Consumer<GymSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    //The base URL of the API, followed by the API key
+    private final String baseUrl;
+
+    public GymService(String apiKey, Executor executor) {
+        this(BASE_URL, apiKey, executor);
     }
 
     /**
-     * Fetch live usage of every gym facility/location
-     * @return An ArrayList of HashMaps for every main facility
+     * @param baseUrl the base URL of the API, the API key is appended to it (null for goboardapi)
+     * @param apiKey the API key of the account
+     * @param executor the executor the HTTP client completes its futures on
      */
-    public ArrayList<HashMap<String, String>> getGymUsages() {
-        HttpRequest request = HttpRequest.newBuilder().GET().timeout(Duration.ofSeconds(5)).uri(URI.create(BASE_URL+this.apiKey)).build();
-        HttpResponse<String> response;
-        ObjectMapper objectMapper;
-        List<JsonNode> gymEquipments;
-        try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper = new ObjectMapper();
-            gymEquipments = objectMapper.readValue(response.body(), new TypeReference<>() {});
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
+    public GymService(String baseUrl, String apiKey, Executor executor) {
+        super(apiKey, executor, Objects.requireNonNullElse(baseUrl, BASE_URL), CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+        this.baseUrl = Objects.requireNonNullElse(baseUrl, BASE_URL);
+    }
+
+    /**
+     * Get the latest live usage of every gym facility/location
+     * @return the latest snapshot, or null if none has been fetched yet
+     */
+    public GymSnapshot getGymUsages() {
+        return snapshot.get();
+    }
+
+    /**
+     * Get the latest live usage of every gym facility/location without blocking the calling thread
+     * Only calls the API if the poller hasn't published a snapshot yet
+     * @return a future completed with the latest snapshot, or null if the request or parsing failed
+     */
+    public CompletableFuture<GymSnapshot> getGymUsagesAsync() {
+        GymSnapshot current = snapshot.get();
+        if (current != null) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return refresh();
+    }
+
+    /**
+     * Register a listener for new snapshots
+     * The listener is called right away with the latest snapshot (if any), then on the thread of every successful poll
+     * @param listener the listener
+     */
+    public void addListener(Consumer<GymSnapshot> listener) {
+        listeners.add(listener);
+        GymSnapshot current = snapshot.get();
+        if (current != null) {
+            listener.accept(current);
+        }
+    }
+
+    /**
+     * Poll the API right away, then again every interval once the previous poll completes
+     * @param scheduler the scheduler to run the poller on
+     * @param interval the delay between polls
+     * @return a future completed with the snapshot of the first poll, or null if it failed
+     */
+    public CompletableFuture<GymSnapshot> startPoller(ScheduledExecutorService scheduler, Duration interval) {
+        CompletableFuture<GymSnapshot> poll = refresh();
+        poll.whenComplete((result, e) ->
+                scheduler.schedule(() -> startPoller(scheduler, interval), interval.toMillis(), TimeUnit.MILLISECONDS));
+        return poll;
+    }
+
+    /**
+     * Fetch a new snapshot and publish it
+     * Concurrent calls share the same request
+     * NOTE: The previous snapshot is kept if the request fails, so /gym keeps answering with the last known usages
+     * @return a future completed with the new snapshot, or null if the request or parsing failed
+     */
+    public CompletableFuture<GymSnapshot> refresh() {
+        //Every poll fetches the same counts, so they share a single key
+        return polls.execute("counts", () -> fetchGymUsages().thenApply(result -> {
+            if (result != null) {
+                publish(result);
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * Atomically replace the snapshot and notify every listener
+     * @param newSnapshot the new snapshot
+     */
+    private void publish(GymSnapshot newSnapshot) {
+        snapshot.set(newSnapshot);
+        for (Consumer<GymSnapshot> listener : listeners) {
+            try {
+                listener.accept(newSnapshot);
+            } catch (Exception e) {
+                logger.error("Something went wrong with a gym snapshot listener! {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Call the API for the live usage of every gym facility/location
+     * @return a future completed with the parsed snapshot, or null if the request or parsing failed
+     */
+    private CompletableFuture<GymSnapshot> fetchGymUsages() {
+        HttpRequest request = HttpRequest.newBuilder().GET().uri(URI.create(baseUrl+this.apiKey)).build();
+        return sendAsync(request)
+                .thenApply(this::parseGymUsages)
+                .exceptionally(e -> {
+                    logger.error("Something went wrong with the API request! {}",unwrap(e).toString());
+                    logger.error("Request URL: {}",request.uri());
+                    return null;
+                });
+    }
+
+    /**
+     * Parse the live usage of every location and group them by facility
+     * @param body the raw bytes of the response body
+     * @return the snapshot of every main facility, or null if parsing failed
+     */
+    GymSnapshot parseGymUsages(byte[] body) {
+        List<GymLocation> gymEquipments;
+        //The response is a top-level array of locations, so deserialize them straight off the parser
+        try (JsonParser parser = JsonUtils.createParser(body)) {
+            parser.nextToken();
+            gymEquipments = JsonUtils.readArray(parser, locationReader);
+        } catch (IOException e) {
+            logger.error("Something went wrong with JSON parsing! {}",e.toString());
             return null;
         }
-        ArrayList<HashMap<String, String>> gymInformation = new ArrayList<>();
         try {
             //Sort the equipments based on "LastCount" value in descending order
-            gymEquipments = gymEquipments.stream().sorted(Comparator.comparingInt((JsonNode obj) -> obj.get("LastCount").asInt()).reversed()).toList();
-
-            //Set up HashMaps for the two facilities
-            LinkedHashMap<String, String> nickFacility = new LinkedHashMap<>();
-            LinkedHashMap<String, String> bakkeFacility = new LinkedHashMap<>();
-
-            //Iterate through the list and store the respective information
-            for (JsonNode equipment : gymEquipments) {
-                String facilityName = equipment.get("FacilityName").asText();
-                String locationName = equipment.get("LocationName").asText();
-                String currentCount = equipment.get("LastCount").asText();
-                String totalCapacity = equipment.get("TotalCapacity").asText();
-                String lastUpdatedTime;
-
-                //Convert the timestamp (which is set in US/Central) to unix timestamp (epoch)
-                sdf.setTimeZone(TimeZone.getTimeZone(ZoneId.of("US/Central")));
-                Date dt = sdf.parse(equipment.get("LastUpdatedDateAndTime").asText());
-                long epoch = dt.getTime();
-                lastUpdatedTime = String.valueOf((int) (epoch / 1000));
-
-                //Add the locations to the respective hashmap
-                if (facilityName.equals("Nicholas Recreation Center")) {
-                    nickFacility.put(facilityName + "|" + locationName, "Usage: `" + currentCount + "/" + totalCapacity + "`" + "\n"
-                            + "Last updated " + "<t:" + lastUpdatedTime + ":R>");
-                } else if (facilityName.equals("Bakke Recreation & Wellbeing Center ")) {
-                    bakkeFacility.put(facilityName + "|" + locationName, "Usage: `" + currentCount + "/" + totalCapacity + "`" + "\n"
-                            + "Last updated " + "<t:" + lastUpdatedTime + ":R>");
-                }
+            gymEquipments.sort(Comparator.comparingInt(GymLocation::getLastCount).reversed());
+
+            //Set up the lists for the main facilities
+            LinkedHashMap<String, List<GymLocation>> facilities = new LinkedHashMap<>();
+            for (String facility : FACILITIES) {
+                facilities.put(facility, new ArrayList<>());
             }
 
-            gymInformation.add(nickFacility);
-            gymInformation.add(bakkeFacility);
+            //Add the locations to their respective facility
+            for (GymLocation equipment : gymEquipments) {
+                List<GymLocation> locations = facilities.get(equipment.getFacilityName());
+                if (locations != null) {
+                    //Parse the timestamp up front, so a malformed one fails the poll rather than the embeds
+                    equipment.getLastUpdatedEpochSecond();
+                    locations.add(equipment);
+                }
+            }
+            return new GymSnapshot(facilities, Instant.now());
         } catch (Exception e) {
             logger.error("Something went wrong with JSON parsing! {}",e.toString());
             return null;
         }
-        return gymInformation;
     }
 }
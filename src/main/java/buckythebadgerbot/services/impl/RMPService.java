@@ -2,10 +2,17 @@ package buckythebadgerbot.services.impl;
 
 import buckythebadgerbot.data.Professor;
 import buckythebadgerbot.data.StudentRating;
+import buckythebadgerbot.data.StudentRatingsPage;
 import buckythebadgerbot.services.APIService;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import buckythebadgerbot.utils.cache.CacheStats;
+import buckythebadgerbot.utils.cache.ExpiringCache;
+import buckythebadgerbot.utils.concurrent.SingleFlight;
+import buckythebadgerbot.utils.json.GraphQLTemplate;
+import buckythebadgerbot.utils.json.JsonUtils;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,124 +20,250 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public class RMPService extends APIService {
     private static final String BASE_URL = "https://www.ratemyprofessors.com/graphql";
 
     private static final Logger logger = LoggerFactory.getLogger(RMPService.class);
 
-    public RMPService(String apiKey) {
-        super(apiKey);
+    //Every /professor waits on RMP, so a slow request is given up on quickly
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(8);
+
+    private static final ObjectReader ratingReader = JsonUtils.readerFor(StudentRating.class);
+
+    //GraphQL documents (see resources/graphql), trimmed to the fields the bot reads and encoded once
+    //The names and ids are spliced in JSON-escaped, so a name with quotes or backslashes can't break the request
+    private static final String UW_MADISON_SCHOOL_ID = "U2Nob29sLTE4NDE4";
+    private static final GraphQLTemplate SEARCH_QUERY = GraphQLTemplate.load("TeacherSearchResultsPageQuery",
+            "{\"query\":{\"text\":${text},\"schoolID\":\"" + UW_MADISON_SCHOOL_ID + "\",\"fallback\":true,\"departmentID\":null}}");
+    private static final GraphQLTemplate DETAILS_QUERY = GraphQLTemplate.load("TeacherRatingsPageQuery", "{\"id\":${id}}");
+
+    //The first page of student ratings is small so the menu shows up right away, and the next pages are fetched while the user reads
+    public static final int FIRST_RATINGS_PAGE_SIZE = 5;
+    public static final int NEXT_RATINGS_PAGE_SIZE = 20;
+    private static final GraphQLTemplate FIRST_RATINGS_QUERY = GraphQLTemplate.load("RatingsListQuery",
+            "{\"count\":" + FIRST_RATINGS_PAGE_SIZE + ",\"id\":${id},\"courseFilter\":${courseFilter},\"cursor\":null}");
+    private static final GraphQLTemplate NEXT_RATINGS_QUERY = GraphQLTemplate.load("RatingsListQuery",
+            "{\"count\":" + NEXT_RATINGS_PAGE_SIZE + ",\"id\":${id},\"courseFilter\":${courseFilter},\"cursor\":${cursor}}");
+
+    //Professors rarely change within a day, so results are served for hours and then refreshed in the background
+    //"Does not exist" and fallback (not at UW-Madison) results are cached for less time, in case they were caused by a hiccup of RMP
+    private static final int PROF_CACHE_SIZE = 2000;
+    private static final Duration PROF_TTL = Duration.ofHours(6);
+    private static final Duration PROF_NEGATIVE_TTL = Duration.ofMinutes(30);
+    private static final Duration PROF_STALE_PERIOD = Duration.ofDays(1);
+
+    //Cache of professors by normalized name, and by RMP regular id
+    private final ExpiringCache<String, Professor> profsByName = new ExpiringCache<>("professorsByName", PROF_CACHE_SIZE,
+            PROF_TTL, PROF_NEGATIVE_TTL, PROF_STALE_PERIOD, prof -> !prof.getDoesExist() || prof.getFallback());
+    private final ExpiringCache<String, Professor> profsById = new ExpiringCache<>("professorsById", PROF_CACHE_SIZE,
+            PROF_TTL, PROF_NEGATIVE_TTL, PROF_STALE_PERIOD, prof -> !prof.getDoesExist() || prof.getFallback());
+
+    //The page of student ratings being fetched, by professor, course and cursor
+    private final SingleFlight<String, StudentRatingsPage> ratingsFetches = new SingleFlight<>("studentRatings");
+
+    //The GraphQL endpoint
+    private final String baseUrl;
+
+    public RMPService(String apiKey, Executor executor) {
+        this(BASE_URL, apiKey, executor);
+    }
+
+    /**
+     * @param baseUrl the URL of the GraphQL endpoint (null for ratemyprofessors.com)
+     * @param apiKey the API key sent as Basic authorization
+     * @param executor the executor the HTTP client completes its futures on
+     */
+    public RMPService(String baseUrl, String apiKey, Executor executor) {
+        super(apiKey, executor, Objects.requireNonNullElse(baseUrl, BASE_URL), CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+        this.baseUrl = Objects.requireNonNullElse(baseUrl, BASE_URL);
     }
 
     /**
-     * Fetches information about a professor
-     * Sends two POST requests to ratemyprofessors.com/graphql with a Bearer token
-     * NOTE: The request payloads are extremely long
+     * Fetches information about a professor, blocking until it is fetched (see getProfAsync())
+     * Sends a search request, then (if a professor was found and isn't cached already) a detail request, to the GraphQL endpoint
+     * with Basic authorization; both bodies are rendered from pre-serialized GraphQLTemplate queries
      *
      * @param profName the name of the professor
      * @return A Professor object with fetched information
      */
     public Professor getProf(String profName) {
-        HttpRequest request = HttpRequest.newBuilder()
+        return getProfAsync(profName).join();
+    }
+
+    /**
+     * Fetches information about a professor without blocking the calling thread
+     * Served from the cache if the (normalized) name was looked up recently, otherwise fetched with fetchProf()
+     * If RMP can't be reached, a professor that was looked up before is served however old it is (see getDataAsOf())
+     *
+     * @param profName the name of the professor
+     * @return a future completed with a Professor object with fetched information (see getProf()),
+     * or completed exceptionally if RMP couldn't be reached and the professor wasn't looked up before (so it is unknown, not "does not exist")
+     * NOTE: The Professor object may be shared with other lookups, so it must not be modified
+     */
+    public CompletableFuture<Professor> getProfAsync(String profName) {
+        return profsByName.get(normalizeName(profName), name -> fetchProf(profName))
+                .whenComplete((prof, e) -> {
+                    if (e != null) {
+                        logger.error("Something went wrong with the API request! {}",unwrap(e).toString());
+                        logger.error("Request URL: {}",baseUrl);
+                    }
+                });
+    }
+
+    /**
+     * Tell if a professor is served as a fallback, i.e, it is past its stale period because RMP couldn't be reached to refresh it
+     * @param prof a professor returned by getProfAsync()
+     * @return when the professor was fetched if it is that old, null otherwise
+     */
+    public Instant getDataAsOf(Professor prof) {
+        Instant fetchedAt = prof.getFetchedAt();
+        return fetchedAt.plus(PROF_TTL).plus(PROF_STALE_PERIOD).isBefore(Instant.now()) ? fetchedAt : null;
+    }
+
+    /**
+     * Fetches information about a professor from the API
+     * The detail request is only sent (composed) once the search request found a professor, and its details aren't cached already
+     *
+     * @param profName the name of the professor
+     * @return a future completed with a Professor object with fetched information, or completed exceptionally if a request failed
+     */
+    private CompletableFuture<Professor> fetchProf(String profName) {
+        Professor prof = new Professor();
+        return sendAsync(buildSearchRequest(profName))
+                .thenApply(body -> parseSearchResults(body, prof))
+                .thenCompose(found -> {
+                    if (!found) {
+                        return CompletableFuture.completedFuture(prof);
+                    }
+                    //Different spellings of a name (e.g, "Hobbes" and "Will Hobbes") find the same professor, whose details may be cached already
+                    Professor cached = profsById.getIfPresent(prof.getRegularId());
+                    if (cached != null) {
+                        return CompletableFuture.completedFuture(cached);
+                    }
+                    //Sending a new request with id as parameter to fetch more information
+                    return sendAsync(buildDetailRequest(prof.getRegularId()))
+                            .thenApply(body -> parseDetails(body, prof))
+                            .thenApply(details -> {
+                                profsById.put(details.getRegularId(), details);
+                                return details;
+                            });
+                });
+    }
+
+    /**
+     * Normalize the name of a professor to use as a cache key
+     * Case, whitespace and diacritics are folded (e.g, " José  GARCÍA " becomes "jose garcia")
+     * @param profName the name of the professor
+     * @return the normalized name
+     */
+    private static String normalizeName(String profName) {
+        String name = Normalizer.normalize(profName, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return name.toLowerCase(Locale.ROOT).strip().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return the usage of the professor caches
+     */
+    public List<CacheStats> getCacheStats() {
+        return List.of(profsByName.getStats(), profsById.getStats());
+    }
+
+    /**
+     * Build the request to search for a professor
+     * @param profName the name of the professor
+     * @return the TeacherSearchResultsPageQuery request
+     */
+    private HttpRequest buildSearchRequest(String profName) {
+        return HttpRequest.newBuilder()
                 .header("Authorization", "Basic " + this.apiKey)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString("{\"query\":\"query TeacherSearchResultsPageQuery(\\n " +
-                        " $query: TeacherSearchQuery!\\n  $schoolID: ID\\n) {\\n  search: newSearch {\\n    ...TeacherSearchPagination_search_1ZLmLD\\n  }\\n  school: node(id: $schoolID) {\\n   " +
-                        " __typename\\n    ... on School {\\n      name\\n    }\\n    id\\n  }\\n}\\n\\nfragment TeacherSearchPagination_search_1ZLmLD on newSearch {\\n  teachers(query: $query, " +
-                        "first: 8, after: \\\"\\\") {\\n    didFallback\\n    edges {\\n      cursor\\n      node {\\n        ...TeacherCard_teacher\\n        id\\n        __typename\\n     " +
-                        " }\\n    }\\n    pageInfo {\\n      hasNextPage\\n      endCursor\\n    }\\n    resultCount\\n    filters {\\n      field\\n      options {\\n        value\\n        id\\n   " +
-                        "   }\\n    }\\n  }\\n}\\n\\nfragment TeacherCard_teacher on Teacher {\\n  id\\n  legacyId\\n  avgRating\\n  numRatings\\n  ...CardFeedback_teacher\\n  ...CardSchool_teacher\\n " +
-                        " ...CardName_teacher\\n  ...TeacherBookmark_teacher\\n}\\n\\nfragment CardFeedback_teacher on Teacher {\\n  wouldTakeAgainPercent\\n  avgDifficulty\\n}\\n\\nfragment CardSchool_teacher on Teacher {\\n" +
-                        "  department\\n  school {\\n    name\\n    id\\n  }\\n}\\n\\nfragment CardName_teacher on Teacher {\\n  firstName\\n  lastName\\n}\\n\\nfragment TeacherBookmark_teacher on Teacher {\\n  id\\n  " +
-                        "isSaved\\n}\\n\",\"variables\":{\"query\":{\"text\":\"" + profName + "\",\"schoolID\":\"U2Nob29sLTE4NDE4\",\"fallback\":true,\"departmentID\":null},\"schoolID\":\"U2Nob29sLTE4NDE4\"}}"))
-                .uri(URI.create(BASE_URL)).build();
-        HttpResponse<String> response;
-        ObjectMapper objectMapper;
-        JsonNode jsonNode;
-        Professor prof = new Professor();
+                .POST(HttpRequest.BodyPublishers.ofByteArray(SEARCH_QUERY.render(profName)))
+                .uri(URI.create(baseUrl)).build();
+    }
+
+    /**
+     * Build the request to fetch the details of a professor
+     * @param regularId the id of the professor
+     * @return the TeacherRatingsPageQuery request
+     */
+    private HttpRequest buildDetailRequest(String regularId) {
+        return HttpRequest.newBuilder()
+                .header("Authorization", "Basic " + this.apiKey)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(DETAILS_QUERY.render(regularId)))
+                .uri(URI.create(baseUrl)).build();
+    }
+
+    /**
+     * Parse the search results and store the id, legacy id, school and wouldTakeAgainPercent of the best match
+     * @param body the raw bytes of the response body
+     * @param prof the Professor object to populate
+     * @return true if a professor was found, false if the search has no results
+     * @throws CompletionException if the body isn't search results (e.g, an HTML error page), so it is retried instead of cached as "does not exist"
+     */
+    boolean parseSearchResults(byte[] body, Professor prof) {
+        JsonNode edges;
         try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper = new ObjectMapper();
-            jsonNode = objectMapper.readTree(response.body());
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
+            edges = JsonUtils.readTree(body).path("data").path("search").path("teachers").path("edges");
+        } catch (IOException e) {
+            throw new CompletionException(new IOException("The search response is not JSON", e));
+        }
+        if (!edges.isArray()) {
+            throw new CompletionException(new IOException("The search response has no data.search.teachers.edges"));
+        }
+        //Only an empty list of results means that the professor doesn't exist
+        if (edges.isEmpty()) {
             prof.setDoesExist(false);
-            return prof;
+            return false;
         }
         try {
             //Pick the first UW-Madison professor that shows up in the results. If none are there, it is set to the very first result (also by default).
-            int numResults = jsonNode.get("data").get("search").get("teachers").withArray("edges").size();
             int node = 0;
-            for (int i = 0; i < numResults; i++) {
-                String school = jsonNode.get("data").get("search").get("teachers").withArray("edges").get(i).get("node").get("school").get("name").asText();
+            for (int i = 0; i < edges.size(); i++) {
+                String school = edges.get(i).get("node").get("school").get("name").asText();
                 if (school.equalsIgnoreCase("University of Wisconsin - Madison")) {
                     node = i;
                 }
             }
 
-            //Check to see if the professor exists. If it does, then fetch the id, legacy id and wouldTakeAgainPercent
-            prof.setSchool(jsonNode.get("data").get("search").get("teachers").withArray("edges").get(node).get("node").get("school").get("name").asText());
-            prof.setRegularId(jsonNode.get("data").get("search").get("teachers").withArray("edges").get(node).get("node").get("id").asText());
-            prof.setLegacyId(jsonNode.get("data").get("search").get("teachers").withArray("edges").get(node).get("node").get("legacyId").asText());
-            prof.setWouldTakeAgainPercent(jsonNode.get("data").get("search").get("teachers").withArray("edges").get(node).get("node").get("wouldTakeAgainPercent").asDouble());
+            //The professor exists, so fetch the id, legacy id and wouldTakeAgainPercent
+            JsonNode teacher = edges.get(node).get("node");
+            prof.setSchool(teacher.get("school").get("name").asText());
+            prof.setRegularId(teacher.get("id").asText());
+            prof.setLegacyId(teacher.get("legacyId").asText());
+            prof.setWouldTakeAgainPercent(teacher.get("wouldTakeAgainPercent").asDouble());
 
         } catch (NullPointerException e) {
-            logger.error("Something went wrong with JSON parsing! {}",e.toString());
-            prof.setDoesExist(false);
-            return prof;
+            throw new CompletionException(new IOException("A search result is missing a field", e));
         }
+        return true;
+    }
 
-        //Sending a new request with id as parameter to fetch more information
-        request = HttpRequest.newBuilder()
-                .header("Authorization", "Basic " + this.apiKey)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString("{\"query\":\"query TeacherRatingsPageQuery(\\n  $id: ID!\\n) {\\n  node(id: $id) {\\n    __typename\\n    ... on Teacher {\\n      id\\n      legacyId\\n    " +
-                        "  firstName\\n      lastName\\n      school {\\n        legacyId\\n        name\\n        id\\n      }\\n      lockStatus\\n      ...StickyHeader_teacher\\n      ...RatingDistributionWrapper_teacher" +
-                        "\\n      ...TeacherMetaInfo_teacher\\n      ...TeacherInfo_teacher\\n      ...SimilarProfessors_teacher\\n      ...TeacherRatingTabs_teacher\\n    }\\n    id\\n  }\\n}\\n\\nfragment StickyHeader_teac" +
-                        "her on Teacher {\\n  ...HeaderDescription_teacher\\n  ...HeaderRateButton_teacher\\n}\\n\\nfragment RatingDistributionWrapper_teacher on Teacher {\\n  ...NoRatingsArea_teacher\\n  ratingsDistribution {" +
-                        "\\n    total\\n    ...RatingDistributionChart_ratingsDistribution\\n  }\\n}\\n\\nfragment TeacherMetaInfo_teacher on Teacher {\\n  legacyId\\n  firstName\\n  lastName\\n  department\\n  school {\\n    n" +
-                        "ame\\n    city\\n    state\\n    id\\n  }\\n}\\n\\nfragment TeacherInfo_teacher on Teacher {\\n  id\\n  lastName\\n  numRatings\\n  ...RatingValue_teacher\\n  ...NameTitle_teacher\\n  ...TeacherTags_teach" +
-                        "er\\n  ...NameLink_teacher\\n  ...TeacherFeedback_teacher\\n  ...RateTeacherLink_teacher\\n}\\n\\nfragment SimilarProfessors_teacher on Teacher {\\n  department\\n  relatedTeachers {\\n    legacyId\\n    ." +
-                        "..SimilarProfessorListItem_teacher\\n    id\\n  }\\n}\\n\\nfragment TeacherRatingTabs_teacher on Teacher {\\n  numRatings\\n  courseCodes {\\n    courseName\\n    courseCount\\n  }\\n  ...RatingsList_t" +
-                        "eacher\\n  ...RatingsFilter_teacher\\n}\\n\\nfragment RatingsList_teacher on Teacher {\\n  id\\n  legacyId\\n  lastName\\n  numRatings\\n  school {\\n    id\\n    legacyId\\n    name\\n    city\\n    " +
-                        "state\\n    avgRating\\n    numRatings\\n  }\\n  ...Rating_teacher\\n  ...NoRatingsArea_teacher\\n  ratings(first: 20) {\\n    edges {\\n      cursor\\n      node {\\n        ...Rating_rating\\n        " +
-                        "id\\n        __typename\\n      }\\n    }\\n    pageInfo {\\n      hasNextPage\\n      endCursor\\n    }\\n  }\\n}\\n\\nfragment RatingsFilter_teacher on Teacher {\\n  courseCodes {\\n    courseCount\\n " +
-                        "   courseName\\n  }\\n}\\n\\nfragment Rating_teacher on Teacher {\\n  ...RatingFooter_teacher\\n  ...RatingSuperHeader_teacher\\n  ...ProfessorNoteSection_teacher\\n}\\n\\nfragment NoRatingsArea_teacher on" +
-                        " Teacher {\\n  lastName\\n  ...RateTeacherLink_teacher\\n}\\n\\nfragment Rating_rating on Rating {\\n  comment\\n  flagStatus\\n  createdByUser\\n  teacherNote {\\n    id\\n  }\\n  ...RatingHeader_rating\\n  ...R" +
-                        "atingSuperHeader_rating\\n  ...RatingValues_rating\\n  ...CourseMeta_rating\\n  ...RatingTags_rating\\n  ...RatingFooter_rating\\n  ...ProfessorNoteSection_rating\\n}\\n\\nfragment RatingHeader_rating on " +
-                        "Rating {\\n  date\\n  class\\n  helpfulRating\\n  clarityRating\\n  isForOnlineClass\\n}\\n\\nfragment RatingSuperHeader_rating on Rating {\\n  legacyId\\n}\\n\\nfragment RatingValues_rating on Rating {" +
-                        "\\n  helpfulRating\\n  clarityRating\\n  difficultyRating\\n}\\n\\nfragment CourseMeta_rating on Rating {\\n  attendanceMandatory\\n  wouldTakeAgain\\n  grade\\n  textbookUse\\n  isForOnlineClass\\n  isF" +
-                        "orCredit\\n}\\n\\nfragment RatingTags_rating on Rating {\\n  ratingTags\\n}\\n\\nfragment RatingFooter_rating on Rating {\\n  id\\n  comment\\n  adminReviewedAt\\n  flagStatus\\n  legacyId\\n  thumbsUpT" +
-                        "otal\\n  thumbsDownTotal\\n  thumbs {\\n    userId\\n    thumbsUp\\n    thumbsDown\\n    id\\n  }\\n  teacherNote {\\n    id\\n  }\\n}\\n\\nfragment ProfessorNoteSection_rating on Rating {\\n  teacherNo" +
-                        "te {\\n    ...ProfessorNote_note\\n    id\\n  }\\n  ...ProfessorNoteEditor_rating\\n}\\n\\nfragment ProfessorNote_note on TeacherNotes {\\n  comment\\n  ...ProfessorNoteHeader_note\\n  ...ProfessorNoteFo" +
-                        "oter_note\\n}\\n\\nfragment ProfessorNoteEditor_rating on Rating {\\n  id\\n  legacyId\\n  class\\n  teacherNote {\\n    id\\n    teacherId\\n    comment\\n  }\\n}\\n\\nfragment ProfessorNoteHeader_not" +
-                        "e on TeacherNotes {\\n  createdAt\\n  updatedAt\\n}\\n\\nfragment ProfessorNoteFooter_note on TeacherNotes {\\n  legacyId\\n  flagStatus\\n}\\n\\nfragment RateTeacherLink_teacher on Teacher {\\n  legac" +
-                        "yId\\n  numRatings\\n  lockStatus\\n}\\n\\nfragment RatingFooter_teacher on Teacher {\\n  id\\n  legacyId\\n  lockStatus\\n  isProfCurrentUser\\n}\\n\\nfragment RatingSuperHeader_teacher on Teacher {\\n" +
-                        "  firstName\\n  lastName\\n  legacyId\\n  school {\\n    name\\n    id\\n  }\\n}\\n\\nfragment ProfessorNoteSection_teacher on Teacher {\\n  ...ProfessorNote_teacher\\n  ...ProfessorNoteEditor_teacher\\" +
-                        "n}\\n\\nfragment ProfessorNote_teacher on Teacher {\\n  ...ProfessorNoteHeader_teacher\\n  ...ProfessorNoteFooter_teacher\\n}\\n\\nfragment ProfessorNoteEditor_teacher on Teacher {\\n  id\\n}\\n\\nfragm" +
-                        "ent ProfessorNoteHeader_teacher on Teacher {\\n  lastName\\n}\\n\\nfragment ProfessorNoteFooter_teacher on Teacher {\\n  legacyId\\n  isProfCurrentUser\\n}\\n\\nfragment SimilarProfessorListItem_teacher on R" +
-                        "elatedTeacher {\\n  legacyId\\n  firstName\\n  lastName\\n  avgRating\\n}\\n\\nfragment RatingValue_teacher on Teacher {\\n  avgRating\\n  numRatings\\n  ...NumRatingsLink_teacher\\n}\\n\\nfragment NameTitle_teach" +
-                        "er on Teacher {\\n  id\\n  firstName\\n  lastName\\n  department\\n  school {\\n    legacyId\\n    name\\n    id\\n  }\\n  ...TeacherDepartment_teacher\\n  ...TeacherBookmark_teacher\\n}\\n\\nfragment TeacherTags" +
-                        "_teacher on Teacher {\\n  lastName\\n  teacherRatingTags {\\n    legacyId\\n    tagCount\\n    tagName\\n    id\\n  }\\n}\\n\\nfragment NameLink_teacher on Teacher {\\n  isProfCurrentUser\\n  legacyId\\n  lastName" +
-                        "\\n}\\n\\nfragment TeacherFeedback_teacher on Teacher {\\n  numRatings\\n  avgDifficulty\\n  wouldTakeAgainPercent\\n}\\n\\nfragment TeacherDepartment_teacher on Teacher {\\n  department\\n  school {\\n    legacyI" +
-                        "d\\n    name\\n    id\\n  }\\n}\\n\\nfragment TeacherBookmark_teacher on Teacher {\\n  id\\n  isSaved\\n}\\n\\nfragment NumRatingsLink_teacher on Teacher {\\n  numRatings\\n  ...RateTeacherLink_teacher\\n}\\n\\nf" +
-                        "ragment RatingDistributionChart_ratingsDistribution on ratingsDistribution {\\n  r1\\n  r2\\n  r3\\n  r4\\n  r5\\n}\\n\\nfragment HeaderDescription_teacher on Teacher {\\n  id\\n  firstName\\n  lastName\\n  depar" +
-                        "tment\\n  school {\\n    legacyId\\n    name\\n    id\\n  }\\n  ...TeacherTitles_teacher\\n  ...TeacherBookmark_teacher\\n}\\n\\nfragment HeaderRateButton_teacher on Teacher {\\n  ...RateTeacherLink_teacher\\n}\\" +
-                        "n\\nfragment TeacherTitles_teacher on Teacher {\\n  department\\n  school {\\n    legacyId\\n    name\\n    id\\n  }\\n}\\n\",\"variables\":{\"id\":\"" + prof.getRegularId() + "\"}}"))
-                .uri(URI.create(BASE_URL)).build();
-
+    /**
+     * Parse the details of a professor
+     * @param body the raw bytes of the response body
+     * @param prof the Professor object to populate
+     * @return the populated Professor object
+     */
+    Professor parseDetails(byte[] body, Professor prof) {
+        JsonNode jsonNode;
         try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            jsonNode = objectMapper.readTree(response.body());
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
+            jsonNode = JsonUtils.readTree(body);
+        } catch (IOException e) {
+            logger.error("Something went wrong with JSON parsing! {}",e.toString());
             prof.setDoesExist(false);
             return prof;
         }
@@ -190,68 +323,106 @@ public class RMPService extends APIService {
     }
 
     /**
-     * Fetches a list of student ratings on a particular course taught by a professor
+     * Fetches a page of the student ratings on a particular course taught by a professor without blocking the calling thread
      * @param profRegularId the id of the professor
      * @param course the course to fetch student ratings from
-     * @return a list of StudentRating objects
+     * @param cursor the end cursor of the previous page, or null for the first (smaller) page
+     * @return a future completed with the page, or completed exceptionally if the request or parsing failed (so it isn't mistaken for a course without ratings)
      */
-    public ArrayList<StudentRating> getStudentRatings (String profRegularId, String course){
-        HttpRequest request = HttpRequest.newBuilder()
+    public CompletableFuture<StudentRatingsPage> getStudentRatingsAsync(String profRegularId, String course, String cursor){
+        //The same page is often requested by several users at once (e.g, everyone opening the ratings of the same course)
+        return ratingsFetches.execute(profRegularId + "/" + course + "/" + cursor, () -> sendAsync(buildRatingsRequest(profRegularId, course, cursor))
+                .thenApply(body -> parseStudentRatings(body, profRegularId, course))
+                .whenComplete((page, e) -> {
+                    if (e != null) {
+                        logger.error("Something went wrong with the API request! {}",unwrap(e).toString());
+                        logger.error("Request URL: {}",baseUrl);
+                    }
+                }));
+    }
+
+    /**
+     * Build the request to fetch a page of the student ratings of a course taught by a professor
+     * @param profRegularId the id of the professor
+     * @param course the course to fetch student ratings from
+     * @param cursor the end cursor of the previous page, or null for the first page
+     * @return the RatingsListQuery request
+     */
+    private HttpRequest buildRatingsRequest(String profRegularId, String course, String cursor) {
+        byte[] body = cursor == null ? FIRST_RATINGS_QUERY.render(profRegularId, course) : NEXT_RATINGS_QUERY.render(profRegularId, course, cursor);
+        return HttpRequest.newBuilder()
                 .header("Authorization", "Basic " + this.apiKey)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString("{\"query\":\"query RatingsListQuery(\\n  $count: Int!\\n  $id: ID!\\n  $courseFilter: String\\n  " +
-                        "$cursor: String\\n) {\\n  node(id: $id) {\\n    __typename\\n    ... on Teacher {\\n      ...RatingsList_teacher_4pguUW\\n    }\\n    " +
-                        "id\\n  }\\n}\\n\\nfragment RatingsList_teacher_4pguUW on Teacher {\\n  id\\n  legacyId\\n  lastName\\n  numRatings\\n  school {\\n    id\\n   " +
-                        " legacyId\\n    name\\n    city\\n    state\\n    avgRating\\n    numRatings\\n  }\\n  ...Rating_teacher\\n  ...NoRatingsArea_teacher\\n  ratings(first:" +
-                        " $count, after: $cursor, courseFilter: $courseFilter) {\\n    edges {\\n      cursor\\n      node {\\n        ...Rating_rating\\n        id\\n      " +
-                        "  __typename\\n      }\\n    }\\n    pageInfo {\\n      hasNextPage\\n      endCursor\\n    }\\n  }\\n}\\n\\nfragment Rating_teacher on Teacher {\\n " +
-                        " ...RatingFooter_teacher\\n  ...RatingSuperHeader_teacher\\n  ...ProfessorNoteSection_teacher\\n}\\n\\nfragment NoRatingsArea_teacher on Teacher {\\n " +
-                        " lastName\\n  ...RateTeacherLink_teacher\\n}\\n\\nfragment Rating_rating on Rating {\\n  comment\\n  flagStatus\\n  createdByUser\\n  teacherNote {\\n  " +
-                        "  id\\n  }\\n  ...RatingHeader_rating\\n  ...RatingSuperHeader_rating\\n  ...RatingValues_rating\\n  ...CourseMeta_rating\\n  ...RatingTags_rating\\n  " +
-                        "...RatingFooter_rating\\n  ...ProfessorNoteSection_rating\\n}\\n\\nfragment RatingHeader_rating on Rating {\\n  date\\n  class\\n  helpfulRating\\n  " +
-                        "clarityRating\\n  isForOnlineClass\\n}\\n\\nfragment RatingSuperHeader_rating on Rating {\\n  legacyId\\n}\\n\\nfragment RatingValues_rating on Rating {\\n  " +
-                        "helpfulRating\\n  clarityRating\\n  difficultyRating\\n}\\n\\nfragment CourseMeta_rating on Rating {\\n  attendanceMandatory\\n  wouldTakeAgain\\n  grade\\n" +
-                        "  textbookUse\\n  isForOnlineClass\\n  isForCredit\\n}\\n\\nfragment RatingTags_rating on Rating {\\n  ratingTags\\n}\\n\\nfragment RatingFooter_rating on Rating" +
-                        " {\\n  id\\n  comment\\n  adminReviewedAt\\n  flagStatus\\n  legacyId\\n  thumbsUpTotal\\n  thumbsDownTotal\\n  thumbs {\\n    userId\\n    thumbsUp\\n    thumbsDown\\n" +
-                        "    id\\n  }\\n  teacherNote {\\n    id\\n  }\\n}\\n\\nfragment ProfessorNoteSection_rating on Rating {\\n  teacherNote {\\n    ...ProfessorNote_note\\n    id\\n  }\\n " +
-                        " ...ProfessorNoteEditor_rating\\n}\\n\\nfragment ProfessorNote_note on TeacherNotes {\\n  comment\\n  ...ProfessorNoteHeader_note\\n" +
-                        "  ...ProfessorNoteFooter_note\\n}\\n\\nfragment ProfessorNoteEditor_rating on Rating {\\n  id\\n  legacyId\\n  class\\n  teacherNote {\\n " +
-                        "   id\\n    teacherId\\n    comment\\n  }\\n}\\n\\nfragment ProfessorNoteHeader_note on TeacherNotes {\\n  createdAt\\n  updatedAt\\n}\\n\\nfragment " +
-                        "ProfessorNoteFooter_note on TeacherNotes {\\n  legacyId\\n  flagStatus\\n}\\n\\nfragment RateTeacherLink_teacher on Teacher {\\n  legacyId\\n  numRatings\\n" +
-                        "  lockStatus\\n}\\n\\nfragment RatingFooter_teacher on Teacher {\\n  id\\n  legacyId\\n  lockStatus\\n  isProfCurrentUser\\n}\\n\\nfragment " +
-                        "RatingSuperHeader_teacher on Teacher {\\n  firstName\\n  lastName\\n  legacyId\\n  school {\\n    name\\n    id\\n  }\\n}\\n\\nfragment ProfessorNoteSection_teacher on Teacher" +
-                        " {\\n  ...ProfessorNote_teacher\\n  ...ProfessorNoteEditor_teacher\\n}\\n\\nfragment ProfessorNote_teacher on Teacher {\\n  ...ProfessorNoteHeader_teacher\\n  " +
-                        "...ProfessorNoteFooter_teacher\\n}\\n\\nfragment ProfessorNoteEditor_teacher on Teacher {\\n  id\\n}\\n\\nfragment ProfessorNoteHeader_teacher on Teacher {\\n  " +
-                        "lastName\\n}\\n\\nfragment ProfessorNoteFooter_teacher on Teacher {\\n  legacyId\\n  isProfCurrentUser\\n}\\n\"," +
-                        "\"variables\":{\"count\":100,\"id\":\"" + profRegularId + "\",\"courseFilter\":\"" + course + "\",\"cursor\":null}}"))
-                .uri(URI.create(BASE_URL)).build();
-        HttpResponse<String> response;
-        ObjectMapper objectMapper;
-        JsonNode jsonNode;
-        try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper = new ObjectMapper();
-            jsonNode = objectMapper.readTree(response.body());
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
-            return null;
-        }
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .uri(URI.create(baseUrl)).build();
+    }
+
+    /**
+     * Stream through data.node, deserializing every rating of ratings.edges straight off the parser
+     * @param body the raw bytes of the response body
+     * @param profRegularId the id of the professor
+     * @param course the course the ratings are for
+     * @return the page of student ratings
+     * @throws CompletionException if the body isn't a page of ratings (e.g, an HTML error page)
+     */
+    StudentRatingsPage parseStudentRatings(byte[] body, String profRegularId, String course) {
         ArrayList<StudentRating> studentRatings = new ArrayList<>();
-        try {
-            ArrayNode ratings = jsonNode.get("data").get("node").get("ratings").withArray("edges");
-            //Deserialize every rating into a StudentRating object and add the object to the list
-            StudentRating studentRating;
-            for (JsonNode ratingData : ratings) {
-                JsonNode rating = ratingData.get("node");
-                studentRating = objectMapper.readValue(rating.toString(), StudentRating.class);
-                studentRating.setCourse(course);
-                studentRatings.add(studentRating);
+        String endCursor = null;
+        boolean hasNextPage = false;
+        int totalCount = -1;
+        boolean foundRatings = false;
+        try (JsonParser parser = JsonUtils.createParser(body)) {
+            if (!JsonUtils.seek(parser, "data", "node") || parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new CompletionException(new IOException("The ratings response has no data.node for " + profRegularId));
             }
-            return studentRatings;
-        } catch (JsonProcessingException e) {
-            logger.error("Something went wrong with JSON parsing! {}",e.toString());
-            return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("courseCodes") && parser.currentToken() == JsonToken.START_ARRAY) {
+                    //The total number of ratings of the course, to number the pages before they are all fetched
+                    for (JsonNode courseCode : JsonUtils.<JsonNode>readArray(parser, JsonUtils.readerFor(JsonNode.class))) {
+                        if (course.equals(courseCode.path("courseName").asText())) {
+                            totalCount = courseCode.path("courseCount").asInt(-1);
+                        }
+                    }
+                } else if (field.equals("ratings") && parser.currentToken() == JsonToken.START_OBJECT) {
+                    foundRatings = true;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String ratingsField = parser.getCurrentName();
+                        parser.nextToken();
+                        if (ratingsField.equals("edges") && parser.currentToken() == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                    String edgeField = parser.getCurrentName();
+                                    parser.nextToken();
+                                    if (edgeField.equals("node")) {
+                                        //Deserialize every rating into a StudentRating object and add the object to the list
+                                        StudentRating studentRating = ratingReader.readValue(parser);
+                                        studentRating.setCourse(course);
+                                        studentRatings.add(studentRating);
+                                    } else {
+                                        parser.skipChildren();
+                                    }
+                                }
+                            }
+                        } else if (ratingsField.equals("pageInfo") && parser.currentToken() == JsonToken.START_OBJECT) {
+                            JsonNode pageInfo = JsonUtils.MAPPER.readTree(parser);
+                            hasNextPage = pageInfo.path("hasNextPage").asBoolean(false);
+                            endCursor = pageInfo.path("endCursor").isTextual() ? pageInfo.get("endCursor").asText() : null;
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        if (!foundRatings) {
+            throw new CompletionException(new IOException("The ratings response has no ratings for " + profRegularId));
         }
+        return new StudentRatingsPage(studentRatings, endCursor, hasNextPage, totalCount);
     }
 }
@@ -2,68 +2,218 @@ package buckythebadgerbot.services.impl;
 
 import buckythebadgerbot.data.RegStudentOrg;
 import buckythebadgerbot.services.APIService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import buckythebadgerbot.utils.cache.CacheStats;
+import buckythebadgerbot.utils.concurrent.SingleFlight;
+import buckythebadgerbot.utils.html.DescriptionRenderer;
+import buckythebadgerbot.utils.json.JsonUtils;
+import buckythebadgerbot.utils.search.RSOSearchIndex;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.URLEncoder;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RSOService extends APIService {
     private static final String BASE_URL = "https://win.wisc.edu/api/discovery/search/organizations?";
 
     private static final Logger logger = LoggerFactory.getLogger(RSOService.class);
 
-    public RSOService() {
-        super(null);
+    //The catalog is refreshed in the background, and a page of it is a large response
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final ObjectReader orgReader = JsonUtils.readerFor(RegStudentOrg.class);
+
+    //How many orgs are fetched per request when refreshing the catalog, and a bound on the requests of a refresh (the API lists ~1000 orgs)
+    private static final int CATALOG_PAGE_SIZE = 500;
+    private static final int MAX_CATALOG_PAGES = 20;
+
+    private static final int DESCRIPTION_CACHE_SIZE = 4000;
+    //The latest catalog published by the refresher (null until the first successful refresh)
+    private final AtomicReference<RSOSearchIndex> catalog = new AtomicReference<>();
+
+    //When the latest catalog was loaded, and if the refreshes since then failed (so it is served past its refresh interval)
+    private volatile Instant catalogLoadedAt;
+    private volatile boolean refreshFailing;
+
+    //The refresh in progress (if any), so lookups without a catalog share it instead of calling the API again
+    private final SingleFlight<String, RSOSearchIndex> refreshes = new SingleFlight<>("rsoCatalog");
+
+    //Plain text of the HTML descriptions, rendered in the background whenever a catalog is loaded (with room for a few catalogs' worth of edits)
+    private final DescriptionRenderer descriptionRenderer = new DescriptionRenderer(DESCRIPTION_CACHE_SIZE);
+
+    //The base URL of the search API, followed by the query string
+    private final String baseUrl;
+
+    //The executor the descriptions are rendered on
+    private final Executor executor;
+
+    public RSOService(Executor executor) {
+        this(BASE_URL, executor);
+    }
+
+    /**
+     * @param baseUrl the base URL of the API, the query string is appended to it (null for win.wisc.edu)
+     * @param executor the executor the HTTP client completes its futures on
+     */
+    public RSOService(String baseUrl, Executor executor) {
+        super(null, executor, Objects.requireNonNullElse(baseUrl, BASE_URL), CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+        this.baseUrl = Objects.requireNonNullElse(baseUrl, BASE_URL);
+        this.executor = executor;
+    }
+
+
+    /**
+     * Get the catalog of registered student organizations
+     * @return the latest catalog, or null if none has been fetched yet
+     */
+    public RSOSearchIndex getCatalog() {
+        return catalog.get();
     }
 
+    /**
+     * Tell if the catalog is served past its refresh, because the API couldn't be reached (or answered with garbage) since
+     * @return when the catalog was loaded if the refreshes since then failed, null otherwise
+     */
+    public Instant getDataAsOf() {
+        return refreshFailing ? catalogLoadedAt : null;
+    }
 
     /**
-     * Query registered student organizations through win.wisc.edu
-     * @param query the query keyword
-     * @return A list of every org in the query
+     * Get the description of an org as plain text
+     * @param org the registered student org
+     * @return the rendered description (cached), or null if the org has none
      */
-    public List<RegStudentOrg> getOrgs(String query) {
+    public String getDescription(RegStudentOrg org) {
+        return descriptionRenderer.render(org);
+    }
 
+    /**
+     * @return the usage of the cache of rendered descriptions
+     */
+    public List<CacheStats> getCacheStats() {
+        return List.of(descriptionRenderer.getStats());
+    }
+
+    /**
+     * Get the catalog of registered student organizations without blocking the calling thread
+     * Only calls the API if the refresher hasn't published a catalog yet
+     * @return a future completed with the latest catalog, or null if the request or parsing failed
+     */
+    public CompletableFuture<RSOSearchIndex> getCatalogAsync() {
+        RSOSearchIndex current = catalog.get();
+        if (current != null) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return refresh();
+    }
+
+    /**
+     * Fetch the catalog right away, then again every interval once the previous refresh completes
+     * @param scheduler the scheduler to run the refresher on
+     * @param interval the delay between refreshes
+     * @return a future completed with the catalog of the first refresh, or null if it failed
+     */
+    public CompletableFuture<RSOSearchIndex> startRefresher(ScheduledExecutorService scheduler, Duration interval) {
+        CompletableFuture<RSOSearchIndex> refresh = refresh();
+        refresh.whenComplete((result, e) ->
+                scheduler.schedule(() -> startRefresher(scheduler, interval), interval.toMillis(), TimeUnit.MILLISECONDS));
+        return refresh;
+    }
+
+    /**
+     * Fetch every org, index them and publish the new catalog
+     * Concurrent calls share the same refresh
+     * NOTE: The previous catalog is kept if the refresh fails, so /rso keeps answering with the last known orgs
+     * @return a future completed with the new catalog, or null if a request or parsing failed
+     */
+    public CompletableFuture<RSOSearchIndex> refresh() {
+        return refreshes.execute("catalog", () -> {
+            long startTime = System.nanoTime();
+            return fetchCatalog(new ArrayList<>(), 0).thenApply(orgs -> {
+                        if (orgs == null) {
+                            return null;
+                        }
+                        RSOSearchIndex index = new RSOSearchIndex(orgs);
+                        //Render the descriptions in the background, the catalog doesn't wait for them
+                        long renderTime = System.nanoTime();
+                        descriptionRenderer.renderAll(orgs, executor).whenComplete((result, e) ->
+                                logger.info("Rendered the descriptions of {} student organizations in {} ms", orgs.size(), (System.nanoTime() - renderTime) / 1000000));
+                        return index;
+                    })
+                    .handle((result, e) -> {
+                        if (result != null) {
+                            catalogLoadedAt = Instant.now();
+                            catalog.set(result);
+                            logger.info("Loaded {} student organizations into the catalog in {} ms", result.size(), (System.nanoTime() - startTime) / 1000000);
+                        } else {
+                            logger.error("Could not refresh the student organization catalog! {}", e == null ? "Keeping the previous one..." : unwrap(e).toString());
+                        }
+                        refreshFailing = result == null;
+                        return result;
+                    });
+        });
+    }
+
+    /**
+     * Fetch the orgs one page after another, until a page comes back short
+     * @param orgs the orgs fetched so far
+     * @param page the index of the page to fetch
+     * @return a future completed with every org, or null if a request or parsing failed
+     */
+    private CompletableFuture<List<RegStudentOrg>> fetchCatalog(List<RegStudentOrg> orgs, int page) {
         HttpRequest request = HttpRequest.newBuilder()
                 .GET()
-                .uri(URI.create(BASE_URL + "top=10000&filter=&query=" + URLEncoder.encode(query,StandardCharsets.UTF_8) +"&skip=0"))
+                .uri(URI.create(baseUrl + "top=" + CATALOG_PAGE_SIZE + "&filter=&query=&skip=" + (page * CATALOG_PAGE_SIZE)))
                 .build();
 
-        HttpResponse<String> response;
-        ObjectMapper objectMapper;
-        JsonNode jsonNode;
-        try {
-            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            objectMapper = new ObjectMapper();
-            jsonNode = objectMapper.readTree(response.body());
-        } catch (IOException | InterruptedException e) {
-            logger.error("Something went wrong with the API request! {}",e.toString());
-            logger.error("Request URL: {}",request.uri());
-            return null;
-        }
-        ArrayNode results = jsonNode.withArray("value");
-        ArrayList<RegStudentOrg> orgs = new ArrayList<>();
-        try {
-            RegStudentOrg regStudentOrg;
-            for (JsonNode orgData : results) {
-                regStudentOrg = objectMapper.readValue(orgData.toString(), RegStudentOrg.class);
-                orgs.add(regStudentOrg);
+        return sendAsync(request)
+                .thenApply(this::parseOrgs)
+                .exceptionally(e -> {
+                    logger.error("Something went wrong with the API request! {}",unwrap(e).toString());
+                    logger.error("Request URL: {}",request.uri());
+                    return null;
+                })
+                .thenCompose(results -> {
+                    if (results == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    orgs.addAll(results);
+                    if (results.size() < CATALOG_PAGE_SIZE || page + 1 >= MAX_CATALOG_PAGES) {
+                        return CompletableFuture.completedFuture(orgs);
+                    }
+                    return fetchCatalog(orgs, page + 1);
+                });
+    }
+
+    /**
+     * Stream through the response and deserialize every org in the "value" array directly from the parser
+     * @param body the raw bytes of the response body
+     * @return a list of every org in the response, or null if parsing failed
+     */
+    List<RegStudentOrg> parseOrgs(byte[] body) {
+        try (JsonParser parser = JsonUtils.createParser(body)) {
+            if (!JsonUtils.seek(parser, "value")) {
+                logger.error("Something went wrong with JSON parsing! Missing \"value\" array");
+                return null;
             }
-        } catch (JsonProcessingException e) {
+            return JsonUtils.readArray(parser, orgReader);
+        } catch (IOException e) {
             logger.error("Something went wrong with JSON parsing! {}",e.toString());
             return null;
         }
-        return orgs;
     }
 }
@@ -0,0 +1,393 @@
+package buckythebadgerbot.utils.assets;
+
+import buckythebadgerbot.utils.concurrent.BulkheadExecutor;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.utils.FileUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The grade distribution graphs (e.g, "COMP_SCI-577.png"), shown under the details of a course
+ * - The directory is indexed once, then watched for changes, so looking a graph up never touches the file system
+ * - Small graphs are kept in memory (least recently used first out, bounded by bytes), so uploading them doesn't read the file again
+ * - Once a graph is uploaded, the URL of its attachment is remembered, so later views show it right away instead of uploading it again
+ * NOTE: A remembered URL is forgotten when the graph changes, before the URL expires (Discord signs attachment URLs), or when its message is deleted
+ */
+public class GraphAssetService {
+    private static final Logger logger = LoggerFactory.getLogger(GraphAssetService.class);
+
+    //Graphs larger than this are read from the file every time they are uploaded
+    private static final int MAX_CACHED_FILE_BYTES = 512 * 1024;
+    private static final long MAX_CACHED_BYTES = 32L * 1024 * 1024;
+
+    //How long before it expires a remembered URL stops being used, so a message never shows an expired one
+    private static final Duration URL_EXPIRY_MARGIN = Duration.ofHours(1);
+
+    private final Path directory;
+
+    //Map to store every graph in the directory
+    //Follows the format {file name=graph}
+    private final Map<String, Graph> graphs = new ConcurrentHashMap<>();
+
+    //Contents of the recently uploaded graphs, in access order (every access is synchronized on it)
+    private final LinkedHashMap<Graph, byte[]> contents = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    //Map to store the graph whose URL comes from a message
+    //Follows the format {message ID=file name}
+    private final Map<Long, String> namesByMessage = new ConcurrentHashMap<>();
+
+    private final LongAdder uploadCount = new LongAdder();
+    private final LongAdder reuseCount = new LongAdder();
+
+    /**
+     * @param directory the directory of the graphs
+     */
+    public GraphAssetService(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param subjectAbbrev the abbreviated subject (e.g, "COMP SCI")
+     * @param number the number (e.g, "577")
+     * @return the file name of the graph of the course (e.g, "COMP_SCI-577.png")
+     */
+    public static String fileName(String subjectAbbrev, String number) {
+        return subjectAbbrev.replaceAll(" ", "_") + "-" + number + ".png";
+    }
+
+    /**
+     * Index every graph in the directory (replacing the previous index)
+     * @return the number of graphs
+     */
+    public int index() {
+        Map<String, Graph> indexed = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.png")) {
+            for (Path file : files) {
+                Graph graph = stat(file);
+                if (graph != null) {
+                    indexed.put(graph.name, graph);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            logger.warn("{} does not exist, so courses are shown without their grade distribution! Moving on...", directory);
+        } catch (IOException e) {
+            logger.error("Could not index the grade distribution graphs in {}! {}", directory, e.toString());
+        }
+        for (String name : graphs.keySet()) {
+            if (!indexed.containsKey(name)) {
+                replace(name, null);
+            }
+        }
+        indexed.forEach(this::replace);
+        logger.info("Indexed {} grade distribution graphs", indexed.size());
+        return indexed.size();
+    }
+
+    /**
+     * Watch the directory on a daemon thread, and update the index as graphs are added, replaced or removed
+     * NOTE: Does nothing if the directory doesn't exist
+     */
+    public void startWatching() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        WatchService watcher;
+        try {
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warn("Could not watch {} for changes! New graphs are only picked up on restart... {}", directory, e.toString());
+            return;
+        }
+        BulkheadExecutor.threadFactory("graph-watcher").newThread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            //Events were lost, so every graph may have changed
+                            index();
+                        } else if (event.context() instanceof Path name && name.toString().endsWith(".png")) {
+                            Graph graph = event.kind() == StandardWatchEventKinds.ENTRY_DELETE ? null : stat(directory.resolve(name));
+                            if (graph == null) {
+                                replace(name.toString(), null);
+                            } else {
+                                replace(graph.name, graph);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.warn("{} is no longer accessible! New graphs are only picked up on restart...", directory);
+                        return;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.info("Stopped watching {}", directory);
+            }
+        }).start();
+    }
+
+    /**
+     * @param subjectAbbrev the abbreviated subject (e.g, "COMP SCI")
+     * @param number the number (e.g, "577")
+     * @return the graph of the course, or null if it has none
+     */
+    public Graph find(String subjectAbbrev, String number) {
+        return graphs.get(fileName(subjectAbbrev, number));
+    }
+
+    /**
+     * Upload a graph into the original reply of an interaction, and remember the URL of the attachment
+     * @param hook the hook of the interaction, whose original reply is the embed
+     * @param eb the embed of the reply, which shows the graph once uploaded
+     * @param graph the graph
+     */
+    public void upload(InteractionHook hook, EmbedBuilder eb, Graph graph) {
+        FileUpload file = toUpload(graph);
+        if (file == null) {
+            return;
+        }
+        uploadCount.increment();
+        eb.setImage("attachment://" + graph.name);
+        hook.editOriginalEmbeds(eb.build()).setFiles(file).queue(message -> remember(graph, message));
+    }
+
+    /**
+     * Record that a remembered URL was shown instead of uploading the graph again
+     */
+    public void recordReuse() {
+        reuseCount.increment();
+    }
+
+    /**
+     * Forget the URL of the graph attached to a deleted message (its attachment is deleted with it)
+     * @param messageId the ID of the message
+     */
+    public void onMessageDeleted(long messageId) {
+        String name = namesByMessage.remove(messageId);
+        Graph graph = name == null ? null : graphs.get(name);
+        if (graph != null && graph.messageId == messageId) {
+            graph.forgetUrl();
+        }
+    }
+
+    public int getGraphCount() {
+        return graphs.size();
+    }
+
+    public long getUploadCount() {
+        return uploadCount.sum();
+    }
+
+    public long getReuseCount() {
+        return reuseCount.sum();
+    }
+
+    /**
+     * @param graph a graph
+     * @return the file to upload, from memory if possible, or null if the file can't be read
+     */
+    private FileUpload toUpload(Graph graph) {
+        byte[] bytes;
+        synchronized (contents) {
+            bytes = contents.get(graph);
+        }
+        if (bytes == null) {
+            try {
+                bytes = Files.readAllBytes(graph.path);
+            } catch (IOException e) {
+                logger.warn("Could not read the grade distribution graph {}! {}", graph.path, e.toString());
+                return null;
+            }
+            if (bytes.length <= MAX_CACHED_FILE_BYTES) {
+                cache(graph, bytes);
+            }
+        }
+        return FileUpload.fromData(bytes, graph.name);
+    }
+
+    private void cache(Graph graph, byte[] bytes) {
+        synchronized (contents) {
+            //The graph may have been replaced while its file was read
+            if (graphs.get(graph.name) != graph || contents.containsKey(graph)) {
+                return;
+            }
+            contents.put(graph, bytes);
+            cachedBytes += bytes.length;
+            var iterator = contents.values().iterator();
+            while (cachedBytes > MAX_CACHED_BYTES && iterator.hasNext()) {
+                cachedBytes -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remember the URL of the attachment of an uploaded graph, unless the graph changed since
+     * @param graph the graph
+     * @param message the message the graph was uploaded to
+     */
+    private void remember(Graph graph, Message message) {
+        if (graphs.get(graph.name) != graph) {
+            return;
+        }
+        for (Message.Attachment attachment : message.getAttachments()) {
+            if (attachment.getFileName().equals(graph.name)) {
+                graph.rememberUrl(attachment.getUrl(), expiryOf(attachment.getUrl()), message.getIdLong());
+                namesByMessage.put(message.getIdLong(), graph.name);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replace (or remove) a graph, dropping its contents and remembered URL
+     * @param name the file name
+     * @param graph the new graph, or null if it was removed
+     */
+    private void replace(String name, Graph graph) {
+        Graph previous = graphs.get(name);
+        //Unchanged files (e.g, re-indexed after an overflow) keep what was derived from them
+        if (graph != null && previous != null && graph.size == previous.size && graph.lastModified == previous.lastModified) {
+            return;
+        }
+        previous = graph == null ? graphs.remove(name) : graphs.put(name, graph);
+        if (previous == null) {
+            return;
+        }
+        synchronized (contents) {
+            byte[] bytes = contents.remove(previous);
+            if (bytes != null) {
+                cachedBytes -= bytes.length;
+            }
+        }
+        namesByMessage.remove(previous.messageId);
+        previous.forgetUrl();
+    }
+
+    /**
+     * @param file a file
+     * @return the graph of the file, or null if it isn't a regular file (anymore)
+     */
+    private Graph stat(Path file) {
+        try {
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            return new Graph(file.getFileName().toString(), file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param url the URL of an attachment
+     * @return when the URL expires (the "ex" parameter of signed URLs, in hexadecimal epoch seconds), or null if it doesn't
+     */
+    private static Instant expiryOf(String url) {
+        String query = URI.create(url).getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("ex=")) {
+                try {
+                    return Instant.ofEpochSecond(Long.parseLong(param.substring(3), 16));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        int cached;
+        long bytes;
+        synchronized (contents) {
+            cached = contents.size();
+            bytes = cachedBytes;
+        }
+        return "GraphAssetService{" +
+                "graphs=" + graphs.size() +
+                ", cached=" + cached +
+                ", cachedBytes=" + bytes +
+                ", uploads=" + getUploadCount() +
+                ", reuses=" + getReuseCount() +
+                '}';
+    }
+
+    /**
+     * A graph in the directory
+     * NOTE: Identified by instance, a changed file is a new graph
+     */
+    public static class Graph {
+        private final String name;
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        //The URL of the attachment it was last uploaded as (null until uploaded)
+        private volatile String url;
+        private volatile Instant urlExpiresAt;
+        private volatile long messageId;
+
+        private Graph(String name, Path path, long size, long lastModified) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getFileName() {
+            return name;
+        }
+
+        /**
+         * @return the URL of the uploaded graph, or null if it must be uploaded (again)
+         */
+        public String getUrl() {
+            String current = url;
+            Instant expiresAt = urlExpiresAt;
+            if (current != null && expiresAt != null && Instant.now().plus(URL_EXPIRY_MARGIN).isAfter(expiresAt)) {
+                return null;
+            }
+            return current;
+        }
+
+        private synchronized void rememberUrl(String url, Instant expiresAt, long messageId) {
+            this.urlExpiresAt = expiresAt;
+            this.messageId = messageId;
+            this.url = url;
+        }
+
+        private synchronized void forgetUrl() {
+            this.url = null;
+            this.urlExpiresAt = null;
+            this.messageId = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package buckythebadgerbot.utils.cache;
+
+/**
+ * Snapshot of the usage of a cache
+ */
+public class CacheStats {
+    private final String name;
+    private final int size;
+    private final long hitCount;
+    private final long staleHitCount;
+    private final long missCount;
+    private final long fallbackCount;
+    private final long evictionCount;
+
+    public CacheStats(String name, int size, long hitCount, long staleHitCount, long missCount, long fallbackCount, long evictionCount) {
+        this.name = name;
+        this.size = size;
+        this.hitCount = hitCount;
+        this.staleHitCount = staleHitCount;
+        this.missCount = missCount;
+        this.fallbackCount = fallbackCount;
+        this.evictionCount = evictionCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getStaleHitCount() {
+        return staleHitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of misses answered with an old value because loading a new one failed
+     */
+    public long getFallbackCount() {
+        return fallbackCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the ratio of lookups answered from the cache (fresh or stale), or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hitCount + staleHitCount + missCount;
+        return lookups == 0 ? 0 : (double) (hitCount + staleHitCount) / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                ", hitCount=" + hitCount +
+                ", staleHitCount=" + staleHitCount +
+                ", missCount=" + missCount +
+                ", fallbackCount=" + fallbackCount +
+                ", evictionCount=" + evictionCount +
+                ", hitRate=" + String.format("%.2f", getHitRate()) +
+                '}';
+    }
+}
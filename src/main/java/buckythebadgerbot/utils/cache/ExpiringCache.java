@@ -0,0 +1,198 @@
+package buckythebadgerbot.utils.cache;
+
+import buckythebadgerbot.utils.concurrent.SingleFlight;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, least-recently-used cache whose entries expire
+ * - Fresh entries are served as is
+ * - Stale entries (expired, but within the stale period) are served right away while a single reload runs in the background
+ * - Negative entries (e.g, "does not exist") use their own, usually shorter, time to live and are never served stale
+ * - Older entries are reloaded, but kept until they are evicted: if the reload fails, the old value is served as a fallback (last known good)
+ * Concurrent loads of the same key share one call (see SingleFlight)
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ExpiringCache<K, V> {
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long staleNanos;
+    private final Predicate<V> isNegative;
+
+    //LinkedHashMap in access order, so the least recently used entry is evicted first
+    //NOTE: Lookups reorder the map, so every access is synchronized on it
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    //The load in progress of every key
+    private final SingleFlight<K, V> loading;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder staleHitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder fallbackCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param name the name of the cache, used for stats
+     * @param maxSize the maximum number of entries
+     * @param ttl how long a value stays fresh
+     * @param negativeTtl how long a negative value stays fresh
+     * @param stalePeriod how long after expiring a (non-negative) value can still be served while it is reloaded
+     * @param isNegative tells if a value is negative
+     */
+    public ExpiringCache(String name, int maxSize, Duration ttl, Duration negativeTtl, Duration stalePeriod, Predicate<V> isNegative) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.staleNanos = stalePeriod.toNanos();
+        this.isNegative = isNegative;
+        this.loading = new SingleFlight<>(name);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a value, loading it if it is missing or too old to be served
+     * @param key the key
+     * @param loader loads the value of a key (a null value is returned as is, but not cached)
+     * @return a future completed with the value, or with the old value if loading a new one failed (or returned null)
+     */
+    public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        CacheEntry<V> entry = getEntry(key);
+        long now = System.nanoTime();
+        if (entry != null && now - entry.expiresAt < 0) {
+            hitCount.increment();
+            return CompletableFuture.completedFuture(entry.value);
+        }
+        if (entry != null && now - entry.staleUntil < 0) {
+            staleHitCount.increment();
+            //Only one reload per stale entry, and a failed reload keeps serving the stale value
+            if (entry.reloading.compareAndSet(false, true)) {
+                load(key, loader).whenComplete((value, e) -> entry.reloading.set(false));
+            }
+            return CompletableFuture.completedFuture(entry.value);
+        }
+        missCount.increment();
+        if (entry == null || isNegative.test(entry.value)) {
+            return load(key, loader);
+        }
+        //Too old to be served as is, but better than nothing while the upstream is down
+        return load(key, loader).handle((value, e) -> {
+            if (value != null) {
+                return value;
+            }
+            fallbackCount.increment();
+            return entry.value;
+        });
+    }
+
+    /**
+     * Get a fresh value without loading it
+     * @param key the key
+     * @return the value, or null if it is missing or expired
+     */
+    public V getIfPresent(K key) {
+        CacheEntry<V> entry = getEntry(key);
+        if (entry != null && System.nanoTime() - entry.expiresAt < 0) {
+            hitCount.increment();
+            return entry.value;
+        }
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Store a value
+     * @param key the key
+     * @param value the value (must not be null)
+     */
+    public void put(K key, V value) {
+        long now = System.nanoTime();
+        CacheEntry<V> entry = isNegative.test(value)
+                ? new CacheEntry<>(value, now + negativeTtlNanos, now + negativeTtlNanos)
+                : new CacheEntry<>(value, now + ttlNanos, now + ttlNanos + staleNanos);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove a value
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the usage of the cache (hits, misses, evictions, etc.)
+     */
+    public CacheStats getStats() {
+        return new CacheStats(name, size(), hitCount.sum(), staleHitCount.sum(), missCount.sum(), fallbackCount.sum(), evictionCount.sum());
+    }
+
+    private CacheEntry<V> getEntry(K key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Load a value and store it, or join the load in progress of the same key
+     * @param key the key
+     * @param loader loads the value of a key
+     * @return a future completed with the value
+     */
+    private CompletableFuture<V> load(K key, Function<K, CompletableFuture<V>> loader) {
+        //Stored before the future completes, so a lookup never misses a value that was just loaded
+        return loading.execute(key, () -> loader.apply(key).thenApply(value -> {
+            if (value != null) {
+                put(key, value);
+            }
+            return value;
+        }));
+    }
+
+    /**
+     * A cached value and its deadlines (in System.nanoTime())
+     */
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final long staleUntil;
+        private final AtomicBoolean reloading = new AtomicBoolean();
+
+        private CacheEntry(V value, long expiresAt, long staleUntil) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+    }
+}
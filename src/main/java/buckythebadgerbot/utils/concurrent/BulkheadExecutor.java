@@ -0,0 +1,66 @@
+package buckythebadgerbot.utils.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size platform thread pool with a bounded queue
+ * Once both the threads and the queue are full, new tasks are rejected (and counted) instead of piling up
+ */
+public class BulkheadExecutor extends ThreadPoolExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(BulkheadExecutor.class);
+
+    private final String name;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param name the name of the bulkhead, used for thread names and stats
+     * @param threads the number of threads in the pool
+     * @param queueCapacity the maximum number of tasks waiting for a thread
+     */
+    public BulkheadExecutor(String name, int threads, int queueCapacity) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory(name));
+        this.name = name;
+        //Let idle threads die off so quiet bulkheads don't hold on to them
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler((task, executor) -> {
+            rejectedCount.increment();
+            logger.warn("Bulkhead '{}' is full! Rejected a task (queue depth: {})", this.name, getQueue().size());
+            throw new RejectedExecutionException("Bulkhead '" + this.name + "' is full");
+        });
+    }
+
+    /**
+     * Create a thread factory for named, daemon platform threads
+     * @param name the prefix of every thread name
+     * @return the thread factory
+     */
+    public static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "bot-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public ExecutorStats getStats() {
+        return new ExecutorStats(name, getMaximumPoolSize(), getActiveCount(), getQueue().size(), getCompletedTaskCount(), getRejectedCount());
+    }
+}
@@ -0,0 +1,134 @@
+package buckythebadgerbot.utils.concurrent;
+
+import buckythebadgerbot.utils.concurrent.impl.BoundedExecutionModel;
+import buckythebadgerbot.utils.concurrent.impl.VirtualThreadExecutionModel;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Decides which threads run every interaction (slash commands, buttons, select menus), JDA events and callbacks
+ * Set with the EXECUTION_MODEL environment variable: "bounded" (default) or "virtual"
+ */
+public abstract class ExecutionModel {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionModel.class);
+
+    public String name;
+
+    //Scheduler primarily for disabling buttons after a set period of time (the tasks are tiny, so only a few threads are needed)
+    protected final ScheduledExecutorService scheduler;
+
+    //Every executor created so far (by name, with how to read its stats), and who to tell about the ones created later on
+    //NOTE: Both are only read and written while synchronized on the model
+    private final Map<String, Supplier<ExecutorStats>> executors = new LinkedHashMap<>();
+    private final List<BiConsumer<String, Supplier<ExecutorStats>>> executorListeners = new ArrayList<>();
+
+    public ExecutionModel(Dotenv config) {
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(getInt(config, "SCHEDULER_THREADS", 2),
+                BulkheadExecutor.threadFactory("scheduler"));
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduledExecutor;
+    }
+
+    /**
+     * Get the executor of a route
+     * @param route the name of a slash command (e.g, "professor"), or the listener route (e.g, "button", "stringSelect")
+     * @return the executor that every task of the route should run on
+     */
+    public abstract ExecutorService getExecutor(String route);
+
+    /**
+     * @return the executor JDA dispatches events on
+     */
+    public abstract ExecutorService getEventPool();
+
+    /**
+     * @return the executor for JDA RestAction callbacks and HTTP client completions
+     */
+    public abstract ExecutorService getCallbackPool();
+
+    /**
+     * @return the load on every executor of the model (queue depth, rejections, etc.)
+     */
+    public abstract List<ExecutorStats> getStats();
+
+    /**
+     * Get notified of every executor of the model, including the bulkheads of routes created on their first use (see getExecutor())
+     * @param listener called with the name of every executor and how to read its stats, right away for the existing ones
+     */
+    public synchronized void onExecutorCreated(BiConsumer<String, Supplier<ExecutorStats>> listener) {
+        executors.forEach(listener);
+        executorListeners.add(listener);
+    }
+
+    /**
+     * Record a new executor, and notify the listeners of onExecutorCreated()
+     * @param name the name of the executor (e.g, "events", "professor")
+     * @param stats reads the stats of the executor
+     */
+    protected synchronized void executorCreated(String name, Supplier<ExecutorStats> stats) {
+        executors.put(name, stats);
+        executorListeners.forEach(listener -> listener.accept(name, stats));
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Stop accepting new tasks on every executor
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Create the execution model set in the configuration
+     * Falls back to the bounded model if virtual threads aren't supported by the running JVM
+     * @param config the environment variables
+     * @return the execution model
+     */
+    public static ExecutionModel create(Dotenv config) {
+        String mode = config.get("EXECUTION_MODEL", "bounded");
+        if (mode.equalsIgnoreCase("virtual")) {
+            if (VirtualThreadExecutionModel.isSupported()) {
+                logger.info("Using the virtual thread execution model");
+                return new VirtualThreadExecutionModel(config);
+            }
+            logger.warn("Virtual threads are not supported by this JVM ({})! Falling back to the bounded execution model...",
+                    Runtime.version());
+        }
+        logger.info("Using the bounded execution model");
+        return new BoundedExecutionModel(config);
+    }
+
+    /**
+     * Read an integer from the configuration
+     * @param config the environment variables
+     * @param key the name of the variable
+     * @param defaultValue the value to use if the variable is missing or malformed
+     * @return the integer value
+     */
+    public static int getInt(Dotenv config, String key, int defaultValue) {
+        String value = config.get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.strip());
+        } catch (NumberFormatException e) {
+            logger.warn("{} is not a number ({})! Using the default value {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
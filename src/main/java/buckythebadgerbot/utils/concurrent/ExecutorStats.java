@@ -0,0 +1,58 @@
+package buckythebadgerbot.utils.concurrent;
+
+/**
+ * Snapshot of the load on an executor (a bulkhead or a shared pool)
+ */
+public class ExecutorStats {
+    private final String name;
+    private final int poolSize;
+    private final int activeCount;
+    private final int queueDepth;
+    private final long completedCount;
+    private final long rejectedCount;
+
+    public ExecutorStats(String name, int poolSize, int activeCount, int queueDepth, long completedCount, long rejectedCount) {
+        this.name = name;
+        this.poolSize = poolSize;
+        this.activeCount = activeCount;
+        this.queueDepth = queueDepth;
+        this.completedCount = completedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorStats{" +
+                "name='" + name + '\'' +
+                ", poolSize=" + poolSize +
+                ", activeCount=" + activeCount +
+                ", queueDepth=" + queueDepth +
+                ", completedCount=" + completedCount +
+                ", rejectedCount=" + rejectedCount +
+                '}';
+    }
+}
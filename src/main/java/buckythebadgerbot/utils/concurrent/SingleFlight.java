@@ -0,0 +1,103 @@
+package buckythebadgerbot.utils.concurrent;
+
+import buckythebadgerbot.utils.metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls (e.g, to an upstream API) into one
+ * - The first call of a key runs, and every call of the same key made before it completes gets its result instead of running again
+ * - Once the call completes, the next call of the key runs again (results are not cached, see ExpiringCache for that)
+ * - The calls and the collapsed calls are counted per flight (see bucky_singleflight_* on /metrics)
+ * Every caller gets its own copy of the shared future, so completing or cancelling it (e.g, with a timeout) doesn't affect the others
+ * @param <K> the type of the keys (the normalized parameters of a call)
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+
+    private final String name;
+
+    //Map to store the call in progress of every key
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder callCount;
+    private final LongAdder collapsedCount;
+
+    /**
+     * @param name the name of the flight, used for metrics (e.g, "gymUsages")
+     */
+    public SingleFlight(String name) {
+        this.name = name;
+        this.callCount = Metrics.registry.counter("bucky_singleflight_calls_total", "Calls made through a single-flight coalescer.", "flight", name);
+        this.collapsedCount = Metrics.registry.counter("bucky_singleflight_collapsed_total", "Calls that joined an identical call in progress instead of running.", "flight", name);
+    }
+
+    /**
+     * Run a call, or join the call in progress of the same key
+     * @param key the normalized parameters of the call
+     * @param call starts the call
+     * @return a future completed with the result of the call (exceptionally if it failed or couldn't be started)
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        callCount.increment();
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> pending = inFlight.putIfAbsent(key, promise);
+        if (pending != null) {
+            collapsedCount.increment();
+            return pending.copy();
+        }
+        try {
+            call.get().whenComplete((value, e) -> {
+                inFlight.remove(key, promise);
+                if (e != null) {
+                    promise.completeExceptionally(e);
+                } else {
+                    promise.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise.copy();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of keys with a call in progress
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the number of calls made through the flight
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    /**
+     * @return the number of calls that joined a call in progress
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{" +
+                "name='" + name + '\'' +
+                ", inFlight=" + getInFlightCount() +
+                ", callCount=" + getCallCount() +
+                ", collapsedCount=" + getCollapsedCount() +
+                '}';
+    }
+}
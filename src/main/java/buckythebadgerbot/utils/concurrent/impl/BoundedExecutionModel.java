@@ -0,0 +1,81 @@
+package buckythebadgerbot.utils.concurrent.impl;
+
+import buckythebadgerbot.utils.concurrent.BulkheadExecutor;
+import buckythebadgerbot.utils.concurrent.ExecutionModel;
+import buckythebadgerbot.utils.concurrent.ExecutorStats;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Execution model with bounded platform thread pools
+ * Every route gets its own bulkhead, so a burst of slow /professor calls can't take the threads of /course
+ * Sizes can be set per route with BULKHEAD_<ROUTE>_THREADS (e.g, BULKHEAD_PROFESSOR_THREADS), or for all routes with BULKHEAD_THREADS and BULKHEAD_QUEUE
+ */
+public class BoundedExecutionModel extends ExecutionModel {
+
+    private final Dotenv config;
+    private final int defaultThreads;
+    private final int queueCapacity;
+    private final BulkheadExecutor eventPool;
+    private final BulkheadExecutor callbackPool;
+
+    //Map to store the bulkhead of every route
+    private final Map<String, BulkheadExecutor> bulkheads = new ConcurrentHashMap<>();
+
+    public BoundedExecutionModel(Dotenv config) {
+        super(config);
+        this.name = "bounded";
+        this.config = config;
+        this.defaultThreads = getInt(config, "BULKHEAD_THREADS", 4);
+        this.queueCapacity = getInt(config, "BULKHEAD_QUEUE", 50);
+        this.eventPool = new BulkheadExecutor("events", getInt(config, "EVENT_THREADS", 4), 1000);
+        this.callbackPool = new BulkheadExecutor("callbacks", getInt(config, "CALLBACK_THREADS", 4), 1000);
+        executorCreated(eventPool.getName(), eventPool::getStats);
+        executorCreated(callbackPool.getName(), callbackPool::getStats);
+    }
+
+    @Override
+    public ExecutorService getExecutor(String route) {
+        return bulkheads.computeIfAbsent(route, key -> {
+            BulkheadExecutor bulkhead = new BulkheadExecutor(key,
+                    getInt(config, "BULKHEAD_" + key.toUpperCase(Locale.ROOT) + "_THREADS", defaultThreads), queueCapacity);
+            executorCreated(key, bulkhead::getStats);
+            return bulkhead;
+        });
+    }
+
+    @Override
+    public ExecutorService getEventPool() {
+        return eventPool;
+    }
+
+    @Override
+    public ExecutorService getCallbackPool() {
+        return callbackPool;
+    }
+
+    @Override
+    public List<ExecutorStats> getStats() {
+        List<ExecutorStats> stats = new ArrayList<>();
+        stats.add(eventPool.getStats());
+        stats.add(callbackPool.getStats());
+        for (BulkheadExecutor bulkhead : bulkheads.values()) {
+            stats.add(bulkhead.getStats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        eventPool.shutdown();
+        callbackPool.shutdown();
+        bulkheads.values().forEach(ExecutorService::shutdown);
+    }
+}
@@ -0,0 +1,168 @@
+package buckythebadgerbot.utils.concurrent.impl;
+
+import buckythebadgerbot.utils.concurrent.ExecutionModel;
+import buckythebadgerbot.utils.concurrent.ExecutorStats;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution model that runs every task on its own virtual thread
+ * Virtual threads are cheap to park, so blocking calls (e.g, JDBC) don't hold on to a platform thread
+ * NOTE: The project compiles against Java 18, so the virtual thread executor is looked up reflectively (requires Java 21+ at runtime)
+ */
+public class VirtualThreadExecutionModel extends ExecutionModel {
+
+    private final ExecutorService virtualExecutor;
+    private final RouteExecutor eventPool;
+    private final RouteExecutor callbackPool;
+
+    //Map to store the (tracked) executor of every route
+    private final Map<String, RouteExecutor> routes = new ConcurrentHashMap<>();
+
+    public VirtualThreadExecutionModel(Dotenv config) {
+        super(config);
+        this.name = "virtual";
+        this.virtualExecutor = newVirtualThreadPerTaskExecutor();
+        this.eventPool = new RouteExecutor("events", virtualExecutor);
+        this.callbackPool = new RouteExecutor("callbacks", virtualExecutor);
+        executorCreated(eventPool.name, eventPool::getStats);
+        executorCreated(callbackPool.name, callbackPool::getStats);
+    }
+
+    /**
+     * Check if the running JVM can create virtual threads
+     * @return true if Executors.newVirtualThreadPerTaskExecutor() exists and works
+     */
+    public static boolean isSupported() {
+        try {
+            newVirtualThreadPerTaskExecutor().shutdown();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reflectively call Executors.newVirtualThreadPerTaskExecutor()
+     * @return a new virtual-thread-per-task executor
+     * @throws UnsupportedOperationException if the running JVM doesn't support virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    @Override
+    public ExecutorService getExecutor(String route) {
+        return routes.computeIfAbsent(route, key -> {
+            RouteExecutor executor = new RouteExecutor(key, virtualExecutor);
+            executorCreated(key, executor::getStats);
+            return executor;
+        });
+    }
+
+    @Override
+    public ExecutorService getEventPool() {
+        return eventPool;
+    }
+
+    @Override
+    public ExecutorService getCallbackPool() {
+        return callbackPool;
+    }
+
+    @Override
+    public List<ExecutorStats> getStats() {
+        List<ExecutorStats> stats = new ArrayList<>();
+        stats.add(eventPool.getStats());
+        stats.add(callbackPool.getStats());
+        for (RouteExecutor route : routes.values()) {
+            stats.add(route.getStats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        virtualExecutor.shutdown();
+    }
+
+    /**
+     * A view of the shared virtual thread executor that keeps track of the tasks of a single route
+     * Virtual threads start right away, so the queue depth is always 0
+     */
+    private static class RouteExecutor extends AbstractExecutorService {
+        private final String name;
+        private final ExecutorService delegate;
+        private final AtomicInteger activeCount = new AtomicInteger();
+        private final LongAdder completedCount = new LongAdder();
+        private final LongAdder rejectedCount = new LongAdder();
+
+        private RouteExecutor(String name, ExecutorService delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                delegate.execute(() -> {
+                    activeCount.incrementAndGet();
+                    try {
+                        command.run();
+                    } finally {
+                        activeCount.decrementAndGet();
+                        completedCount.increment();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejectedCount.increment();
+                throw e;
+            }
+        }
+
+        private ExecutorStats getStats() {
+            return new ExecutorStats(name, activeCount.get(), activeCount.get(), 0, completedCount.sum(), rejectedCount.sum());
+        }
+
+        //The lifecycle belongs to the shared executor, so a route can't be shut down on its own
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
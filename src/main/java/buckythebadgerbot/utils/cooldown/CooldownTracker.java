@@ -0,0 +1,127 @@
+package buckythebadgerbot.utils.cooldown;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Anti-spam cooldowns for trigger events (e.g, pressing the same button twice within 30 seconds)
+ * Checking and starting a cooldown is a single atomic step, so two concurrent clicks can't both get through
+ * Expired cooldowns are removed in the background by a sweeper that groups them into time buckets, so interactions never pay for the cleanup
+ */
+public class CooldownTracker {
+    private static final Logger logger = LoggerFactory.getLogger(CooldownTracker.class);
+
+    //Width of a time bucket (cooldowns are removed at most this long after they expire)
+    private static final long BUCKET_MILLIS = 5000;
+
+    //Map to store the expiry of every active cooldown
+    //Follows the format {"userID:key"=expiry (epoch millis)}
+    private final Map<String, Long> cooldowns = new ConcurrentHashMap<>();
+
+    //Map to store the cooldowns expiring within every time bucket
+    //Follows the format {bucket (expiry / BUCKET_MILLIS)=keys}
+    private final Map<Long, Queue<String>> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+
+    /**
+     * Start a cooldown, unless one is already active
+     * @param userId the ID of the user
+     * @param key what the cooldown is for (e.g, the UUID of the menu and the pressed button)
+     * @param window how long the cooldown lasts
+     * @return true if the cooldown was started (the user may proceed), false if the user is still on cooldown
+     */
+    public boolean tryAcquire(String userId, String key, Duration window) {
+        String cooldownKey = userId + ":" + key;
+        long now = System.currentTimeMillis();
+        long expiry = now + window.toMillis();
+        //compute() runs atomically per key, so only one caller can replace an expired (or missing) cooldown
+        boolean[] acquired = new boolean[1];
+        cooldowns.compute(cooldownKey, (k, previous) -> {
+            if (previous == null || previous <= now) {
+                acquired[0] = true;
+                return expiry;
+            }
+            return previous;
+        });
+        if (!acquired[0]) {
+            rejectedCount.increment();
+            return false;
+        }
+        buckets.computeIfAbsent(expiry / BUCKET_MILLIS, bucket -> new ConcurrentLinkedQueue<>()).add(cooldownKey);
+        acquiredCount.increment();
+        return true;
+    }
+
+    /**
+     * Check if a cooldown is active without starting one
+     * @param userId the ID of the user
+     * @param key what the cooldown is for
+     * @return true if the user is still on cooldown
+     */
+    public boolean isOnCooldown(String userId, String key) {
+        Long expiry = cooldowns.get(userId + ":" + key);
+        return expiry != null && expiry > System.currentTimeMillis();
+    }
+
+    /**
+     * Schedule the sweeper that removes expired cooldowns
+     * @param scheduler the scheduler to run the sweeper on
+     */
+    public void startSweeper(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::sweep, BUCKET_MILLIS, BUCKET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Remove the cooldowns of every time bucket that is over
+     * A key is only removed if it didn't get a newer cooldown in the meantime
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        long currentBucket = now / BUCKET_MILLIS;
+        buckets.keySet().removeIf(bucket -> {
+            if (bucket >= currentBucket) {
+                return false;
+            }
+            for (String cooldownKey : buckets.get(bucket)) {
+                Long expiry = cooldowns.get(cooldownKey);
+                if (expiry != null && expiry <= now && cooldowns.remove(cooldownKey, expiry)) {
+                    expiredCount.increment();
+                }
+            }
+            return true;
+        });
+        logger.debug("Swept expired cooldowns ({} active, {} acquired, {} rejected, {} expired)",
+                cooldowns.size(), acquiredCount.sum(), rejectedCount.sum(), expiredCount.sum());
+    }
+
+    public int size() {
+        return cooldowns.size();
+    }
+
+    public long getAcquiredCount() {
+        return acquiredCount.sum();
+    }
+
+    /**
+     * @return the number of times a user was stopped by an active cooldown
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+}
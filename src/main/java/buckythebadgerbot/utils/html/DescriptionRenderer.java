@@ -0,0 +1,98 @@
+package buckythebadgerbot.utils.html;
+
+import buckythebadgerbot.data.RegStudentOrg;
+import buckythebadgerbot.utils.cache.CacheStats;
+import buckythebadgerbot.utils.cache.ExpiringCache;
+import net.htmlparser.jericho.Renderer;
+import net.htmlparser.jericho.Segment;
+import net.htmlparser.jericho.Source;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders the HTML descriptions of registered student orgs into plain text
+ * - A description is rendered once per org and version of its HTML, and only the text is kept (the parsed document is dropped right away)
+ * - The texts are kept in a bounded LRU cache, keyed by the id of the org and a hash of its HTML, so an edited description is rendered again
+ * Safe to use from any thread
+ */
+public class DescriptionRenderer {
+
+    //The texts only change along with their HTML (which changes their key), so they can stay for as long as they are used
+    private static final Duration TTL = Duration.ofDays(7);
+
+    //How many descriptions a task of renderAll() renders
+    private static final int BATCH_SIZE = 64;
+
+    private final ExpiringCache<String, String> texts;
+
+    /**
+     * @param maxSize the maximum number of rendered descriptions kept
+     */
+    public DescriptionRenderer(int maxSize) {
+        this.texts = new ExpiringCache<>("orgDescriptions", maxSize, TTL, TTL, Duration.ZERO, text -> false);
+    }
+
+    /**
+     * Get the description of an org as plain text
+     * @param org the registered student org
+     * @return the rendered description, or null if the org has none
+     */
+    public String render(RegStudentOrg org) {
+        String html = org.getDescription();
+        if (html == null) {
+            return null;
+        }
+        String key = key(org.getId(), html);
+        String text = texts.getIfPresent(key);
+        if (text == null) {
+            text = toText(html);
+            texts.put(key, text);
+        }
+        return text;
+    }
+
+    /**
+     * Render the descriptions of many orgs in parallel (e.g, once a catalog is loaded), so they are cached before they are shown
+     * @param orgs the registered student orgs
+     * @param executor the executor to render the batches on
+     * @return a future completed once every description is rendered
+     */
+    public CompletableFuture<Void> renderAll(List<RegStudentOrg> orgs, Executor executor) {
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < orgs.size(); start += BATCH_SIZE) {
+            List<RegStudentOrg> batch = orgs.subList(start, Math.min(start + BATCH_SIZE, orgs.size()));
+            batches.add(CompletableFuture.runAsync(() -> batch.forEach(this::render), executor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * @return the usage of the cache of rendered descriptions
+     */
+    public CacheStats getStats() {
+        return texts.getStats();
+    }
+
+    /**
+     * Render HTML into plain text (lists become bullet points, links are followed by their URL, etc.)
+     * @param html the HTML
+     * @return the text
+     */
+    static String toText(String html) {
+        Source source = new Source(html);
+        return new Renderer(new Segment(source, 0, source.length())).toString();
+    }
+
+    /**
+     * @param id the id of the org
+     * @param html the HTML of its description
+     * @return the key of the rendered description
+     */
+    private static String key(String id, String html) {
+        return id + ":" + Integer.toHexString(html.hashCode()) + ":" + html.length();
+    }
+}
@@ -0,0 +1,257 @@
+package buckythebadgerbot.utils.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a response body into bytes, decompressing it (gzip or deflate) as it arrives
+ * - The compressed chunks are inflated as soon as they are received, so neither the whole compressed body nor a decoding thread is held
+ * - Bodies without a Content-Encoding (or with "identity") are read as is
+ * NOTE: The gzip trailer (CRC-32 and size) isn't checked, the inflater already fails on corrupt data and a body cut short fails on completion
+ */
+public class DecodingBodyHandler implements HttpResponse.BodyHandler<byte[]> {
+
+    //What the handler can decode, for the Accept-Encoding header of requests
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final LongConsumer onHeaders;
+    private final LongConsumer onWireBytes;
+
+    /**
+     * @param onHeaders called with System.nanoTime() once the status and headers have arrived
+     * @param onWireBytes called with the size of every chunk of the body as it was received (compressed, if it was)
+     */
+    public DecodingBodyHandler(LongConsumer onHeaders, LongConsumer onWireBytes) {
+        this.onHeaders = onHeaders;
+        this.onWireBytes = onWireBytes;
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<byte[]> apply(HttpResponse.ResponseInfo responseInfo) {
+        onHeaders.accept(System.nanoTime());
+        String encoding = responseInfo.headers().firstValue("Content-Encoding").orElse("identity").strip().toLowerCase(Locale.ROOT);
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new InflatingSubscriber(true, onWireBytes);
+            case "deflate" -> new InflatingSubscriber(false, onWireBytes);
+            default -> new CountingSubscriber(onWireBytes);
+        };
+    }
+
+    /**
+     * Collects an uncompressed body, counting its bytes
+     */
+    private static class CountingSubscriber implements HttpResponse.BodySubscriber<byte[]> {
+        private final HttpResponse.BodySubscriber<byte[]> bytes = HttpResponse.BodySubscribers.ofByteArray();
+        private final LongConsumer onWireBytes;
+
+        private CountingSubscriber(LongConsumer onWireBytes) {
+            this.onWireBytes = onWireBytes;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return bytes.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            bytes.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            onWireBytes.accept(item.stream().mapToLong(ByteBuffer::remaining).sum());
+            bytes.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            bytes.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            bytes.onComplete();
+        }
+    }
+
+    /**
+     * Inflates a gzip or deflate body chunk by chunk
+     */
+    private static class InflatingSubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+        //gzip header flags (RFC 1952)
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+
+        private final CompletableFuture<byte[]> body = new CompletableFuture<>();
+        private final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        private final byte[] chunk = new byte[8192];
+        private final boolean gzip;
+        private final LongConsumer onWireBytes;
+
+        //The beginning of the body, until the header (gzip) or the wrapping (deflate) is known
+        private ByteArrayOutputStream head = new ByteArrayOutputStream();
+        private Inflater inflater;
+        private Flow.Subscription subscription;
+
+        private InflatingSubscriber(boolean gzip, LongConsumer onWireBytes) {
+            this.gzip = gzip;
+            this.onWireBytes = onWireBytes;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            if (body.isDone()) {
+                return;
+            }
+            try {
+                for (ByteBuffer buffer : item) {
+                    onWireBytes.accept(buffer.remaining());
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    accept(bytes);
+                }
+            } catch (IOException | DataFormatException e) {
+                fail(e instanceof IOException ? (IOException) e : new IOException("Invalid " + (gzip ? "gzip" : "deflate") + " body", e));
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (inflater != null) {
+                inflater.end();
+            }
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (body.isDone()) {
+                return;
+            }
+            //Some servers keep the Content-Encoding header on an empty body (e.g, a 204), which has nothing to inflate
+            if (inflater == null && head.size() == 0) {
+                body.complete(new byte[0]);
+                return;
+            }
+            if (inflater == null || !inflater.finished()) {
+                fail(new IOException("The " + (gzip ? "gzip" : "deflate") + " body ended early"));
+                return;
+            }
+            inflater.end();
+            body.complete(decoded.toByteArray());
+        }
+
+        /**
+         * Inflate a chunk of the body, once the header is skipped
+         * @param bytes the chunk
+         */
+        private void accept(byte[] bytes) throws IOException, DataFormatException {
+            int offset = 0;
+            if (inflater == null) {
+                head.write(bytes);
+                byte[] start = head.toByteArray();
+                int headerLength = gzip ? gzipHeaderLength(start) : deflateHeaderLength(start);
+                if (headerLength < 0) {
+                    return;
+                }
+                //A deflate body is usually wrapped in zlib (RFC 1950), but some servers send raw deflate
+                inflater = new Inflater(gzip || headerLength == 0);
+                head = null;
+                bytes = start;
+                offset = gzip ? headerLength : 0;
+            }
+            //Anything after the end of the compressed data (e.g, the gzip trailer) is ignored
+            if (inflater.finished() || offset >= bytes.length) {
+                return;
+            }
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && inflater.needsDictionary()) {
+                    throw new IOException("The deflate body needs a preset dictionary");
+                }
+                decoded.write(chunk, 0, length);
+            }
+        }
+
+        private void fail(IOException e) {
+            if (inflater != null) {
+                inflater.end();
+            }
+            body.completeExceptionally(e);
+        }
+
+        /**
+         * @param start the first bytes of a gzip body
+         * @return the length of the gzip header, or -1 if more bytes are needed
+         */
+        private static int gzipHeaderLength(byte[] start) throws IOException {
+            if (start.length < 10) {
+                return -1;
+            }
+            if ((start[0] & 0xff) != 0x1f || (start[1] & 0xff) != 0x8b || start[2] != 8) {
+                throw new IOException("Not a gzip body");
+            }
+            int flags = start[3] & 0xff;
+            int position = 10;
+            if ((flags & FEXTRA) != 0) {
+                if (start.length < position + 2) {
+                    return -1;
+                }
+                position += 2 + ((start[position] & 0xff) | (start[position + 1] & 0xff) << 8);
+            }
+            for (int flag : new int[]{FNAME, FCOMMENT}) {
+                if ((flags & flag) != 0) {
+                    //Zero-terminated
+                    while (position < start.length && start[position] != 0) {
+                        position++;
+                    }
+                    position++;
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                position += 2;
+            }
+            return position <= start.length ? position : -1;
+        }
+
+        /**
+         * @param start the first bytes of a deflate body
+         * @return 2 if the body is wrapped in zlib, 0 if it is raw deflate, or -1 if more bytes are needed
+         */
+        private static int deflateHeaderLength(byte[] start) {
+            if (start.length < 2) {
+                return -1;
+            }
+            int cmf = start[0] & 0xff;
+            int flg = start[1] & 0xff;
+            return (cmf & 0x0f) == 8 && (cmf << 8 | flg) % 31 == 0 ? 2 : 0;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package buckythebadgerbot.utils.interaction;
+
+/**
+ * Snapshot of the occupancy and usage of the interaction state store
+ */
+public class InteractionStateStats {
+    private final int size;
+    private final int maxEntries;
+    private final long bytes;
+    private final long maxBytes;
+    private final long hitCount;
+    private final long missCount;
+    private final long expiredCount;
+    private final long evictionCount;
+
+    public InteractionStateStats(int size, int maxEntries, long bytes, long maxBytes, long hitCount, long missCount, long expiredCount, long evictionCount) {
+        this.size = size;
+        this.maxEntries = maxEntries;
+        this.bytes = bytes;
+        this.maxBytes = maxBytes;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.expiredCount = expiredCount;
+        this.evictionCount = evictionCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the approximate size of every entry combined, in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups of a missing or expired entry (e.g, a button pressed after its menu was evicted)
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return the number of entries removed before expiring, to stay within the bounds
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "InteractionStateStats{" +
+                "size=" + size + "/" + maxEntries +
+                ", bytes=" + bytes + "/" + maxBytes +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", expiredCount=" + expiredCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+}
@@ -0,0 +1,194 @@
+package buckythebadgerbot.utils.interaction;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Store for the state behind interactive components (e.g, the pages of a paginated menu, the options of a select menu)
+ * - Safe to use from any thread
+ * - Every entry expires, and expired entries are removed in the background
+ * - Bounded by the number of entries and their approximate size in bytes: when either is exceeded, the oldest entries are evicted
+ */
+public class InteractionStateStore {
+    private final int maxEntries;
+    private final long maxBytes;
+
+    //Map to store every entry
+    //Follows the format {"userID:UUID"=entry}
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //Map to store the key of every entry in insertion order, so the oldest entry can be evicted first
+    //Follows the format {sequence number=key}
+    private final ConcurrentSkipListMap<Long, String> insertionOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maxEntries the maximum number of entries
+     * @param maxBytes the maximum approximate size of every entry combined, in bytes
+     */
+    public InteractionStateStore(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Store a value, replacing the previous value of the key
+     * @param key the key (e.g, the user ID + random UUID of a menu)
+     * @param value the value
+     * @param approxBytes the approximate number of bytes the value keeps on the heap
+     * @param ttl how long the value is kept
+     */
+    public void put(String key, Object value, long approxBytes, Duration ttl) {
+        Entry entry = new Entry(value, approxBytes, System.nanoTime() + ttl.toNanos(), sequence.incrementAndGet());
+        bytes.addAndGet(approxBytes);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        insertionOrder.put(entry.sequence, key);
+        evictIfFull();
+    }
+
+    /**
+     * Get a value
+     * @param key the key
+     * @param type the type of the value
+     * @param <T> the type of the value
+     * @return the value, or null if it is missing, expired, or of another type
+     */
+    public <T> T get(String key, Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            if (entries.remove(key, entry)) {
+                release(entry);
+                expiredCount.increment();
+            }
+            missCount.increment();
+            return null;
+        }
+        if (!type.isInstance(entry.value)) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Update the approximate size of a value that grew or shrank since it was stored (e.g, a menu that fetched more pages)
+     * @param key the key
+     * @param approxBytes the approximate number of bytes the value now keeps on the heap
+     */
+    public void resize(String key, long approxBytes) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        bytes.addAndGet(approxBytes - entry.bytes.getAndSet(approxBytes));
+        evictIfFull();
+    }
+
+    /**
+     * Remove a value
+     * @param key the key
+     */
+    public void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * Schedule the sweeper that removes expired entries
+     * @param scheduler the scheduler to run the sweeper on
+     */
+    public void startSweeper(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Remove every expired entry
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        entries.forEach((key, entry) -> {
+            if (now - entry.expiresAt >= 0 && entries.remove(key, entry)) {
+                release(entry);
+                expiredCount.increment();
+            }
+        });
+    }
+
+    /**
+     * Evict the oldest entries until the store is within both of its bounds
+     */
+    private void evictIfFull() {
+        while (entries.size() > maxEntries || bytes.get() > maxBytes) {
+            Map.Entry<Long, String> oldest = insertionOrder.pollFirstEntry();
+            if (oldest == null) {
+                return;
+            }
+            Entry entry = entries.get(oldest.getValue());
+            //The key may have been stored again since, in which case its newer entry is kept
+            if (entry != null && entry.sequence == oldest.getKey() && entries.remove(oldest.getValue(), entry)) {
+                bytes.addAndGet(-entry.bytes.get());
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Give back the bytes of a removed entry
+     * @param entry the removed entry
+     */
+    private void release(Entry entry) {
+        insertionOrder.remove(entry.sequence);
+        bytes.addAndGet(-entry.bytes.get());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the occupancy of the store (entries, bytes) and its usage (hits, misses, expirations, evictions)
+     */
+    public InteractionStateStats getStats() {
+        return new InteractionStateStats(entries.size(), maxEntries, bytes.get(), maxBytes,
+                hitCount.sum(), missCount.sum(), expiredCount.sum(), evictionCount.sum());
+    }
+
+    /**
+     * A stored value, its approximate size and its deadline (in System.nanoTime())
+     */
+    private static class Entry {
+        private final Object value;
+        private final AtomicLong bytes;
+        private final long expiresAt;
+        private final long sequence;
+
+        private Entry(Object value, long bytes, long expiresAt, long sequence) {
+            this.value = value;
+            this.bytes = new AtomicLong(bytes);
+            this.expiresAt = expiresAt;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package buckythebadgerbot.utils.json;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A GraphQL request body, encoded once and only completed with its variables on every request
+ * The document is loaded from src/main/resources/graphql/NAME.graphql, stripped of its comments and indentation, and encoded to bytes along with
+ * the skeleton of its variables (e.g, {"id":${id}}), so a request only copies the bytes and splices in the JSON-escaped values
+ */
+public class GraphQLTemplate {
+
+    //A variable in the skeleton, e.g, ${id}
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{(\\w+)}");
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final String operationName;
+    //The bytes around every variable: {"query":"...","variables":{"id": | } }
+    private final byte[][] segments;
+    private final String[] variableNames;
+
+    private GraphQLTemplate(String operationName, byte[][] segments, String[] variableNames) {
+        this.operationName = operationName;
+        this.segments = segments;
+        this.variableNames = variableNames;
+    }
+
+    /**
+     * Load and encode a GraphQL document
+     * @param operationName the name of the operation, and of its document in resources/graphql (e.g, "TeacherRatingsPageQuery")
+     * @param variables the JSON of the variables, with a ${name} placeholder for every string variable (e.g, {"id":${id},"count":100})
+     * @return the template
+     * @throws UncheckedIOException if the document is missing
+     */
+    public static GraphQLTemplate load(String operationName, String variables) {
+        String document;
+        try (InputStream in = GraphQLTemplate.class.getResourceAsStream("/graphql/" + operationName + ".graphql")) {
+            if (in == null) {
+                throw new IOException("Missing GraphQL document graphql/" + operationName + ".graphql");
+            }
+            document = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String body = "{\"query\":\"" + new String(JsonStringEncoder.getInstance().quoteAsString(compact(document)))
+                + "\",\"variables\":" + variables + "}";
+
+        List<byte[]> segments = new ArrayList<>();
+        List<String> variableNames = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(body);
+        int start = 0;
+        while (matcher.find()) {
+            segments.add(body.substring(start, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            variableNames.add(matcher.group(1));
+            start = matcher.end();
+        }
+        segments.add(body.substring(start).getBytes(StandardCharsets.UTF_8));
+        return new GraphQLTemplate(operationName, segments.toArray(new byte[0][]), variableNames.toArray(new String[0]));
+    }
+
+    /**
+     * Remove the comments and collapse the whitespace of a document (none of the documents have whitespace inside a string)
+     * @param document the GraphQL document
+     * @return the document on a single line
+     */
+    private static String compact(String document) {
+        return document.replaceAll("(?m)#.*$", "").strip().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Build the body of a request
+     * @param values the values of the variables, in the order of their placeholders (null for a JSON null)
+     * @return the UTF-8 bytes of the body
+     * @throws IllegalArgumentException if there isn't exactly one value per variable
+     */
+    public byte[] render(String... values) {
+        if (values.length != variableNames.length) {
+            throw new IllegalArgumentException(operationName + " takes " + variableNames.length + " variables, not " + values.length + "!");
+        }
+        //Escape every value first, to size the body exactly
+        byte[][] encoded = new byte[values.length][];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i] == null ? NULL : JsonStringEncoder.getInstance().quoteAsUTF8(values[i]);
+            length += values[i] == null ? encoded[i].length : encoded[i].length + 2;
+        }
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+
+        byte[] body = new byte[length];
+        int position = 0;
+        for (int i = 0; i < segments.length; i++) {
+            System.arraycopy(segments[i], 0, body, position, segments[i].length);
+            position += segments[i].length;
+            if (i < encoded.length) {
+                if (values[i] != null) {
+                    body[position++] = '"';
+                }
+                System.arraycopy(encoded[i], 0, body, position, encoded[i].length);
+                position += encoded[i].length;
+                if (values[i] != null) {
+                    body[position++] = '"';
+                }
+            }
+        }
+        return body;
+    }
+
+    public String getOperationName() {
+        return operationName;
+    }
+
+    /**
+     * @return the size of the body without its variables, in bytes
+     */
+    public int getSize() {
+        int size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,105 @@
+package buckythebadgerbot.utils.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class for decoding JSON responses
+ * Holds a single configured ObjectMapper and one cached ObjectReader per DTO type, both of which are thread-safe
+ */
+public class JsonUtils {
+
+    //Shared mapper for every service (configuring it after this point is NOT thread-safe, so don't)
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    //Map to store the ObjectReader of every DTO type
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    /**
+     * Get the cached ObjectReader for a DTO type
+     * @param type the class of the DTO
+     * @return the ObjectReader bound to the type
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        return readers.computeIfAbsent(type, MAPPER::readerFor);
+    }
+
+    /**
+     * Create a streaming parser over a response body
+     * @param body the raw bytes of the response body
+     * @return a JsonParser positioned before the first token
+     */
+    public static JsonParser createParser(byte[] body) throws IOException {
+        return MAPPER.getFactory().createParser(body);
+    }
+
+    /**
+     * Parse a whole response body into a tree
+     * NOTE: Only use this for small payloads, prefer streaming with createParser() for large ones
+     * @param body the raw bytes of the response body
+     * @return the root JsonNode
+     */
+    public static JsonNode readTree(byte[] body) throws IOException {
+        return MAPPER.readTree(body);
+    }
+
+    /**
+     * Move the parser onto the value of a nested field, skipping every other field along the way
+     * E.g, seek(parser, "data", "node", "ratings") for {"data":{"node":{"ratings":...}}}
+     * @param parser the parser, either before the first token or on a START_OBJECT
+     * @param path the field names to follow from the current object
+     * @return true if the parser is now on the value of the last field, false if any field on the path is missing
+     */
+    public static boolean seek(JsonParser parser, String... path) throws IOException {
+        if (parser.currentToken() == null) {
+            parser.nextToken();
+        }
+        for (String field : path) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals(field)) {
+                    found = true;
+                    break;
+                }
+                parser.skipChildren();
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deserialize every element of the array the parser is currently on, one element at a time
+     * @param parser the parser, positioned on a START_ARRAY
+     * @param reader the ObjectReader of the element type
+     * @return a list of the deserialized elements (empty if the parser isn't on an array)
+     */
+    public static <T> List<T> readArray(JsonParser parser, ObjectReader reader) throws IOException {
+        List<T> elements = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            return elements;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            elements.add(reader.readValue(parser));
+        }
+        return elements;
+    }
+}
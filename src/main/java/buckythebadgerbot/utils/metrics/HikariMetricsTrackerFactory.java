@@ -0,0 +1,48 @@
+package buckythebadgerbot.utils.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the metrics of a HikariCP pool: how long threads wait for a connection, how long connections are used,
+ * timeouts, and the number of active, idle and waiting
+ */
+public class HikariMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final MetricsRegistry registry;
+
+    public HikariMetricsTrackerFactory(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        registry.gauge("bucky_db_connections_active", "Connections in use.", poolStats::getActiveConnections, "pool", poolName);
+        registry.gauge("bucky_db_connections_idle", "Connections ready to be used.", poolStats::getIdleConnections, "pool", poolName);
+        registry.gauge("bucky_db_connections_pending", "Threads waiting for a connection.", poolStats::getPendingThreads, "pool", poolName);
+        registry.gauge("bucky_db_connections_max", "Maximum number of connections.", poolStats::getMaxConnections, "pool", poolName);
+        LatencyHistogram acquire = registry.histogram("bucky_db_connection_wait_seconds", "Time waited for a connection from the pool.", "pool", poolName);
+        LatencyHistogram usage = registry.histogram("bucky_db_connection_usage_seconds", "Time a connection was used before being returned.", "pool", poolName);
+        LongAdder timeouts = registry.counter("bucky_db_connection_timeouts_total", "Connection requests that timed out.", "pool", poolName);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package buckythebadgerbot.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets (like HdrHistogram): every power of 2 of microseconds is split into 16 buckets,
+ * so any recorded value is known within ~6%, from 1 µs up to ~12 days, in a fixed 600 counters
+ * Quantiles cover the last one to two minutes (the counts are rotated every minute), while the count and sum cover the whole uptime
+ * NOTE: Recording is lock-free, so it is safe to call from any thread
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //Values of 2^40 µs (~12 days) and up all land in the last bucket
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    //Counts of the current and previous window
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    private volatile long windowStart = System.nanoTime();
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Record a latency
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        rotateIfNeeded();
+        current.incrementAndGet(index(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    /**
+     * Record the time since a start
+     * @param startNanos the start (in System.nanoTime())
+     * @return the elapsed time in nanoseconds
+     */
+    public long recordSince(long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        record(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Get a quantile of the recent latencies
+     * @param quantile the quantile, from 0 to 1 (e.g, 0.99)
+     * @return the latency in seconds (the upper bound of its bucket), or NaN if nothing was recorded recently
+     */
+    public double getQuantile(double quantile) {
+        rotateIfNeeded();
+        AtomicLongArray first = current;
+        AtomicLongArray second = previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = first.get(i) + second.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1e6;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1e6;
+    }
+
+    /**
+     * @return the number of latencies recorded since startup
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of every latency recorded since startup, in seconds
+     */
+    public double getSum() {
+        return sumMicros.sum() / 1e6;
+    }
+
+    /**
+     * Start a new window once the current one is a minute old, dropping the previous one
+     * NOTE: Values recorded while rotating may land in the previous window, which is still part of the quantiles
+     */
+    private void rotateIfNeeded() {
+        long start = windowStart;
+        long now = System.nanoTime();
+        if (now - start < WINDOW_NANOS) {
+            return;
+        }
+        synchronized (this) {
+            if (windowStart != start) {
+                return;
+            }
+            //Nothing was recorded for over two minutes, so both windows are out of date
+            previous = now - start >= 2 * WINDOW_NANOS ? new AtomicLongArray(BUCKETS) : current;
+            current = new AtomicLongArray(BUCKETS);
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Get the bucket of a value: values below 16 get their own bucket, then every power of 2 is split into 16 buckets
+     * @param micros the value in microseconds
+     * @return the index of the bucket
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = Math.min(MAX_MAGNITUDE, 63 - Long.numberOfLeadingZeros(micros));
+        if (magnitude == MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) ((micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the largest value of the bucket, in microseconds
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
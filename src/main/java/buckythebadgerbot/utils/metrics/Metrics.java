@@ -0,0 +1,47 @@
+package buckythebadgerbot.utils.metrics;
+
+/**
+ * Utility class holding the metrics registry of the bot, and the latency histograms recorded all over it
+ */
+public final class Metrics {
+
+    //The registry every metric is recorded in, and served from (see MetricsServer)
+    public static final MetricsRegistry registry = new MetricsRegistry();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param command the name of the slash command (e.g, "professor")
+     * @return the histogram of the time a slash command takes to respond
+     */
+    public static LatencyHistogram commandLatency(String command) {
+        return registry.histogram("bucky_command_latency_seconds", "Time from running a slash command to its response.", "command", command);
+    }
+
+    /**
+     * @param route the argument ID of the button or select menu (e.g, "pagination", "studentRatings")
+     * @param component the type of component ("button" or "stringSelect")
+     * @return the histogram of the time a button or select menu takes to respond
+     */
+    public static LatencyHistogram componentLatency(String component, String route) {
+        return registry.histogram("bucky_component_latency_seconds", "Time from using a button or select menu to its response.",
+                "component", component, "route", route);
+    }
+
+    /**
+     * @param host the host of the upstream service (e.g, "www.ratemyprofessors.com")
+     * @return the histogram of the time an upstream service takes to respond
+     */
+    public static LatencyHistogram upstreamLatency(String host) {
+        return registry.histogram("bucky_upstream_latency_seconds", "Time an HTTP request to an upstream service takes, until the whole body arrived.", "host", host);
+    }
+
+    /**
+     * @param host the host of the upstream service (e.g, "www.ratemyprofessors.com")
+     * @return the histogram of the time an upstream service takes to start responding (the rest of bucky_upstream_latency_seconds is spent receiving the body)
+     */
+    public static LatencyHistogram upstreamHeadersLatency(String host) {
+        return registry.histogram("bucky_upstream_headers_latency_seconds", "Time an HTTP request to an upstream service takes, until the status and headers arrived.", "host", host);
+    }
+}
@@ -0,0 +1,154 @@
+package buckythebadgerbot.utils.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registry of every metric of the bot, rendered in the Prometheus text format
+ * - Latency histograms (exposed as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles)
+ * - Counters (monotonic, e.g, errors), either incremented here or read from a count kept elsewhere
+ * - Gauges (read when scraped, e.g, the queue depth of an executor)
+ * A metric is identified by its name and its labels, given as name/value pairs (e.g, "command", "professor")
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    //Map to store every metric by name, sorted so the output is stable
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Get (or create) a latency histogram
+     * @param name the name of the metric (e.g, "bucky_command_latency_seconds")
+     * @param help the description of the metric
+     * @param labels the labels, as name/value pairs
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "summary").children.computeIfAbsent(labels(labels), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Get (or create) a counter
+     * @param name the name of the metric (e.g, "bucky_upstream_errors_total")
+     * @param help the description of the metric
+     * @param labels the labels, as name/value pairs
+     * @return the counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").children.computeIfAbsent(labels(labels), key -> new LongAdder());
+    }
+
+    /**
+     * Register a counter read from a count kept elsewhere (e.g, the completed tasks of an executor), replacing the previous one with the same name and labels
+     * NOTE: The value must only ever increase (until a restart), otherwise it's a gauge
+     * @param name the name of the metric (e.g, "bucky_executor_completed_total")
+     * @param help the description of the metric
+     * @param value reads the current count
+     * @param labels the labels, as name/value pairs
+     */
+    public void counter(String name, String help, Supplier<? extends Number> value, String... labels) {
+        family(name, help, "counter").children.put(labels(labels), value);
+    }
+
+    /**
+     * Register a gauge, replacing the previous gauge with the same name and labels
+     * @param name the name of the metric (e.g, "bucky_executor_queue_depth")
+     * @param help the description of the metric
+     * @param value reads the current value
+     * @param labels the labels, as name/value pairs
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+        family(name, help, "gauge").children.put(labels(labels), value);
+    }
+
+    /**
+     * Render every metric
+     * @return the metrics in the Prometheus text format (version 0.0.4)
+     */
+    public String scrape() {
+        StringBuilder output = new StringBuilder();
+        families.forEach((name, family) -> {
+            output.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            output.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            family.children.forEach((labels, metric) -> {
+                if (metric instanceof LatencyHistogram histogram) {
+                    for (double quantile : QUANTILES) {
+                        sample(output, name, withLabel(labels, "quantile", String.valueOf(quantile)), histogram.getQuantile(quantile));
+                    }
+                    sample(output, name + "_sum", labels, histogram.getSum());
+                    sample(output, name + "_count", labels, histogram.getCount());
+                } else if (metric instanceof LongAdder counter) {
+                    sample(output, name, labels, counter.sum());
+                } else if (metric instanceof Supplier<?> gauge) {
+                    Object value = gauge.get();
+                    sample(output, name, labels, value instanceof Number number ? number.doubleValue() : Double.NaN);
+                }
+            });
+        });
+        return output.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type + "!");
+        }
+        return family;
+    }
+
+    /**
+     * Render labels, e.g, {command="professor"}
+     * @param labels the labels, as name/value pairs
+     * @return the rendered labels (empty if there are none)
+     */
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs!");
+        }
+        String rendered = "";
+        for (int i = 0; i < labels.length; i += 2) {
+            rendered = withLabel(rendered, labels[i], labels[i + 1]);
+        }
+        return rendered;
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + escape(value) + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void sample(StringBuilder output, String name, String labels, double value) {
+        output.append(name).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            output.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            output.append((long) value);
+        } else {
+            output.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        output.append('\n');
+    }
+
+    /**
+     * Every metric sharing a name: its description, type and the metric of every set of labels
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package buckythebadgerbot.utils.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server exposing the metrics at /metrics, in the Prometheus text format
+ * NOTE: Meant to be scraped locally (it binds to 127.0.0.1 unless told otherwise), so it has no authentication
+ */
+public class MetricsServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    private final HttpServer server;
+
+    /**
+     * Start the server
+     * @param host the address to bind to (e.g, "127.0.0.1")
+     * @param port the port to listen on
+     * @param registry the registry to serve
+     * @throws IOException if the server can't bind to the address
+     */
+    public MetricsServer(String host, int port, MetricsRegistry registry) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", exchange -> serve(exchange, registry));
+        //Scrapes are rare and quick, so a single thread is enough
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        logger.info("Serving metrics on http://{}:{}/metrics", host, port);
+    }
+
+    private static void serve(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Could not serve the metrics! {}", e.toString());
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,101 @@
+package buckythebadgerbot.utils.pagination;
+
+import net.dv8tion.jda.api.entities.MessageEmbed;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * The pages of a paginated menu
+ * A page is only rendered into an embed when it is requested, so a menu can keep its compact source data (e.g, the student ratings) instead of every built embed
+ */
+public interface PageSource {
+
+    //Rough heap cost of an object header and its references, added to every estimate
+    long OVERHEAD_BYTES = 64;
+
+    /**
+     * @return the number of pages
+     */
+    int size();
+
+    /**
+     * Render a page
+     * @param page the index of the page, starting at 0
+     * @return the embed of the page
+     */
+    MessageEmbed render(int page);
+
+    /**
+     * @return the approximate number of bytes the source keeps on the heap
+     */
+    long estimateBytes();
+
+    /**
+     * Make sure a page can be rendered, for sources that fetch their pages as the user gets to them
+     * @param page the index of the requested page
+     * @return a future completed with the index of the page to show (lower than the requested one if the source turned out to be shorter),
+     * or completed exceptionally if the page couldn't be fetched
+     */
+    default CompletableFuture<Integer> load(int page) {
+        return CompletableFuture.completedFuture(page);
+    }
+
+    /**
+     * Pages that are already built (e.g, menus that are shared between users, like /gym)
+     * @param embeds the embed of every page
+     * @return the page source
+     */
+    static PageSource of(List<MessageEmbed> embeds) {
+        List<MessageEmbed> pages = List.copyOf(embeds);
+        //Every char of an embed is 2 bytes (UTF-16)
+        long bytes = OVERHEAD_BYTES + pages.stream().mapToLong(embed -> OVERHEAD_BYTES + 2L * embed.getLength()).sum();
+        return new PageSource() {
+            @Override
+            public int size() {
+                return pages.size();
+            }
+
+            @Override
+            public MessageEmbed render(int page) {
+                return pages.get(page);
+            }
+
+            @Override
+            public long estimateBytes() {
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * Pages that are rendered from one item each
+     * @param items the item of every page
+     * @param renderer renders an item and its index into an embed
+     * @param itemBytes the approximate number of bytes of an item
+     * @param <T> the type of the items
+     * @return the page source
+     */
+    static <T> PageSource of(List<T> items, BiFunction<T, Integer, MessageEmbed> renderer, ToLongFunction<T> itemBytes) {
+        List<T> pages = List.copyOf(items);
+        long bytes = OVERHEAD_BYTES + pages.stream().mapToLong(item -> OVERHEAD_BYTES + itemBytes.applyAsLong(item)).sum();
+        return new PageSource() {
+            @Override
+            public int size() {
+                return pages.size();
+            }
+
+            @Override
+            public MessageEmbed render(int page) {
+                return renderer.apply(pages.get(page), page);
+            }
+
+            @Override
+            public long estimateBytes() {
+                return bytes;
+            }
+        };
+    }
+}
@@ -8,20 +8,24 @@ import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.components.ActionRow;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility class to handle anything related to pagination
+ * The state of every menu (its pages and current page) is kept in the interaction state store of the bot
  */
 public class PaginationUtils {
 
-    //Map to store every embed for a paginated menu
-    public static final Map<String, List<MessageEmbed>> paginatedMenus = new HashMap<>();
+    //How long the buttons of a menu stay enabled
+    private static final Duration MENU_LIFETIME = Duration.ofMinutes(10);
 
-    //Map to store the paginated buttons for a paginated menu
-    public static final Map<String, List<Button>> paginationButtons = new HashMap<>();
+    //The state is kept a bit longer than the buttons, so late presses still find their menu
+    private static final Duration STATE_TTL = MENU_LIFETIME.plusMinutes(1);
 
     /**
      * Create and send a paginated menu
@@ -31,28 +35,80 @@ public class PaginationUtils {
      * @param embeds the list of embeds for the menu
      */
     public static void sendPaginatedMenu(String userID, ReplyCallbackAction action, List<MessageEmbed> embeds) {
+        sendPaginatedMenu(userID, action, PageSource.of(embeds));
+    }
+
+    /**
+     * Create and send a paginated menu
+     *
+     * @param userID the user id of the user who initiated the search command
+     * @param action the original event (with the first page as its embed)
+     * @param pages the pages of the menu, rendered when they are requested
+     */
+    public static void sendPaginatedMenu(String userID, ReplyCallbackAction action, PageSource pages) {
+        String uuid = createMenu(userID, pages);
+        //Add the buttons and disable them after 10 minutes (which also releases the state of the menu)
+        action.setActionRow(getPaginationButtons(uuid, 0, pages.size()))
+                .queue(interactionHook -> BuckyTheBadgerBot.componentExpiry.schedule(uuid, MENU_LIFETIME,
+                        () -> disablePaginationButtons(uuid, interactionHook), uuid));
+    }
+
+    /**
+     * Create and send a paginated menu by editing a deferred reply
+     *
+     * @param userID the user id of the user who initiated the search command
+     * @param hook the hook of the deferred reply
+     * @param embeds the list of embeds for the menu
+     */
+    public static void sendPaginatedMenu(String userID, InteractionHook hook, List<MessageEmbed> embeds) {
+        sendPaginatedMenu(userID, hook, PageSource.of(embeds));
+    }
+
+    /**
+     * Create and send a paginated menu by editing a deferred reply
+     *
+     * @param userID the user id of the user who initiated the search command
+     * @param hook the hook of the deferred reply
+     * @param pages the pages of the menu, rendered when they are requested
+     */
+    public static void sendPaginatedMenu(String userID, InteractionHook hook, PageSource pages) {
+        String uuid = createMenu(userID, pages);
+        hook.editOriginal(MessageEditData.fromEmbeds(pages.render(0)))
+                .setActionRow(getPaginationButtons(uuid, 0, pages.size()))
+                .queue(message -> BuckyTheBadgerBot.componentExpiry.schedule(uuid, MENU_LIFETIME,
+                        () -> disablePaginationButtons(uuid, hook), uuid));
+    }
+
+    /**
+     * Keep the state of a new menu
+     *
+     * @param userID the user id of the user who initiated the search command
+     * @param pages the pages of the menu
+     * @return the user ID + random UUID of the menu
+     */
+    private static String createMenu(String userID, PageSource pages) {
         String uuid = userID + ":" + UUID.randomUUID();
-        List<Button> components = getPaginationButtons(uuid, embeds.size());
-        paginationButtons.put(uuid, components);
-        paginatedMenus.put(uuid, embeds);
-        //Add the updated buttons and disable them after 10 minutes
-        action.setActionRow(components).queue(interactionHook -> disablePaginationButtons(uuid, interactionHook));
+        BuckyTheBadgerBot.interactionStates.put(uuid, new PaginatedMenu(pages), pages.estimateBytes(), STATE_TTL);
+        return uuid;
     }
 
     /**
-     * Create and send the paginated buttons
+     * Create the pagination buttons of a page
      *
      * @param uuid the user ID + random UUID
+     * @param page the index of the current page
      * @param maxPages the maximum number of pages on the menu
      * @return a list of the paginated buttons
      */
-    private static List<Button> getPaginationButtons(String uuid, int maxPages) {
+    private static List<Button> getPaginationButtons(String uuid, int page, int maxPages) {
+        boolean first = page == 0;
+        boolean last = page == maxPages - 1;
         return Arrays.asList(
-                Button.primary(uuid + ":pagination:first", Emoji.fromUnicode("\u23EA")).asDisabled(),
-                Button.primary(uuid + ":pagination:prev", Emoji.fromUnicode("\u25C0")).asDisabled(),
-                Button.secondary("pagination:page:0", "1/" + maxPages).asDisabled(),
-                Button.primary(uuid + ":pagination:next", Emoji.fromUnicode("\u25B6")),
-                Button.primary(uuid + ":pagination:last", Emoji.fromUnicode("\u23E9"))
+                Button.primary(uuid + ":pagination:first", Emoji.fromUnicode("\u23EA")).withDisabled(first),
+                Button.primary(uuid + ":pagination:prev", Emoji.fromUnicode("\u25C0")).withDisabled(first),
+                Button.secondary("pagination:page:" + page, (page + 1) + "/" + maxPages).asDisabled(),
+                Button.primary(uuid + ":pagination:next", Emoji.fromUnicode("\u25B6")).withDisabled(last),
+                Button.primary(uuid + ":pagination:last", Emoji.fromUnicode("\u23E9")).withDisabled(last)
         );
     }
 
@@ -64,76 +120,84 @@ public class PaginationUtils {
      * @param event the ButtonInteractionEvent to edit the button components of
      */
     public static void updatePaginationButtons(String uuid, String arg, ButtonInteractionEvent event) {
-        List<Button> components = paginationButtons.get(uuid);
-        List<MessageEmbed> embeds = paginatedMenus.get(uuid);
-        if (arg.equals("next")) {
-            int page = Integer.parseInt(components.get(2).getId().split(":")[2]) + 1;
-            if (page < embeds.size()) {
-                // Update buttons
-                components.set(2, components.get(2).withId("pagination:page:" + page).withLabel((page + 1) + "/" + embeds.size()));
-                components.set(1, components.get(1).asEnabled());
-                components.set(0, components.get(0).asEnabled());
-                if (page == embeds.size() - 1) {
-                    components.set(3, components.get(3).asDisabled());
-                    components.set(4, components.get(4).asDisabled());
+        PaginatedMenu menu = BuckyTheBadgerBot.interactionStates.get(uuid, PaginatedMenu.class);
+        if (menu == null) {
+            event.reply("This menu has expired! Please run the command again.").setEphemeral(true).queue();
+            return;
+        }
+        int maxPages = menu.pages.size();
+        int current = menu.page.get();
+        int page = switch (arg) {
+            case "next" -> Math.min(current + 1, maxPages - 1);
+            case "prev" -> Math.max(current - 1, 0);
+            case "first" -> 0;
+            case "last" -> maxPages - 1;
+            default -> current;
+        };
+        //Only move if no other press moved the menu in the meantime
+        if (page == current || !menu.page.compareAndSet(current, page)) {
+            event.deferEdit().queue();
+            return;
+        }
+        CompletableFuture<Integer> loading = menu.pages.load(page);
+        //Fetching the page may take longer than Discord waits for an answer, so the press is acknowledged first
+        boolean deferred = !loading.isDone();
+        if (deferred) {
+            event.deferEdit().queue();
+        }
+        loading.whenComplete((shown, e) -> {
+            if (e != null) {
+                menu.page.compareAndSet(page, current);
+                if (deferred) {
+                    event.getHook().sendMessage("Could not load this page! Please try again.").setEphemeral(true).queue();
+                } else {
+                    event.reply("Could not load this page! Please try again.").setEphemeral(true).queue();
                 }
-                paginationButtons.put(uuid, components);
-                event.editComponents(ActionRow.of(components)).setEmbeds(embeds.get(page)).queue();
+                return;
             }
-        } else if (arg.equals("prev")) {
-            int page = Integer.parseInt(components.get(2).getId().split(":")[2]) - 1;
-            if (page >= 0) {
-                // Update buttons
-                components.set(2, components.get(2).withId("pagination:page:" + page).withLabel((page + 1) + "/" + embeds.size()));
-                components.set(3, components.get(3).asEnabled());
-                components.set(4, components.get(4).asEnabled());
-                if (page == 0) {
-                    components.set(1, components.get(1).asDisabled());
-                    components.set(0, components.get(0).asDisabled());
-                }
-                paginationButtons.put(uuid, components);
-                event.editComponents(ActionRow.of(components)).setEmbeds(embeds.get(page)).queue();
+            menu.page.compareAndSet(page, shown);
+            //The source may have grown (e.g, fetched more pages)
+            BuckyTheBadgerBot.interactionStates.resize(uuid, menu.pages.estimateBytes());
+            List<Button> buttons = getPaginationButtons(uuid, shown, menu.pages.size());
+            MessageEmbed embed = menu.pages.render(shown);
+            if (deferred) {
+                event.getHook().editOriginalComponents(ActionRow.of(buttons)).setEmbeds(embed).queue();
+            } else {
+                event.editComponents(ActionRow.of(buttons)).setEmbeds(embed).queue();
             }
-        } else if (arg.equals("first")) {
-            int page = 0;
-            //Update buttons
-            components.set(0, components.get(0).asDisabled());
-            components.set(1, components.get(1).asDisabled());
-            components.set(2, components.get(2).withId("pagination:page:" + page).withLabel((page + 1) + "/" + embeds.size()));
-            components.set(3, components.get(3).asEnabled());
-            components.set(4, components.get(4).asEnabled());
-            paginationButtons.put(uuid, components);
-            event.editComponents(ActionRow.of(components)).setEmbeds(embeds.get(page)).queue();
-        } else if (arg.equals("last")) {
-            int page = embeds.size() - 1;
-            //Update buttons
-            components.set(4, components.get(4).asDisabled());
-            components.set(3, components.get(3).asDisabled());
-            components.set(2, components.get(2).withId("pagination:page:" + page).withLabel((page + 1) + "/" + embeds.size()));
-            components.set(1, components.get(1).asEnabled());
-            components.set(0, components.get(0).asEnabled());
-            paginationButtons.put(uuid, components);
-            event.editComponents(ActionRow.of(components)).setEmbeds(embeds.get(page)).queue();
-        }
+        });
     }
 
     /**
-     * Disable pagination buttons after 10 minutes
+     * Disable pagination buttons (called once the menu expires)
      *
      * @param uuid the user ID + random UUID of the buttons to disable
      * @param hook The message hook pointing to the original message
      */
     public static void disablePaginationButtons(String uuid, InteractionHook hook) {
-        Runnable task = () -> {
-            List<Button> actionRow = paginationButtons.get(uuid);
+        PaginatedMenu menu = BuckyTheBadgerBot.interactionStates.get(uuid, PaginatedMenu.class);
+        if (menu != null) {
             List<Button> newActionRow = new ArrayList<>();
-            for (Button button : actionRow) {
+            for (Button button : getPaginationButtons(uuid, menu.page.get(), menu.pages.size())) {
                 newActionRow.add(button.asDisabled());
             }
             hook.editOriginalComponents(ActionRow.of(newActionRow)).queue();
-            paginationButtons.remove(uuid);
-            paginatedMenus.remove(uuid);
-        };
-        BuckyTheBadgerBot.scheduledExecutor.schedule(task, 10, TimeUnit.MINUTES);
+        } else {
+            //The state was evicted, so only the buttons are left to disable
+            hook.retrieveOriginal().queue(message -> hook.editOriginalComponents(message.getActionRows().stream()
+                    .map(ActionRow::asDisabled).toList()).queue());
+        }
+    }
+
+    /**
+     * The state of a paginated menu: its pages and the index of the page it shows
+     */
+    private static class PaginatedMenu {
+        private final PageSource pages;
+        private final AtomicInteger page = new AtomicInteger();
+
+        private PaginatedMenu(PageSource pages) {
+            this.pages = pages;
+        }
     }
 }
@@ -0,0 +1,75 @@
+package buckythebadgerbot.utils.resilience;
+
+import buckythebadgerbot.utils.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeout of the requests to an upstream host, derived from how long it recently took to answer
+ * The timeout is a multiple of the p99 latency, between a floor (so a fast upstream isn't cut off by a hiccup) and a ceiling (the configured timeout)
+ * - Until there are recent latencies (e.g, right after startup), the ceiling is used
+ * - Timed out requests are recorded as taking the whole timeout (see the caller), so a slowing upstream raises its own timeout
+ * NOTE: The quantile is only recomputed once per RECOMPUTE_INTERVAL, a request just reads the latest timeout
+ */
+public class AdaptiveTimeout {
+
+    //How many times the p99 latency a request may take
+    private static final double P99_MULTIPLIER = 3.0;
+
+    private static final long RECOMPUTE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LatencyHistogram latencies;
+    private final Duration floor;
+    private final Duration ceiling;
+
+    private volatile Duration timeout;
+    private volatile long computedAt;
+
+    /**
+     * @param latencies the latencies of the upstream (until the headers arrived, which is what the request timeout covers)
+     * @param floor the shortest timeout
+     * @param ceiling the longest timeout
+     */
+    public AdaptiveTimeout(LatencyHistogram latencies, Duration floor, Duration ceiling) {
+        this.latencies = latencies;
+        this.floor = floor.compareTo(ceiling) < 0 ? floor : ceiling;
+        this.ceiling = ceiling;
+        this.timeout = ceiling;
+        this.computedAt = System.nanoTime() - RECOMPUTE_INTERVAL_NANOS;
+    }
+
+    /**
+     * @return the timeout of the next request
+     */
+    public Duration get() {
+        long now = System.nanoTime();
+        if (now - computedAt >= RECOMPUTE_INTERVAL_NANOS) {
+            //Racing threads compute the same value, so there is no need to lock
+            computedAt = now;
+            timeout = compute();
+        }
+        return timeout;
+    }
+
+    private Duration compute() {
+        double p99 = latencies.getQuantile(0.99);
+        if (Double.isNaN(p99)) {
+            return ceiling;
+        }
+        Duration derived = Duration.ofNanos((long) (p99 * P99_MULTIPLIER * 1e9));
+        if (derived.compareTo(floor) < 0) {
+            return floor;
+        }
+        return derived.compareTo(ceiling) > 0 ? ceiling : derived;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveTimeout{" +
+                "timeout=" + timeout +
+                ", floor=" + floor +
+                ", ceiling=" + ceiling +
+                '}';
+    }
+}
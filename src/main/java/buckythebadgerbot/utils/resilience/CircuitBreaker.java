@@ -0,0 +1,182 @@
+package buckythebadgerbot.utils.resilience;
+
+import buckythebadgerbot.utils.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker of an upstream host, so requests fail fast while it is down instead of piling up until they time out
+ * - CLOSED: requests go through, and the outcome of the last WINDOW_SIZE requests is kept
+ * - OPEN: once at least half of the window failed (with enough requests to tell), requests are rejected for OPEN_DURATION
+ * - HALF_OPEN: then a single trial request goes through, which closes the breaker if it succeeds or opens it again if it fails
+ * The state (0 closed, 1 open, 2 half open) and the rejected requests are recorded per host (see bucky_circuit_* on /metrics)
+ * NOTE: Every method is synchronized, the breaker is only consulted once per request
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    //How many of the latest requests the failure rate is computed over, and how many it needs at least
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+    private static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+    //How long the breaker stays open before letting a trial request through
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+
+    //Ring of the outcomes of the latest requests (true if it failed)
+    private final boolean[] outcomes = new boolean[WINDOW_SIZE];
+    private int next;
+    private int callCount;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final LongAdder rejectedCount;
+    private final LongAdder openedCount;
+
+    /**
+     * @param host the upstream host (e.g, "www.ratemyprofessors.com")
+     */
+    public CircuitBreaker(String host) {
+        this.host = host;
+        this.rejectedCount = Metrics.registry.counter("bucky_circuit_rejected_total", "Requests to an upstream rejected because its circuit breaker was open.", "host", host);
+        this.openedCount = Metrics.registry.counter("bucky_circuit_opened_total", "Times the circuit breaker of an upstream opened.", "host", host);
+        Metrics.registry.gauge("bucky_circuit_state", "State of the circuit breaker of an upstream (0 closed, 1 open, 2 half open).", () -> getState().ordinal(), "host", host);
+    }
+
+    /**
+     * Ask to send a request
+     * Every permitted request must be followed by onSuccess() or onFailure()
+     * @return true if the request can go through, false if it must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < OPEN_DURATION.toNanos()) {
+                    rejectedCount.increment();
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                logger.info("Letting a trial request through to {}", host);
+                return true;
+            default:
+                //Only one trial at a time
+                if (trialInFlight) {
+                    rejectedCount.increment();
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Record a request that succeeded
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            logger.info("The circuit breaker of {} is closed again", host);
+            reset(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Record a request that failed (e.g, it timed out or the upstream answered with a server error)
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (callCount >= MIN_CALLS && failureCount >= callCount * FAILURE_RATE_THRESHOLD) {
+                open();
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long until the breaker lets a trial request through (zero unless it is open)
+     */
+    public synchronized Duration getRemainingOpenDuration() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, OPEN_DURATION.toNanos() - (System.nanoTime() - openedAt)));
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getOpenedCount() {
+        return openedCount.sum();
+    }
+
+    private void record(boolean failed) {
+        if (callCount == WINDOW_SIZE) {
+            //The oldest outcome leaves the window
+            if (outcomes[next]) {
+                failureCount--;
+            }
+        } else {
+            callCount++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failureCount++;
+        }
+        next = (next + 1) % WINDOW_SIZE;
+    }
+
+    private void open() {
+        logger.warn("The circuit breaker of {} is open! Failing fast for {} seconds ({})", host, OPEN_DURATION.toSeconds(),
+                state == State.HALF_OPEN ? "the trial request failed" : failureCount + " of the last " + callCount + " requests failed");
+        reset(State.OPEN);
+        openedAt = System.nanoTime();
+        openedCount.increment();
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        trialInFlight = false;
+        next = 0;
+        callCount = 0;
+        failureCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "host='" + host + '\'' +
+                ", state=" + state +
+                ", callCount=" + callCount +
+                ", failureCount=" + failureCount +
+                ", rejectedCount=" + getRejectedCount() +
+                ", openedCount=" + getOpenedCount() +
+                '}';
+    }
+}
@@ -0,0 +1,19 @@
+package buckythebadgerbot.utils.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown (as the cause of a failed future) when a request isn't sent because the circuit breaker of its host is open
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host the upstream host
+     * @param retryIn how long until the breaker lets a trial request through
+     */
+    public CircuitOpenException(String host, Duration retryIn) {
+        super("The circuit breaker of " + host + " is open, retrying in " + retryIn.toSeconds() + " seconds");
+    }
+}
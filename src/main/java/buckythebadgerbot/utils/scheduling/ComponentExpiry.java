@@ -0,0 +1,135 @@
+package buckythebadgerbot.utils.scheduling;
+
+import buckythebadgerbot.utils.interaction.InteractionStateStore;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Expiry of message components (e.g, disabling the buttons of a paginated menu after 10 minutes), on a shared timing wheel
+ * Every expiry has a key (usually the user ID + random UUID in the IDs of its components) and may own interaction state, which is released with it
+ * An expiry can be cancelled when its components were already disabled, or when its message is deleted
+ * NOTE: The ID of a message is only known once one of its components is used, see {@link #bindMessage(long, String)}
+ */
+public class ComponentExpiry {
+
+    private final HashedTimingWheel wheel;
+    private final InteractionStateStore states;
+
+    //Map to store every pending expiry
+    //Follows the format {"userID:UUID"=registration}
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+
+    //Map to store the expiry of every message whose ID is known
+    //Follows the format {message ID="userID:UUID"}
+    private final Map<Long, String> keysByMessage = new ConcurrentHashMap<>();
+
+    /**
+     * @param wheel the timing wheel to schedule the expiries on
+     * @param states the store holding the interaction state of the components
+     */
+    public ComponentExpiry(HashedTimingWheel wheel, InteractionStateStore states) {
+        this.wheel = wheel;
+        this.states = states;
+    }
+
+    /**
+     * Schedule the expiry of the components of a message, replacing the previous expiry of the key
+     * @param key the key of the expiry
+     * @param delay how long the components stay enabled
+     * @param onExpire disables the components (e.g, edits the original message)
+     * @param stateKeys the keys of the interaction state to release once the components expire or the message is deleted
+     */
+    public void schedule(String key, Duration delay, Runnable onExpire, String... stateKeys) {
+        Registration registration = new Registration(List.of(stateKeys));
+        registration.timeout = wheel.schedule(() -> {
+            try {
+                onExpire.run();
+            } finally {
+                release(key, registration);
+            }
+        }, delay);
+        Registration previous = registrations.put(key, registration);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+    }
+
+    /**
+     * Remember which message the components of an expiry are on, so the expiry can be cancelled when the message is deleted
+     * @param messageId the ID of the message
+     * @param key the key of the expiry
+     */
+    public void bindMessage(long messageId, String key) {
+        Registration registration = registrations.get(key);
+        if (registration != null && registration.messageId == 0) {
+            registration.messageId = messageId;
+            keysByMessage.put(messageId, key);
+        }
+    }
+
+    /**
+     * Cancel an expiry whose components were already disabled
+     * The interaction state is kept, since it may still be needed (e.g, the select options behind a disabled button)
+     * @param key the key of the expiry
+     */
+    public void cancel(String key) {
+        Registration registration = registrations.remove(key);
+        if (registration != null) {
+            registration.timeout.cancel();
+            if (registration.messageId != 0) {
+                keysByMessage.remove(registration.messageId, key);
+            }
+        }
+    }
+
+    /**
+     * Cancel the expiry of a deleted message, and release its interaction state
+     * @param messageId the ID of the deleted message
+     */
+    public void onMessageDeleted(long messageId) {
+        String key = keysByMessage.remove(messageId);
+        if (key == null) {
+            return;
+        }
+        Registration registration = registrations.get(key);
+        if (registration != null && registration.timeout.cancel()) {
+            release(key, registration);
+        }
+    }
+
+    /**
+     * Forget an expiry and release its interaction state
+     * @param key the key of the expiry
+     * @param registration the registration of the expiry
+     */
+    private void release(String key, Registration registration) {
+        registrations.remove(key, registration);
+        if (registration.messageId != 0) {
+            keysByMessage.remove(registration.messageId, key);
+        }
+        registration.stateKeys.forEach(states::remove);
+    }
+
+    /**
+     * @return the number of message components that are still enabled
+     */
+    public int size() {
+        return registrations.size();
+    }
+
+    /**
+     * A pending expiry: its timeout, the interaction state it owns and its message (0 until known)
+     */
+    private static class Registration {
+        private final List<String> stateKeys;
+        private volatile HashedTimingWheel.Timeout timeout;
+        private volatile long messageId;
+
+        private Registration(List<String> stateKeys) {
+            this.stateKeys = stateKeys;
+        }
+    }
+}
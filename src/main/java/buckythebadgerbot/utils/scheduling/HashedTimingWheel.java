@@ -0,0 +1,174 @@
+package buckythebadgerbot.utils.scheduling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scheduler for a large number of coarse timeouts (e.g, disabling the components of a message after 10 minutes)
+ * Timeouts are hashed into a ring of slots by the tick they expire on, and a single task advances the wheel one slot per tick:
+ * - Scheduling and cancelling a timeout is O(1), and there is no per-timeout task on the scheduler
+ * - Every timeout of a tick expires in one batch
+ * - Cancelled timeouts are dropped lazily, when their slot comes around
+ * NOTE: A timeout expires up to one tick late, so the tick should be small compared to the delays
+ */
+public class HashedTimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final long tickMillis;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+
+    //The last tick that was processed
+    private volatile long tick;
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+
+    /**
+     * @param tick the duration of a tick
+     * @param slots the number of slots on the wheel (rounded up to a power of 2)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HashedTimingWheel(Duration tick, int slots) {
+        this.tickMillis = Math.max(1, tick.toMillis());
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Start advancing the wheel
+     * @param scheduler the scheduler to run the ticks on
+     */
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedule a task
+     * @param task the task to run once the delay is over (it should be short, e.g, queueing a RestAction)
+     * @param delay how long to wait before running the task
+     * @return the timeout, to cancel the task
+     */
+    public Timeout schedule(Runnable task, Duration delay) {
+        long current = tick;
+        //Round up, so a timeout never expires early
+        long deadline = current + Math.max(1, (delay.toMillis() + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(task, deadline);
+        pendingCount.incrementAndGet();
+        wheel[(int) (deadline & mask)].add(timeout);
+        //The wheel may have passed the slot while the timeout was added, in which case it expires now instead of a revolution later
+        if (deadline <= tick) {
+            expire(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Process the next slot: expire its timeouts that are due, and drop the cancelled ones
+     */
+    private void advance() {
+        long current = tick + 1;
+        List<Timeout> batch = new ArrayList<>();
+        Iterator<Timeout> iterator = wheel[(int) (current & mask)].iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.state.get() != Timeout.PENDING) {
+                iterator.remove();
+            } else if (timeout.deadline <= current) {
+                iterator.remove();
+                batch.add(timeout);
+            }
+        }
+        tick = current;
+        for (Timeout timeout : batch) {
+            expire(timeout);
+        }
+    }
+
+    /**
+     * Run the task of a timeout, unless it was cancelled or already expired
+     * @param timeout the timeout
+     */
+    private void expire(Timeout timeout) {
+        if (!timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+            return;
+        }
+        pendingCount.decrementAndGet();
+        expiredCount.increment();
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            logger.error("A timeout failed! {}", e.toString());
+        }
+    }
+
+    /**
+     * @return the number of timeouts that are neither expired nor cancelled
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.sum();
+    }
+
+    /**
+     * A scheduled task on the wheel
+     */
+    public class Timeout {
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task (it stays on its slot until the wheel passes it)
+         * @return true if the task was cancelled, false if it already expired or was cancelled
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                pendingCount.decrementAndGet();
+                cancelledCount.increment();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+}
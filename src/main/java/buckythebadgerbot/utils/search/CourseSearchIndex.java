@@ -0,0 +1,296 @@
+package buckythebadgerbot.utils.search;
+
+import buckythebadgerbot.data.Course;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * In-memory search engine over the courses table
+ * Answers the same queries as the full text search in Postgres, in the same order:
+ * 1. ts_rank_cd() on the full subject name and number (e.g, "COMPUTER SCIENCES 577")
+ * 2. ts_rank_cd() on the subject abbreviation and number (e.g, "COMP SCI 577")
+ * 3. Trigram similarity (pg_trgm) of the title
+ * NOTE: The index is never modified once built, so it is safe to share between threads (rebuild it to pick up changes)
+ */
+public class CourseSearchIndex {
+
+    //ts_rank_cd() weight of lexemes without a label (D), which is every lexeme of the tsvector columns
+    private static final double LEXEME_WEIGHT = 0.1;
+
+    private final List<Course> courses;
+
+    //Lexemes (in order) of the tsvector columns of every course
+    private final List<String[]> fullLexemes = new ArrayList<>();
+    private final List<String[]> abbrevLexemes = new ArrayList<>();
+
+    //Trigrams of the title of every course
+    private final List<List<String>> titleTrigrams = new ArrayList<>();
+    private final List<Set<String>> titleTrigramSets = new ArrayList<>();
+
+    //Inverted indexes, in the format of {lexeme or trigram = ids (positions in courses) of every course containing it, in ascending order}
+    private final Map<String, int[]> fullPostings;
+    private final Map<String, int[]> abbrevPostings;
+    private final Map<String, int[]> trigramPostings;
+
+    /**
+     * Build the index
+     * @param courses every row of the courses table
+     */
+    public CourseSearchIndex(List<Course> courses) {
+        this.courses = List.copyOf(courses);
+        Map<String, List<Integer>> full = new HashMap<>();
+        Map<String, List<Integer>> abbrev = new HashMap<>();
+        Map<String, List<Integer>> trigrams = new HashMap<>();
+        for (int id = 0; id < this.courses.size(); id++) {
+            Course course = this.courses.get(id);
+            String[] fullDoc = lexemes(Objects.toString(course.getFullSubjectName(), "") + " " + course.getNumber()).toArray(new String[0]);
+            String[] abbrevDoc = lexemes(Objects.toString(course.getSubjectAbbrev(), "") + " " + course.getNumber()).toArray(new String[0]);
+            List<String> titleDoc = Trigrams.sequence(Objects.toString(course.getTitle(), ""));
+            Set<String> titleSet = new HashSet<>(titleDoc);
+            fullLexemes.add(fullDoc);
+            abbrevLexemes.add(abbrevDoc);
+            titleTrigrams.add(titleDoc);
+            titleTrigramSets.add(titleSet);
+            addPostings(full, new HashSet<>(Arrays.asList(fullDoc)), id);
+            addPostings(abbrev, new HashSet<>(Arrays.asList(abbrevDoc)), id);
+            addPostings(trigrams, titleSet, id);
+        }
+        this.fullPostings = toArrays(full);
+        this.abbrevPostings = toArrays(abbrev);
+        this.trigramPostings = toArrays(trigrams);
+    }
+
+    /**
+     * @return the number of indexed courses
+     */
+    public int size() {
+        return courses.size();
+    }
+
+    /**
+     * Search for courses the way /search does (fuzzy title matches use word_similarity())
+     * @param query the user input
+     * @param limit the maximum number of results
+     * @return the best matches, best first
+     */
+    public List<Course> search(String query, int limit) {
+        return rank(query, limit, true);
+    }
+
+    /**
+     * Find the best course the way /course does (fuzzy title matches use similarity())
+     * @param query the user input
+     * @return the best match, or null if nothing matches
+     */
+    public Course findBest(String query) {
+        List<Course> results = rank(query, 1, false);
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Rank every course matching the query
+     * A course matches if either tsvector column contains every lexeme of the query, or its title is similar enough to the query
+     * @param query the user input
+     * @param limit the maximum number of results
+     * @param wordSimilarity true to match titles with word_similarity() (query <% title), false for similarity() (title % query)
+     * @return the best matches, best first
+     */
+    private List<Course> rank(String query, int limit, boolean wordSimilarity) {
+        //plainto_tsquery(): every lexeme of the query must be present
+        Set<String> queryLexemes = new LinkedHashSet<>(lexemes(query));
+        Set<String> queryTrigrams = Trigrams.set(query);
+
+        //Collect the candidates: every full text match, and every title sharing enough trigrams to possibly pass the threshold
+        Set<Integer> candidates = new HashSet<>();
+        addAll(candidates, matchAll(fullPostings, queryLexemes));
+        addAll(candidates, matchAll(abbrevPostings, queryLexemes));
+        double threshold = wordSimilarity ? Trigrams.WORD_SIMILARITY_THRESHOLD : Trigrams.SIMILARITY_THRESHOLD;
+        if (!queryTrigrams.isEmpty()) {
+            int[] shared = new int[courses.size()];
+            for (String trigram : queryTrigrams) {
+                for (int id : trigramPostings.getOrDefault(trigram, new int[0])) {
+                    shared[id]++;
+                }
+            }
+            //Both similarities are at most (shared trigrams / query trigrams), so anything below the threshold can be skipped
+            for (int id = 0; id < shared.length; id++) {
+                if (shared[id] >= threshold * queryTrigrams.size()) {
+                    candidates.add(id);
+                }
+            }
+        }
+
+        //Score the candidates
+        List<ScoredCourse> matches = new ArrayList<>();
+        for (int id : candidates) {
+            double rankFull = rankCoverDensity(fullLexemes.get(id), queryLexemes);
+            double rankAbbrev = rankCoverDensity(abbrevLexemes.get(id), queryLexemes);
+            double sml = wordSimilarity
+                    ? Trigrams.wordSimilarity(queryTrigrams, titleTrigrams.get(id))
+                    : Trigrams.similarity(titleTrigramSets.get(id), queryTrigrams);
+            if (rankFull > 0 || rankAbbrev > 0 || sml >= threshold) {
+                matches.add(new ScoredCourse(courses.get(id), rankFull, rankAbbrev, sml));
+            }
+        }
+
+        //ORDER BY rank_full DESC, rank_abbrev DESC, sml DESC (ties are broken by subject and number, so the order is stable)
+        matches.sort(Comparator.comparingDouble((ScoredCourse match) -> match.rankFull).reversed()
+                .thenComparing(Comparator.comparingDouble((ScoredCourse match) -> match.rankAbbrev).reversed())
+                .thenComparing(Comparator.comparingDouble((ScoredCourse match) -> match.sml).reversed())
+                .thenComparing(match -> match.course.getSubjectAbbrev(), Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(match -> match.course.getNumber(), Comparator.nullsLast(Comparator.naturalOrder())));
+        List<Course> results = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, matches.size()); i++) {
+            results.add(matches.get(i).course);
+        }
+        return results;
+    }
+
+    /**
+     * Split a text into lexemes like to_tsvector('simple', ...) does: lower-cased runs of letters and digits
+     * @param text the text
+     * @return the lexemes, in order
+     */
+    private static List<String> lexemes(String text) {
+        List<String> lexemes = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+            }
+            lexemes.add(lower.substring(start, i));
+        }
+        return lexemes;
+    }
+
+    /**
+     * Equivalent of ts_rank_cd() (without normalization) for a query where every lexeme must be present
+     * Every cover (shortest stretch of the document containing every lexeme) adds 0.1 / (1 + words in the cover that aren't in the query)
+     * @param doc the lexemes of the document, in order
+     * @param query the lexemes of the query
+     * @return the rank, or 0 if the document doesn't contain every lexeme
+     */
+    private static double rankCoverDensity(String[] doc, Set<String> query) {
+        if (query.isEmpty()) {
+            return 0;
+        }
+        double rank = 0;
+        int start = 0;
+        while (true) {
+            //Find the first end position where every lexeme has appeared since the start
+            Set<String> seen = new HashSet<>();
+            int end = -1;
+            for (int i = start; i < doc.length; i++) {
+                if (query.contains(doc[i]) && seen.add(doc[i]) && seen.size() == query.size()) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                return rank;
+            }
+            //Walk back from the end to find the last start position that still covers every lexeme
+            seen.clear();
+            int begin = end;
+            int matched = 0;
+            for (int i = end; i >= start; i--) {
+                if (query.contains(doc[i])) {
+                    matched++;
+                    if (seen.add(doc[i]) && seen.size() == query.size()) {
+                        begin = i;
+                        break;
+                    }
+                }
+            }
+            int noise = (end - begin + 1) - matched;
+            rank += LEXEME_WEIGHT / (1 + noise);
+            start = begin + 1;
+        }
+    }
+
+    /**
+     * Get the ids of every course containing every lexeme
+     * @param postings the inverted index of a column
+     * @param lexemes the lexemes of the query
+     * @return the ids of the matches, in ascending order
+     */
+    private static int[] matchAll(Map<String, int[]> postings, Set<String> lexemes) {
+        int[] ids = null;
+        for (String lexeme : lexemes) {
+            int[] posting = postings.get(lexeme);
+            if (posting == null) {
+                return new int[0];
+            }
+            ids = ids == null ? posting : intersect(ids, posting);
+        }
+        return ids == null ? new int[0] : ids;
+    }
+
+    private static int[] intersect(int[] first, int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static void addAll(Set<Integer> set, int[] ids) {
+        for (int id : ids) {
+            set.add(id);
+        }
+    }
+
+    private static void addPostings(Map<String, List<Integer>> postings, Set<String> terms, int id) {
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new ArrayList<>()).add(id);
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> postings) {
+        Map<String, int[]> arrays = new HashMap<>();
+        postings.forEach((term, ids) -> arrays.put(term, ids.stream().mapToInt(Integer::intValue).toArray()));
+        return arrays;
+    }
+
+    /**
+     * A course matching a query, and its scores
+     */
+    private static class ScoredCourse {
+        private final Course course;
+        private final double rankFull;
+        private final double rankAbbrev;
+        private final double sml;
+
+        private ScoredCourse(Course course, double rankFull, double rankAbbrev, double sml) {
+            this.course = course;
+            this.rankFull = rankFull;
+            this.rankAbbrev = rankAbbrev;
+            this.sml = sml;
+        }
+    }
+}
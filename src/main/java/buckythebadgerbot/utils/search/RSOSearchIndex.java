@@ -0,0 +1,213 @@
+package buckythebadgerbot.utils.search;
+
+import buckythebadgerbot.data.RegStudentOrg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * In-memory search engine over the catalog of registered student organizations
+ * Ranks the orgs with BM25F: the matches of a term in every field are weighted and normalized by the length of the field, then saturated together
+ * - The name and short name weigh the most, then the category names, then the summary
+ * - A query term that matches nothing is expanded to every term it is a prefix of (e.g, "robot" matches "robotics")
+ * NOTE: The index is never modified once built, so it is safe to share between threads (rebuild it to pick up changes)
+ */
+public class RSOSearchIndex {
+
+    //BM25 saturation (how quickly repeated matches stop counting) and length normalization
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    //Weights of the fields: name, short name, category names, summary
+    private static final double[] FIELD_WEIGHTS = {3.0, 3.0, 2.0, 1.0};
+
+    //How many indexed terms a query term without matches can expand to
+    private static final int MAX_PREFIX_EXPANSIONS = 32;
+
+    private final List<RegStudentOrg> orgs;
+
+    //Inverted index, in the format of {term = ids (positions in orgs) of every org containing it, in ascending order}
+    private final Map<String, int[]> postings;
+
+    //Saturation input of every posting (the weighted, length normalized term frequency over every field), in the same order as the postings
+    private final Map<String, float[]> frequencies;
+
+    //Every indexed term in alphabetical order, for prefix expansion
+    private final String[] dictionary;
+
+    /**
+     * Build the index
+     * @param orgs every registered student org of the catalog
+     */
+    public RSOSearchIndex(List<RegStudentOrg> orgs) {
+        this.orgs = List.copyOf(orgs);
+        int fieldCount = FIELD_WEIGHTS.length;
+
+        //Tokenize every field first, since the normalization needs the average length of every field
+        List<List<List<String>>> docs = new ArrayList<>();
+        double[] averageLengths = new double[fieldCount];
+        for (RegStudentOrg org : this.orgs) {
+            List<List<String>> fields = fields(org);
+            for (int field = 0; field < fieldCount; field++) {
+                averageLengths[field] += fields.get(field).size();
+            }
+            docs.add(fields);
+        }
+        for (int field = 0; field < fieldCount; field++) {
+            averageLengths[field] = Math.max(1, averageLengths[field] / Math.max(1, docs.size()));
+        }
+
+        Map<String, List<Integer>> ids = new HashMap<>();
+        Map<String, List<Float>> weights = new HashMap<>();
+        for (int id = 0; id < docs.size(); id++) {
+            Map<String, Double> docFrequencies = new HashMap<>();
+            for (int field = 0; field < fieldCount; field++) {
+                List<String> terms = docs.get(id).get(field);
+                double norm = FIELD_WEIGHTS[field] / (1 - B + B * terms.size() / averageLengths[field]);
+                for (String term : terms) {
+                    docFrequencies.merge(term, norm, Double::sum);
+                }
+            }
+            for (Map.Entry<String, Double> entry : docFrequencies.entrySet()) {
+                ids.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(id);
+                weights.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry.getValue().floatValue());
+            }
+        }
+
+        this.postings = new HashMap<>();
+        this.frequencies = new HashMap<>();
+        ids.forEach((term, list) -> postings.put(term, list.stream().mapToInt(Integer::intValue).toArray()));
+        weights.forEach((term, list) -> {
+            float[] array = new float[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            frequencies.put(term, array);
+        });
+        this.dictionary = postings.keySet().toArray(new String[0]);
+        Arrays.sort(dictionary);
+    }
+
+    /**
+     * @return the number of indexed orgs
+     */
+    public int size() {
+        return orgs.size();
+    }
+
+    /**
+     * Search for orgs by name, short name, summary and/or category
+     * Only the best results are kept while scoring, so a query never holds more than the limit (plus one score per org)
+     * @param query the user input
+     * @param limit the maximum number of results
+     * @return the best matches, best first (ties are broken by name)
+     */
+    public List<RegStudentOrg> search(String query, int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>(terms(query));
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        float[] scores = new float[orgs.size()];
+        for (String queryTerm : queryTerms) {
+            for (String term : expand(queryTerm)) {
+                int[] posting = postings.get(term);
+                float[] tf = frequencies.get(term);
+                double idf = Math.log(1 + (orgs.size() - posting.length + 0.5) / (posting.length + 0.5));
+                //Expanded terms count for less than the exact term
+                double boost = term.equals(queryTerm) ? 1.0 : 0.5;
+                for (int i = 0; i < posting.length; i++) {
+                    scores[posting[i]] += (float) (boost * idf * tf[i] / (K1 + tf[i]));
+                }
+            }
+        }
+
+        //Keep the best results in a min-heap of the limit's size
+        Comparator<Integer> order = Comparator.comparingDouble((Integer id) -> scores[id])
+                .thenComparing((Integer id) -> Objects.toString(orgs.get(id).getName(), ""), Comparator.reverseOrder());
+        PriorityQueue<Integer> best = new PriorityQueue<>(order);
+        for (int id = 0; id < scores.length; id++) {
+            if (scores[id] <= 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(id);
+            } else if (order.compare(id, best.peek()) > 0) {
+                best.poll();
+                best.add(id);
+            }
+        }
+        RegStudentOrg[] results = new RegStudentOrg[best.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = orgs.get(best.poll());
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Get the indexed terms a query term matches
+     * @param queryTerm a term of the query
+     * @return the term itself if it is indexed, otherwise the indexed terms starting with it
+     */
+    private List<String> expand(String queryTerm) {
+        if (postings.containsKey(queryTerm)) {
+            return List.of(queryTerm);
+        }
+        List<String> expansions = new ArrayList<>();
+        //Terms starting with the query term are right after where it would be inserted
+        int index = Arrays.binarySearch(dictionary, queryTerm);
+        for (int i = -index - 1; i < dictionary.length && expansions.size() < MAX_PREFIX_EXPANSIONS; i++) {
+            if (!dictionary[i].startsWith(queryTerm)) {
+                break;
+            }
+            expansions.add(dictionary[i]);
+        }
+        return expansions;
+    }
+
+    /**
+     * Get the terms of every indexed field of an org, in the order of FIELD_WEIGHTS
+     * @param org the org
+     * @return the terms of the name, short name, category names and summary
+     */
+    private static List<List<String>> fields(RegStudentOrg org) {
+        String[] categoryNames = org.getCategoryNames();
+        return List.of(
+                terms(Objects.toString(org.getName(), "")),
+                terms(Objects.toString(org.getShortName(), "")),
+                terms(categoryNames == null ? "" : String.join(" ", categoryNames)),
+                terms(Objects.toString(org.getSummary(), "")));
+    }
+
+    /**
+     * Split a text into terms: lower-cased runs of letters and digits
+     * @param text the text
+     * @return the terms, in order
+     */
+    private static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+            }
+            terms.add(lower.substring(start, i));
+        }
+        return terms;
+    }
+}
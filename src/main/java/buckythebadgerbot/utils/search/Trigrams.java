@@ -0,0 +1,106 @@
+package buckythebadgerbot.utils.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Trigram functions that follow pg_trgm, so in-memory searches rank the same as the database
+ * Every word (run of letters and digits) is lower-cased and padded with two spaces in front and one behind, e.g, "cat" becomes "  c", " ca", "cat", "at "
+ */
+public final class Trigrams {
+
+    //Default thresholds of pg_trgm (pg_trgm.similarity_threshold and pg_trgm.word_similarity_threshold)
+    public static final double SIMILARITY_THRESHOLD = 0.3;
+    public static final double WORD_SIMILARITY_THRESHOLD = 0.6;
+
+    private Trigrams() {
+    }
+
+    /**
+     * Get the trigrams of every word, in order
+     * @param text the text
+     * @return the trigrams (with duplicates), in the order they appear in the text
+     */
+    public static List<String> sequence(String text) {
+        List<String> trigrams = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+            }
+            String padded = "  " + lower.substring(start, i) + " ";
+            for (int j = 0; j + 3 <= padded.length(); j++) {
+                trigrams.add(padded.substring(j, j + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    /**
+     * Get the unique trigrams of a text
+     * @param text the text
+     * @return the set of trigrams
+     */
+    public static Set<String> set(String text) {
+        return new HashSet<>(sequence(text));
+    }
+
+    /**
+     * Equivalent of pg_trgm's similarity(): the shared trigrams over all trigrams of both texts
+     * @param first the trigrams of the first text
+     * @param second the trigrams of the second text
+     * @return the similarity, from 0 to 1
+     */
+    public static double similarity(Set<String> first, Set<String> second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return 0;
+        }
+        int shared = 0;
+        for (String trigram : first) {
+            if (second.contains(trigram)) {
+                shared++;
+            }
+        }
+        return (double) shared / (first.size() + second.size() - shared);
+    }
+
+    /**
+     * Equivalent of pg_trgm's word_similarity(): the best similarity between the first text and any continuous extent of the second text
+     * @param first the trigrams of the first text (e.g, the query)
+     * @param second the ordered trigrams of the second text (e.g, the title)
+     * @return the word similarity, from 0 to 1
+     */
+    public static double wordSimilarity(Set<String> first, List<String> second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return 0;
+        }
+        double best = 0;
+        //The best extent always starts and ends on a shared trigram, so only those are tried as starts
+        for (int start = 0; start < second.size(); start++) {
+            if (!first.contains(second.get(start))) {
+                continue;
+            }
+            Set<String> extent = new HashSet<>();
+            int shared = 0;
+            for (int end = start; end < second.size(); end++) {
+                String trigram = second.get(end);
+                if (extent.add(trigram) && first.contains(trigram)) {
+                    shared++;
+                }
+                if (first.contains(trigram)) {
+                    best = Math.max(best, (double) shared / (first.size() + extent.size() - shared));
+                }
+            }
+        }
+        return best;
+    }
+}
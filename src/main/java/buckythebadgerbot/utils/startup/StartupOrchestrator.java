@@ -0,0 +1,229 @@
+package buckythebadgerbot.utils.startup;
+
+import buckythebadgerbot.utils.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs the independent steps of starting the bot in parallel, and tracks when each of them is done
+ * - A step starts once the steps it depends on succeeded, and is skipped if one of them didn't
+ * - Blocking steps (e.g, initializing the database pool) run on the startup executor, non-blocking ones just start their future
+ * - The readiness of a set of steps (e.g, what a command needs) is a future completed once they are all done, whatever their outcome
+ * - Once every step is done, the timing of every step (offset from the start, and duration) is logged and exposed (see bucky_startup_* on /metrics)
+ */
+public class StartupOrchestrator {
+    private static final Logger logger = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED, SKIPPED
+    }
+
+    //The executor blocking steps run on
+    private final Executor executor;
+
+    //When the startup began (in System.nanoTime())
+    private final long startTime;
+
+    //Map to store the state of every registered step
+    private final Map<StartupStep, Step> steps = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor the executor blocking steps run on
+     */
+    public StartupOrchestrator(Executor executor) {
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+        Metrics.registry.gauge("bucky_startup_seconds", "Time from the start of the bot until every startup step was done (0 until then).",
+                () -> whenAllDone().isDone() ? getDuration().toNanos() / 1e9 : 0);
+    }
+
+    /**
+     * Record a step that already ran on the calling thread
+     * @param step the step
+     * @param stepStartTime when the step started (in System.nanoTime())
+     */
+    public void record(StartupStep step, long stepStartTime) {
+        Step state = step(step);
+        state.startedAt = stepStartTime;
+        state.finish(Status.SUCCEEDED, null);
+    }
+
+    /**
+     * Run a blocking step on the startup executor
+     * @param step the step
+     * @param task runs the step (a thrown exception fails it)
+     * @param dependencies the steps that must succeed first
+     * @return a future completed once the step is done (never exceptionally, see getStatus())
+     */
+    public CompletableFuture<Void> run(StartupStep step, Runnable task, StartupStep... dependencies) {
+        return runAsync(step, () -> CompletableFuture.runAsync(task, executor), dependencies);
+    }
+
+    /**
+     * Start a non-blocking step
+     * @param step the step
+     * @param task starts the step, the step is done once the future completes (and failed if it completes exceptionally)
+     * @param dependencies the steps that must succeed first
+     * @return a future completed once the step is done (never exceptionally, see getStatus())
+     */
+    public CompletableFuture<Void> runAsync(StartupStep step, Supplier<? extends CompletableFuture<?>> task, StartupStep... dependencies) {
+        Step state = step(step);
+        List<Step> required = Arrays.stream(dependencies).map(this::step).toList();
+        CompletableFuture.allOf(required.stream().map(dependency -> dependency.done).toArray(CompletableFuture[]::new)).thenRun(() -> {
+            for (Step dependency : required) {
+                if (dependency.status != Status.SUCCEEDED) {
+                    state.startedAt = System.nanoTime();
+                    state.finish(Status.SKIPPED, dependency.step.label + " " + dependency.status.name().toLowerCase());
+                    return;
+                }
+            }
+            state.startedAt = System.nanoTime();
+            state.status = Status.RUNNING;
+            CompletableFuture<?> future;
+            try {
+                future = task.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((result, e) -> state.finish(e == null ? Status.SUCCEEDED : Status.FAILED, e == null ? null : e.toString()));
+        });
+        return state.done;
+    }
+
+    /**
+     * Mark a step as skipped (e.g, it isn't configured), which skips the steps depending on it too
+     * @param step the step
+     * @param reason why it is skipped
+     */
+    public void skip(StartupStep step, String reason) {
+        Step state = step(step);
+        state.startedAt = System.nanoTime();
+        state.finish(Status.SKIPPED, reason);
+    }
+
+    /**
+     * Get the readiness of a set of steps
+     * @param required the steps
+     * @return a future completed once every step is done, whatever its outcome (steps that were never registered don't count)
+     */
+    public CompletableFuture<Void> whenDone(Collection<StartupStep> required) {
+        return CompletableFuture.allOf(required.stream()
+                .map(steps::get)
+                .filter(Objects::nonNull)
+                .map(state -> state.done)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * @return a future completed once every registered step is done
+     */
+    public CompletableFuture<Void> whenAllDone() {
+        return whenDone(steps.keySet());
+    }
+
+    /**
+     * @param step a step
+     * @return the status of the step (PENDING if it was never registered)
+     */
+    public Status getStatus(StartupStep step) {
+        Step state = steps.get(step);
+        return state == null ? Status.PENDING : state.status;
+    }
+
+    /**
+     * @return the time since the startup began
+     */
+    public Duration getElapsed() {
+        return Duration.ofNanos(System.nanoTime() - startTime);
+    }
+
+    /**
+     * @return the time from the start until the last step was done (so far)
+     */
+    public Duration getDuration() {
+        long end = steps.values().stream().filter(state -> state.done.isDone()).mapToLong(state -> state.finishedAt).max().orElse(startTime);
+        return Duration.ofNanos(end - startTime);
+    }
+
+    /**
+     * Log the timing of every step once they are all done
+     * NOTE: Only the steps registered by the time this is called are waited on
+     * @return a future completed once the report is logged
+     */
+    public CompletableFuture<Void> reportWhenDone() {
+        return whenAllDone().thenRun(() -> logger.info("{}", this));
+    }
+
+    private Step step(StartupStep step) {
+        return steps.computeIfAbsent(step, Step::new);
+    }
+
+    private long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * @return the timing breakdown of every step, in the order they started
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("Startup took " + getDuration().toMillis() + " ms:");
+        steps.values().stream()
+                .sorted(Comparator.comparingLong((Step state) -> state.startedAt == 0 ? Long.MAX_VALUE : state.startedAt - startTime))
+                .forEach(state -> {
+                    report.append(String.format("%n  %-12s %-9s", state.step.label, state.status));
+                    if (state.done.isDone()) {
+                        report.append(String.format(" %6d ms -> %6d ms (%d ms)", millis(state.startedAt - startTime),
+                                millis(state.finishedAt - startTime), millis(state.finishedAt - state.startedAt)));
+                    }
+                    if (state.reason != null) {
+                        report.append(" ").append(state.reason);
+                    }
+                });
+        return report.toString();
+    }
+
+    /**
+     * The state and timing of a step (in System.nanoTime())
+     */
+    private class Step {
+        private final StartupStep step;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Status status = Status.PENDING;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile String reason;
+
+        private Step(StartupStep step) {
+            this.step = step;
+        }
+
+        private void finish(Status outcome, String reason) {
+            if (done.isDone()) {
+                return;
+            }
+            this.finishedAt = System.nanoTime();
+            this.status = outcome;
+            this.reason = reason;
+            Metrics.registry.gauge("bucky_startup_step_seconds", "Time a startup step took.", () -> (finishedAt - startedAt) / 1e9, "step", step.label);
+            if (outcome == Status.FAILED) {
+                logger.warn("Startup step '{}' failed after {} ms! {}", step.label, millis(finishedAt - startedAt), reason);
+            } else {
+                logger.debug("Startup step '{}' {} in {} ms", step.label, outcome.name().toLowerCase(), millis(finishedAt - startedAt));
+            }
+            done.complete(null);
+        }
+    }
+}
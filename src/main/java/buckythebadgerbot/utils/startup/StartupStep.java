@@ -0,0 +1,28 @@
+package buckythebadgerbot.utils.startup;
+
+/**
+ * The steps of starting the bot (see StartupOrchestrator)
+ */
+public enum StartupStep {
+    //Run one after another on the main thread, everything else depends on them
+    EXECUTORS("executors"),
+    SERVICES("services"),
+    COMMANDS("commands"),
+
+    //Run in parallel
+    DATABASE("database"),
+    COURSE_INDEX("courseIndex"),
+    GRADE_GRAPHS("gradeGraphs"),
+    PRECONNECT("preconnect"),
+    GYM_SNAPSHOT("gymSnapshot"),
+    RSO_CATALOG("rsoCatalog"),
+    DINING_MENUS("diningMenus"),
+    GATEWAY("gateway");
+
+    //The name of the step in the logs and metrics
+    public final String label;
+
+    StartupStep(String label) {
+        this.label = label;
+    }
+}